@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A device telemetry payload of a realistic size and shape, used by the benchmarks.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class Telemetry
+{
+    /** The topic telemetry is sent to. */
+    public static final String TOPIC = "devices/telemetry";
+
+    /** The event type for telemetry. */
+    public static final String EVENT_TYPE = "telemetry";
+
+    private final String _deviceId;
+    private final long _timestamp;
+    private final double _temperature;
+    private final double _humidity;
+    private final boolean _online;
+    private final List<String> _tags;
+    private final Map<String, Double> _readings;
+
+    /**
+     * Create an instance of {@code Telemetry}.
+     *
+     * @param deviceId the device ID
+     * @param timestamp the time of the reading, in milliseconds since the epoch
+     * @param temperature the temperature in degrees Celsius
+     * @param humidity the relative humidity
+     * @param online true if the device is online
+     * @param tags tags describing the device
+     * @param readings other sensor readings by name
+     */
+    @JsonCreator
+    public Telemetry(
+        @JsonProperty("deviceId") final String deviceId, @JsonProperty("timestamp") final long timestamp,
+        @JsonProperty("temperature") final double temperature, @JsonProperty("humidity") final double humidity,
+        @JsonProperty("online") final boolean online, @JsonProperty("tags") final List<String> tags,
+        @JsonProperty("readings") final Map<String, Double> readings)
+    {
+        _deviceId = deviceId;
+        _timestamp = timestamp;
+        _temperature = temperature;
+        _humidity = humidity;
+        _online = online;
+        _tags = tags;
+        _readings = readings;
+    }
+
+    /**
+     * Create a sample payload for a device.
+     *
+     * @param device the device number
+     *
+     * @return the payload
+     */
+    public static Telemetry sample(final int device)
+    {
+        final Map<String, Double> readings = new LinkedHashMap<>();
+        readings.put("pressure", 1013.25);
+        readings.put("co2", 412.0 + device);
+        readings.put("voltage", 3.3);
+        readings.put("rssi", -67.0);
+        return new Telemetry("device-" + device, 1_500_000_000_000L + device, 20.5 + device % 10, 0.45, device % 2 == 0,
+            Arrays.asList("floor-" + device % 5, "building-a", "hvac"), readings);
+    }
+
+    @JsonProperty
+    public String getDeviceId()
+    {
+        return _deviceId;
+    }
+
+    @JsonProperty
+    public long getTimestamp()
+    {
+        return _timestamp;
+    }
+
+    @JsonProperty
+    public double getTemperature()
+    {
+        return _temperature;
+    }
+
+    @JsonProperty
+    public double getHumidity()
+    {
+        return _humidity;
+    }
+
+    @JsonProperty
+    public boolean isOnline()
+    {
+        return _online;
+    }
+
+    @JsonProperty
+    public List<String> getTags()
+    {
+        return _tags;
+    }
+
+    @JsonProperty
+    public Map<String, Double> getReadings()
+    {
+        return _readings;
+    }
+}
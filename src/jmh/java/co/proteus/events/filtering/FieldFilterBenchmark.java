@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.filtering;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import co.proteus.events.Telemetry;
+import co.proteus.events.marshalling.MarshalException;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.publication.Event;
+
+import static co.proteus.events.filtering.FieldFilter.fieldFilter;
+import static co.proteus.events.filtering.JmesPathFilter.jmesPathFilter;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+
+/**
+ * Benchmarks for {@link FieldFilter#accept} compared with the equivalent {@link JmesPathFilter}. Each invocation uses new
+ * {@link MessageFilter.Parameters}, so the cost of reading the payload is included as it is when a message is received.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldFilterBenchmark
+{
+    private static final Map<String, String> JMESPATH = ImmutableMap.of(
+        "deviceId == 'device-7'", "payload.deviceId == 'device-7'",
+        "temperature > 25", "payload.temperature > `25`",
+        "online == true && humidity < 0.5", "payload.online == `true` && payload.humidity < `0.5`",
+        "readings.co2 > 400", "payload.readings.co2 > `400`");
+
+    @Param({
+        "deviceId == 'device-7'",
+        "temperature > 25",
+        "online == true && humidity < 0.5",
+        "readings.co2 > 400",
+    })
+    public String predicate;
+
+    private FieldFilter _fieldFilter;
+    private JmesPathFilter _jmesPathFilter;
+    private AWSIotMessage _message;
+
+    @Setup
+    public void setup() throws MarshalException
+    {
+        _fieldFilter = fieldFilter(predicate);
+        _jmesPathFilter = jmesPathFilter(JMESPATH.get(predicate));
+        _message = new JsonMarshaller(QOS0).marshall(new Event<>(Telemetry.TOPIC, Telemetry.EVENT_TYPE, Telemetry.sample(7)));
+    }
+
+    @Benchmark
+    public boolean accept()
+    {
+        return _fieldFilter.accept(new MessageFilter.Parameters(_message));
+    }
+
+    @Benchmark
+    public boolean jmesPath()
+    {
+        return _jmesPathFilter.accept(new MessageFilter.Parameters(_message));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.filtering;
+
+import io.burt.jmespath.Expression;
+import io.burt.jmespath.jackson.JacksonRuntime;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import co.proteus.events.Telemetry;
+import co.proteus.events.marshalling.MarshalException;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.publication.Event;
+
+import static co.proteus.events.filtering.JmesPathFilter.jmesPathFilter;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+
+/**
+ * Benchmarks for {@link JmesPathFilter#accept} with a variety of expressions. Each invocation uses new
+ * {@link MessageFilter.Parameters}, so the cost of parsing the payload is included as it is when a message is received. Also
+ * compares getting a cached filter with compiling the expression, which is what each subscription cost before filters were
+ * cached.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JmesPathBenchmark
+{
+    @Param({
+        "payload.deviceId == 'device-7'",
+        "payload.temperature > `25`",
+        "payload.online && payload.humidity < `0.5`",
+        "contains(payload.tags, 'hvac')",
+        "length(payload.readings) > `3`",
+        "payload.readings.co2",
+    })
+    public String expression;
+
+    private JmesPathFilter _filter;
+    private AWSIotMessage _message;
+
+    @Setup
+    public void setup() throws MarshalException
+    {
+        _filter = jmesPathFilter(expression);
+        _message = new JsonMarshaller(QOS0).marshall(new Event<>(Telemetry.TOPIC, Telemetry.EVENT_TYPE, Telemetry.sample(7)));
+    }
+
+    @Benchmark
+    public boolean accept()
+    {
+        return _filter.accept(new MessageFilter.Parameters(_message));
+    }
+
+    @Benchmark
+    public JmesPathFilter cachedFilter()
+    {
+        return jmesPathFilter(expression);
+    }
+
+    @Benchmark
+    public Expression<JsonNode> compile()
+    {
+        return new JacksonRuntime().compile(expression);
+    }
+}
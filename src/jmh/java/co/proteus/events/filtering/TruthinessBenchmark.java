@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.filtering;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for deciding whether the result of a {@link JmesPathFilter} expression accepts a message, for each type of
+ * result. {@code bigDecimal} converts numbers through their string form as filters did before, for comparison.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TruthinessBenchmark
+{
+    @Param({"int", "double", "bigInteger", "decimal", "boolean", "string"})
+    public String type;
+
+    private JsonNode _result;
+
+    @Setup
+    public void setup()
+    {
+        final JsonNodeFactory nodes = JsonNodeFactory.instance;
+        switch (type)
+        {
+            case "int":
+                _result = nodes.numberNode(42);
+                break;
+            case "double":
+                _result = nodes.numberNode(21.5);
+                break;
+            case "bigInteger":
+                _result = nodes.numberNode(BigInteger.ONE.shiftLeft(100));
+                break;
+            case "decimal":
+                _result = nodes.numberNode(new BigDecimal("0.001"));
+                break;
+            case "boolean":
+                _result = nodes.booleanNode(true);
+                break;
+            default:
+                _result = nodes.textNode("device-7");
+                break;
+        }
+    }
+
+    @Benchmark
+    public boolean deriveTruthiness()
+    {
+        return JmesPathFilter.deriveTruthiness(_result);
+    }
+
+    @Benchmark
+    public boolean bigDecimal()
+    {
+        final JsonNode node = _result;
+        return (node.isBoolean() && node.booleanValue())
+               || (node.isNumber() && BigDecimal.ZERO.compareTo(new BigDecimal(node.numberValue().toString())) != 0)
+               || (node.isTextual() && !node.textValue().isEmpty())
+               || (node.isArray() && node.size() > 0)
+               || (node.isObject());
+    }
+}
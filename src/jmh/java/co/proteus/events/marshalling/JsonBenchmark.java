@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import co.proteus.events.Telemetry;
+import co.proteus.events.marshalling.json.EventTypeRegistry;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.marshalling.json.JsonUnmarshaller;
+import co.proteus.events.marshalling.smile.SmileMarshaller;
+import co.proteus.events.marshalling.smile.SmileUnmarshaller;
+import co.proteus.events.publication.Event;
+
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+
+/**
+ * Benchmarks for {@link JsonMarshaller} and {@link JsonUnmarshaller}, and their Smile counterparts.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark
+{
+    /** The codec: JSON text, or binary Smile data. */
+    @Param({"json", "smile"})
+    public String format;
+
+    /** True to register the payload type, so payloads are encoded without their class name. */
+    @Param({"false", "true"})
+    public boolean registered;
+
+    private EventMarshaller _marshaller;
+    private EventUnmarshaller _unmarshaller;
+    private Event<Telemetry> _event;
+    private AWSIotMessage _message;
+
+    @Setup
+    public void setup() throws MarshalException
+    {
+        final EventTypeRegistry registry = new EventTypeRegistry();
+        if (registered) registry.register(Telemetry.EVENT_TYPE, Telemetry.class);
+        final boolean smile = format.equals("smile");
+        _marshaller = smile ? new SmileMarshaller(QOS0, registry) : new JsonMarshaller(QOS0, registry);
+        _unmarshaller = smile ? new SmileUnmarshaller(registry) : new JsonUnmarshaller(registry);
+        _event = new Event<>(Telemetry.TOPIC, Telemetry.EVENT_TYPE, Telemetry.sample(7));
+        _message = _marshaller.marshall(_event);
+    }
+
+    @Benchmark
+    public AWSIotMessage marshall() throws MarshalException
+    {
+        return _marshaller.marshall(_event);
+    }
+
+    @Benchmark
+    public Event<?> unmarshall() throws UnmarshalException
+    {
+        return _unmarshaller.unmarshall(_message);
+    }
+}
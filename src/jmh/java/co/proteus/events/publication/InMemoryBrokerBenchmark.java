@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.proteus.events.Telemetry;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.marshalling.json.JsonUnmarshaller;
+
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Benchmarks for sending events from a {@link PublisherService} to a {@link SubscriptionService} through an
+ * {@link InMemoryBroker}. Each invocation publishes a batch of events and waits until the subscriber has received all of
+ * them, so the benchmark measures the whole local round trip: marshalling, the broker's hand-off to its delivery thread,
+ * routing and unmarshalling. With {@code local} the publisher {@link PublisherService#enableLocalDelivery delivers} the
+ * events to the subscriber directly, which skips all of those but routing.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InMemoryBrokerBenchmark
+{
+    private static final int BATCH = 256;
+
+    @Param({"false", "true"})
+    public boolean local;
+
+    private final AtomicLong _received = new AtomicLong();
+    private ConnectionManager _publisherConnection;
+    private ConnectionManager _subscriberConnection;
+    private PublisherService _publisher;
+    private Event<?>[] _events;
+    private long _expected;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        final InMemoryBroker broker = new InMemoryBroker();
+        _subscriberConnection = new ConnectionManager(broker.createTransport());
+        final SubscriptionService subscriptions = new SubscriptionService(_subscriberConnection, new JsonUnmarshaller(),
+            Runnable::run, SubscriptionService.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+        subscriptions.<Telemetry>subscribe(Telemetry.TOPIC, Telemetry.EVENT_TYPE, params -> true,
+            event -> _received.incrementAndGet()).get(5, SECONDS);
+
+        _publisherConnection = new ConnectionManager(broker.createTransport());
+        _publisher = new PublisherService(_publisherConnection, new JsonMarshaller(QOS0), Runnable::run,
+            PublisherService.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+        _publisherConnection.whenConnected().get(5, SECONDS);
+        if (local) _publisher.enableLocalDelivery(Telemetry.TOPIC, Telemetry.EVENT_TYPE, subscriptions, false);
+
+        _events = new Event<?>[BATCH];
+        for (int i = 0; i < _events.length; i++)
+            _events[i] = new Event<>(Telemetry.TOPIC, Telemetry.EVENT_TYPE, Telemetry.sample(i));
+    }
+
+    @TearDown
+    public void teardown()
+    {
+        _publisherConnection.close();
+        _subscriberConnection.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long roundTrip()
+    {
+        for (final Event<?> event : _events)
+            _publisher.publish(event);
+        _expected += BATCH;
+        long received;
+        while ((received = _received.get()) < _expected)
+            Thread.yield();
+        return received;
+    }
+}
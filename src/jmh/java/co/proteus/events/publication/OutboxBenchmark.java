@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import co.proteus.events.Telemetry;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+
+/**
+ * Benchmarks for storing a message in an {@link Outbox} and reading it back to send, which is the cost added to each event
+ * published while the connection is down.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutboxBenchmark
+{
+    private Path _directory;
+    private Outbox _outbox;
+    private AWSIotMessage _message;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        _directory = Files.createTempDirectory("outbox");
+        _outbox = new Outbox(_directory);
+        _message = new JsonMarshaller(QOS0).marshall(new Event<>(Telemetry.TOPIC, Telemetry.EVENT_TYPE, Telemetry.sample(7)));
+    }
+
+    @TearDown
+    public void teardown() throws IOException
+    {
+        _outbox.close();
+        try (Stream<Path> paths = Files.walk(_directory))
+        {
+            for (final Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public AWSIotMessage storeAndReplay() throws IOException
+    {
+        _outbox.append(_message);
+        final Outbox.Stored stored = _outbox.peek();
+        _outbox.remove(stored);
+        return stored._message;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotConnectionStatus;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotTopic;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import co.proteus.events.Telemetry;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Benchmarks for the latency of an urgent event while bulk events saturate the link. A background thread publishes telemetry
+ * as fast as the queue accepts it, to a transport that takes a few microseconds to send each message, so the queue stays
+ * full. With {@code prioritized} the urgent events have {@link PublishPriority#HIGH high priority} and the telemetry
+ * {@link PublishPriority#LOW low priority}; otherwise they share a queue.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriorityBenchmark
+{
+    private static final String ALARM = "alarm";
+    private static final long SEND_NANOS = 5_000;
+
+    // Spends SEND_NANOS on each message, like a link with limited bandwidth.
+    private static final class SlowTransport implements Transport
+    {
+        @Override
+        public void connect()
+        {
+        }
+
+        @Override
+        public void disconnect()
+        {
+        }
+
+        @Override
+        public AWSIotConnectionStatus getConnectionStatus()
+        {
+            return AWSIotConnectionStatus.CONNECTED;
+        }
+
+        @Override
+        public String getEndpoint()
+        {
+            return "slow";
+        }
+
+        @Override
+        public void publish(final AWSIotMessage message)
+        {
+            final long end = System.nanoTime() + SEND_NANOS;
+            while (System.nanoTime() < end)
+                Thread.yield();
+            message.onSuccess();
+        }
+
+        @Override
+        public void subscribe(final AWSIotTopic topic)
+        {
+            topic.onSuccess();
+        }
+
+        @Override
+        public void unsubscribe(final AWSIotTopic topic)
+        {
+        }
+    }
+
+    @Param({"false", "true"})
+    public boolean prioritized;
+
+    private ConnectionManager _connection;
+    private ExecutorService _executor;
+    private PublisherService _service;
+    private Thread _bulk;
+    private volatile boolean _running;
+    private Event<String> _alarm;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        _connection = new ConnectionManager(new SlowTransport());
+        _executor = Executors.newSingleThreadExecutor();
+        _service = new PublisherService(_connection, new JsonMarshaller(QOS0), _executor, 256, OverflowPolicy.BLOCK);
+        _connection.whenConnected().get(5, SECONDS);
+        if (prioritized)
+        {
+            _service.registerPriority(Telemetry.TOPIC, ALARM, PublishPriority.HIGH);
+            _service.registerPriority(Telemetry.TOPIC, Telemetry.EVENT_TYPE, PublishPriority.LOW);
+        }
+        _alarm = new Event<>(Telemetry.TOPIC, ALARM, "temperature");
+
+        final Event<Telemetry> telemetry = new Event<>(Telemetry.TOPIC, Telemetry.EVENT_TYPE, Telemetry.sample(7));
+        _running = true;
+        _bulk = new Thread(() -> {
+            while (_running)
+                _service.publish(telemetry);
+        }, "bulk-publisher");
+        _bulk.setDaemon(true);
+        _bulk.start();
+    }
+
+    @TearDown
+    public void teardown() throws InterruptedException
+    {
+        _running = false;
+        _bulk.join(SECONDS.toMillis(5));
+        _executor.shutdownNow();
+        _connection.close();
+    }
+
+    @Benchmark
+    public PublishResult alarm()
+    {
+        return _service.publish(_alarm).join();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import co.proteus.events.Telemetry;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.throttling.AdaptiveThrottler;
+import co.proteus.events.throttling.EventThrottler;
+import co.proteus.events.throttling.PerKeyThrottler;
+import co.proteus.events.throttling.SlidingWindowThrottler;
+import co.proteus.events.throttling.TokenBucketThrottler;
+
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Benchmarks for {@link PublisherService#publish} with each kind of throttler. Queued events are sent on the calling thread
+ * and the stub client acknowledges them right away, so the benchmark measures throttling, queueing and marshalling. The
+ * throttlers reject part of the events so both outcomes are measured.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublisherBenchmark
+{
+    @Param({"none", "tokenBucket", "slidingWindow", "perKey", "adaptive"})
+    public String throttler;
+
+    private ConnectionManager _connection;
+    private PublisherService _service;
+    private Event<?>[] _events;
+    private int _next;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        final StubMqttClient client = new StubMqttClient();
+        client.recordPublished(false);
+        _connection = new ConnectionManager(client);
+        _service = new PublisherService(_connection, new JsonMarshaller(QOS0), Runnable::run,
+            PublisherService.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+        _connection.whenConnected().get(5, SECONDS);
+
+        final EventThrottler<Telemetry> selected = _createThrottler();
+        if (selected != null) _service.registerThrottler(Telemetry.TOPIC, Telemetry.EVENT_TYPE, selected);
+
+        _events = new Event<?>[64];
+        for (int i = 0; i < _events.length; i++)
+            _events[i] = new Event<>(Telemetry.TOPIC, Telemetry.EVENT_TYPE, Telemetry.sample(i));
+    }
+
+    private EventThrottler<Telemetry> _createThrottler()
+    {
+        switch (throttler)
+        {
+            case "none":
+                return null;
+            case "tokenBucket":
+                return new TokenBucketThrottler<>(1_000, 100_000, Duration.ofSeconds(1));
+            case "slidingWindow":
+                return new SlidingWindowThrottler<>(100_000, Duration.ofSeconds(1));
+            case "adaptive":
+                return new AdaptiveThrottler<>(1_000, 100_000, Duration.ofMillis(100));
+            case "perKey":
+                return new PerKeyThrottler<Telemetry, String>(Telemetry::getDeviceId,
+                    () -> new TokenBucketThrottler<>(100, 10_000, Duration.ofSeconds(1)), 1_024, Duration.ofMinutes(1));
+            default:
+                throw new IllegalArgumentException("Unknown throttler " + throttler);
+        }
+    }
+
+    @TearDown
+    public void teardown()
+    {
+        _connection.close();
+    }
+
+    @Benchmark
+    public CompletableFuture<PublishResult> publish()
+    {
+        final Event<?> event = _events[_next];
+        _next = (_next + 1) & (_events.length - 1);
+        return _service.publish(event);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import co.proteus.events.Telemetry;
+import co.proteus.events.filtering.MessageFilter;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.marshalling.json.EventTypeRegistry;
+import co.proteus.events.marshalling.json.JsonUnmarshaller;
+
+import static co.proteus.events.filtering.FieldFilter.fieldFilter;
+import static co.proteus.events.filtering.JmesPathFilter.jmesPathFilter;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Benchmarks for fanning a received message out to many {@link SubscriptionService} subscriptions on the same topic. Events
+ * are delivered on the calling thread so the benchmark measures routing, filtering and unmarshalling rather than thread
+ * hand-off. JMESPath filters parse the message once and share the tree, while each field filter streams the message itself,
+ * so field filters are cheapest with few subscriptions.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriptionBenchmark
+{
+    @Param({"1", "16", "256"})
+    public int subscriptions;
+
+    @Param({"none", "jmespath", "field"})
+    public String filter;
+
+    /** True to bind payloads only when a subscriber uses them; the subscribers here never do. */
+    @Param({"false", "true"})
+    public boolean lazy;
+
+    private StubMqttClient _client;
+    private ConnectionManager _connection;
+    private AWSIotMessage _message;
+    private volatile Blackhole _blackhole;
+
+    @Setup
+    public void setup(final Blackhole blackhole) throws Exception
+    {
+        _blackhole = blackhole;
+        _client = new StubMqttClient();
+        _connection = new ConnectionManager(_client);
+        final SubscriptionService service = new SubscriptionService(_connection,
+            new JsonUnmarshaller(new EventTypeRegistry(), lazy), Runnable::run,
+            SubscriptionService.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+        _connection.whenConnected().get(5, SECONDS);
+
+        for (int i = 0; i < subscriptions; i++)
+        {
+            final MessageFilter messageFilter;
+            switch (filter)
+            {
+                case "jmespath":
+                    messageFilter = jmesPathFilter("payload.deviceId == 'device-" + i % 16 + "'");
+                    break;
+                case "field":
+                    messageFilter = fieldFilter("deviceId == 'device-" + i % 16 + "'");
+                    break;
+                default:
+                    messageFilter = params -> true;
+                    break;
+            }
+            service.<Telemetry>subscribe(Telemetry.TOPIC, Telemetry.EVENT_TYPE, messageFilter, event -> _blackhole.consume(event))
+                .get(5, SECONDS);
+        }
+        _message = new JsonMarshaller(QOS0).marshall(new Event<>(Telemetry.TOPIC, Telemetry.EVENT_TYPE, Telemetry.sample(7)));
+    }
+
+    @TearDown
+    public void teardown()
+    {
+        _connection.close();
+    }
+
+    @Benchmark
+    public void deliver()
+    {
+        _client.deliver(_message);
+    }
+}
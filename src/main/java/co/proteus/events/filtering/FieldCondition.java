@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.filtering;
+
+// A compiled condition of a FieldFilter. Conditions are tested whenever another field of the message has been read, and the
+// values of fields that have not been read yet are unknown, so a condition may be TRUE, FALSE or UNKNOWN.
+@FunctionalInterface
+interface FieldCondition
+{
+    int FALSE = 0;
+    int TRUE = 1;
+    int UNKNOWN = 2;
+
+    int test(FieldValues values);
+
+    static FieldCondition and(final FieldCondition left, final FieldCondition right)
+    {
+        return values -> {
+            final int result = left.test(values);
+            if (result == FALSE) return FALSE;
+            final int other = right.test(values);
+            return other == FALSE ? FALSE : result == TRUE ? other : UNKNOWN;
+        };
+    }
+
+    static FieldCondition or(final FieldCondition left, final FieldCondition right)
+    {
+        return values -> {
+            final int result = left.test(values);
+            if (result == TRUE) return TRUE;
+            final int other = right.test(values);
+            return other == TRUE ? TRUE : result == FALSE ? other : UNKNOWN;
+        };
+    }
+
+    static FieldCondition not(final FieldCondition condition)
+    {
+        return values -> {
+            final int result = condition.test(values);
+            return result == UNKNOWN ? UNKNOWN : result ^ TRUE;
+        };
+    }
+
+    // The value is a Long, BigInteger or Double.
+    static FieldCondition equalTo(final int field, final Number value)
+    {
+        return values -> {
+            final int kind = values.kind(field);
+            if (kind == FieldValues.UNSEEN) return UNKNOWN;
+            return kind == FieldValues.NUMBER && values.compare(field, value) == 0 ? TRUE : FALSE;
+        };
+    }
+
+    static FieldCondition equalTo(final int field, final String value)
+    {
+        return values -> {
+            final int kind = values.kind(field);
+            if (kind == FieldValues.UNSEEN) return UNKNOWN;
+            return kind == FieldValues.STRING && value.equals(values.text(field)) ? TRUE : FALSE;
+        };
+    }
+
+    // Matches a field whose value is of one kind, such as true or null.
+    static FieldCondition kindOf(final int field, final int expected)
+    {
+        return values -> {
+            final int kind = values.kind(field);
+            if (kind == FieldValues.UNSEEN) return UNKNOWN;
+            return kind == expected ? TRUE : FALSE;
+        };
+    }
+
+    static FieldCondition lessThan(final int field, final Number value, final boolean orEqual)
+    {
+        return values -> {
+            final int kind = values.kind(field);
+            if (kind == FieldValues.UNSEEN) return UNKNOWN;
+            if (kind != FieldValues.NUMBER) return FALSE;
+            final int order = values.compare(field, value);
+            return order < 0 || orEqual && order == 0 ? TRUE : FALSE;
+        };
+    }
+
+    static FieldCondition greaterThan(final int field, final Number value, final boolean orEqual)
+    {
+        return values -> {
+            final int kind = values.kind(field);
+            if (kind == FieldValues.UNSEEN) return UNKNOWN;
+            if (kind != FieldValues.NUMBER) return FALSE;
+            final int order = values.compare(field, value);
+            return order > 0 || orEqual && order == 0 ? TRUE : FALSE;
+        };
+    }
+}
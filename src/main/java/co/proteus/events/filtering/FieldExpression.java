@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.filtering;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles the predicate language of a FieldFilter:
+//
+//   expression := and ('||' and)*
+//   and        := unary ('&&' unary)*
+//   unary      := '!' unary | '(' expression ')' | comparison
+//   comparison := path operator literal | literal operator path
+//   path       := name ('.' name)*
+//   operator   := '==' | '!=' | '<' | '<=' | '>' | '>='
+//   literal    := number | 'text' | "text" | true | false | null
+//
+// Paths are relative to the payload. Each distinct path is given a field number, and the paths form a tree that the filter
+// follows while it streams the payload.
+final class FieldExpression
+{
+    private static final String[] OPERATORS = {"==", "!=", "<=", ">=", "<", ">"};
+
+    // A level of the tree of paths.
+    static final class Path
+    {
+        final Map<String, Path> _children = new HashMap<>();
+        int _field = -1;
+        // The field numbers of this path and every path below it.
+        int[] _fields;
+    }
+
+    final String _text;
+    final Path _root = new Path();
+    final FieldCondition _condition;
+    int _fieldCount;
+    private int _position;
+
+    FieldExpression(final String text)
+    {
+        _text = text;
+        _condition = _parseExpression();
+        _skipSpace();
+        if (_position < _text.length()) throw _error("Unexpected '" + _text.charAt(_position) + "'");
+        _collectFields(_root);
+    }
+
+    private FieldCondition _parseExpression()
+    {
+        FieldCondition condition = _parseAnd();
+        while (_accept("||"))
+            condition = FieldCondition.or(condition, _parseAnd());
+        return condition;
+    }
+
+    private FieldCondition _parseAnd()
+    {
+        FieldCondition condition = _parseUnary();
+        while (_accept("&&"))
+            condition = FieldCondition.and(condition, _parseUnary());
+        return condition;
+    }
+
+    private FieldCondition _parseUnary()
+    {
+        if (_accept("!")) return FieldCondition.not(_parseUnary());
+        if (_accept("("))
+        {
+            final FieldCondition condition = _parseExpression();
+            if (!_accept(")")) throw _error("Expected ')'");
+            return condition;
+        }
+        return _parseComparison();
+    }
+
+    private FieldCondition _parseComparison()
+    {
+        _skipSpace();
+        if (_position < _text.length() && _isNameStart(_text.charAt(_position)) && !_isKeyword())
+        {
+            final int field = _parsePath();
+            final String operator = _parseOperator();
+            return _compile(field, operator, _parseLiteral());
+        }
+        final Object literal = _parseLiteral();
+        final String operator = _parseOperator();
+        return _compile(_parsePath(), _reverse(operator), literal);
+    }
+
+    private FieldCondition _compile(final int field, final String operator, final Object literal)
+    {
+        if (operator.equals("==") || operator.equals("!="))
+        {
+            final FieldCondition equal;
+            if (literal instanceof Number) equal = FieldCondition.equalTo(field, (Number) literal);
+            else if (literal instanceof String) equal = FieldCondition.equalTo(field, (String) literal);
+            else if (literal == Boolean.TRUE) equal = FieldCondition.kindOf(field, FieldValues.TRUE);
+            else if (literal == Boolean.FALSE) equal = FieldCondition.kindOf(field, FieldValues.FALSE);
+            else equal = FieldCondition.kindOf(field, FieldValues.NULL);
+            return operator.equals("==") ? equal : FieldCondition.not(equal);
+        }
+        if (!(literal instanceof Number)) throw _error("Only numbers can be compared with " + operator);
+        final Number value = (Number) literal;
+        switch (operator)
+        {
+            case "<":
+                return FieldCondition.lessThan(field, value, false);
+            case "<=":
+                return FieldCondition.lessThan(field, value, true);
+            case ">":
+                return FieldCondition.greaterThan(field, value, false);
+            default:
+                return FieldCondition.greaterThan(field, value, true);
+        }
+    }
+
+    // Returns the field number of the path.
+    private int _parsePath()
+    {
+        Path path = _root;
+        do
+        {
+            _skipSpace();
+            final int start = _position;
+            if (_position == _text.length() || !_isNameStart(_text.charAt(_position))) throw _error("Expected a field name");
+            while (_position < _text.length() && _isNamePart(_text.charAt(_position)))
+                _position++;
+            path = path._children.computeIfAbsent(_text.substring(start, _position), name -> new Path());
+        }
+        while (_accept("."));
+        if (path._field < 0) path._field = _fieldCount++;
+        return path._field;
+    }
+
+    private String _parseOperator()
+    {
+        for (final String operator : OPERATORS)
+        {
+            if (_accept(operator)) return operator;
+        }
+        throw _error("Expected a comparison operator");
+    }
+
+    // Returns the operator that gives the same result with its operands swapped.
+    private static String _reverse(final String operator)
+    {
+        switch (operator)
+        {
+            case "<":
+                return ">";
+            case "<=":
+                return ">=";
+            case ">":
+                return "<";
+            case ">=":
+                return "<=";
+            default:
+                return operator;
+        }
+    }
+
+    // Returns a Long, BigInteger, Double, String, Boolean, or null. Numbers without a fraction or exponent are integers.
+    private Object _parseLiteral()
+    {
+        _skipSpace();
+        if (_position == _text.length()) throw _error("Expected a value");
+        final char quote = _text.charAt(_position);
+        if (quote == '\'' || quote == '"')
+        {
+            final StringBuilder text = new StringBuilder();
+            for (_position++; _position < _text.length() && _text.charAt(_position) != quote; _position++)
+            {
+                if (_text.charAt(_position) == '\\' && _position + 1 < _text.length()) _position++;
+                text.append(_text.charAt(_position));
+            }
+            if (_position == _text.length()) throw _error("Unterminated string");
+            _position++;
+            return text.toString();
+        }
+        if (_acceptWord("true")) return Boolean.TRUE;
+        if (_acceptWord("false")) return Boolean.FALSE;
+        if (_acceptWord("null")) return null;
+
+        final int start = _position;
+        while (_position < _text.length() && "+-.0123456789eE".indexOf(_text.charAt(_position)) >= 0)
+            _position++;
+        final String number = _text.substring(start, _position);
+        try
+        {
+            if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) return Double.valueOf(number);
+            final BigInteger integer = new BigInteger(number);
+            return integer.bitLength() < Long.SIZE ? (Object) integer.longValue() : integer;
+        }
+        catch (final NumberFormatException e)
+        {
+            _position = start;
+            throw _error("Expected a value");
+        }
+    }
+
+    private boolean _isKeyword()
+    {
+        final int start = _position;
+        final boolean keyword = _acceptWord("true") || _acceptWord("false") || _acceptWord("null");
+        _position = start;
+        return keyword;
+    }
+
+    private boolean _acceptWord(final String word)
+    {
+        final int end = _position + word.length();
+        if (!_text.startsWith(word, _position) || end < _text.length() && _isNamePart(_text.charAt(end))) return false;
+        _position = end;
+        return true;
+    }
+
+    private boolean _accept(final String token)
+    {
+        _skipSpace();
+        if (!_text.startsWith(token, _position)) return false;
+        _position += token.length();
+        return true;
+    }
+
+    private void _skipSpace()
+    {
+        while (_position < _text.length() && Character.isWhitespace(_text.charAt(_position)))
+            _position++;
+    }
+
+    private static boolean _isNameStart(final char c)
+    {
+        return Character.isLetter(c) || c == '_' || c == '$';
+    }
+
+    private static boolean _isNamePart(final char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '-';
+    }
+
+    private IllegalArgumentException _error(final String message)
+    {
+        return new IllegalArgumentException(message + " at position " + _position + " of " + _text);
+    }
+
+    private static List<Integer> _collectFields(final Path path)
+    {
+        final List<Integer> fields = new ArrayList<>();
+        if (path._field >= 0) fields.add(path._field);
+        for (final Path child : path._children.values())
+            fields.addAll(_collectFields(child));
+        path._fields = fields.stream().mapToInt(Integer::intValue).toArray();
+        return fields;
+    }
+}
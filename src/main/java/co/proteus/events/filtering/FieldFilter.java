@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.filtering;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+
+import co.proteus.events.filtering.FieldExpression.Path;
+
+import static co.proteus.events.filtering.FieldCondition.UNKNOWN;
+
+/**
+ * {@link MessageFilter} that accepts messages whose payload fields satisfy a predicate such as
+ * {@code severity >= 3 && region == "eu"}. Unlike a {@link JmesPathFilter}, the payload is not parsed into a tree: the filter
+ * reads the fields it needs with a streaming parser, skips everything else, and stops reading as soon as the result is known.
+ *
+ * <p>A predicate compares fields of the payload to literals, and combines comparisons with {@code &&}, {@code ||}, {@code !}
+ * and parentheses. Fields are named by a path of property names, such as {@code location.region}. Literals are numbers,
+ * strings in single or double quotes, {@code true}, {@code false} and {@code null}. The operators are:</p>
+ * <ul>
+ * <li>{@code ==} and {@code !=}, which compare any literal. Numbers are compared by value, so {@code 1 == 1.0}. Two
+ * integers are compared exactly, however large, and other numbers are compared as doubles. A field that is missing is equal
+ * to {@code null}.</li>
+ * <li>{@code <}, {@code <=}, {@code >} and {@code >=}, which compare numbers. A field that is not a number is neither less
+ * nor greater than any number.</li>
+ * </ul>
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class FieldFilter implements MessageFilter
+{
+    private static final Logger _logger = LogManager.getLogger(FieldFilter.class);
+
+    /** The number of compiled predicates kept; the least recently used are evicted first. */
+    public static final int CACHE_SIZE = 1024;
+
+    private static final String PAYLOAD = "payload";
+
+    /** Filters by predicate text, so subscriptions that use the same predicate share a filter and compile it once. */
+    private static final LoadingCache<String, FieldFilter> FILTERS = CacheBuilder.newBuilder()
+        .maximumSize(CACHE_SIZE)
+        .build(new CacheLoader<String, FieldFilter>()
+        {
+            @Override
+            public FieldFilter load(final String predicate)
+            {
+                return new FieldFilter(predicate);
+            }
+        });
+
+    private final FieldExpression _expression;
+
+    /**
+     * Create an instance of {@code FieldFilter} that accepts messages that satisfy the predicate provided.
+     *
+     * @param predicate the predicate
+     *
+     * @throws IllegalArgumentException thrown when {@code predicate} is invalid
+     */
+    public FieldFilter(final String predicate)
+    {
+        _expression = new FieldExpression(predicate);
+    }
+
+    /**
+     * Get a filter that accepts messages that satisfy a predicate. Filters are cached by the text of their predicate, so
+     * filters for the same predicate are shared and the predicate is only compiled once, unless it has been evicted.
+     *
+     * @param predicate the predicate
+     *
+     * @return the filter
+     *
+     * @throws IllegalArgumentException thrown when {@code predicate} is invalid
+     */
+    public static FieldFilter fieldFilter(final String predicate)
+    {
+        try
+        {
+            return FILTERS.getUnchecked(predicate);
+        }
+        catch (final UncheckedExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The payload is read from the tree when it has already been parsed, and is streamed from the message otherwise.
+     */
+    @Override
+    public boolean accept(final Parameters params)
+    {
+        final FieldValues values = new FieldValues(_expression._fieldCount);
+        try (JsonParser parser = params.createParser())
+        {
+            if (parser.nextToken() == JsonToken.START_OBJECT)
+            {
+                while (parser.nextToken() == JsonToken.FIELD_NAME)
+                {
+                    final String field = parser.getCurrentName();
+                    parser.nextToken();
+                    if (PAYLOAD.equals(field))
+                    {
+                        final int result = _read(parser, _expression._root, values);
+                        if (result != UNKNOWN) return result == FieldCondition.TRUE;
+                        break;
+                    }
+                    parser.skipChildren();
+                }
+            }
+        }
+        catch (final IOException e)
+        {
+            _logger.error("Error parsing " + params.getMessage().getStringPayload() + " as JSON", e);
+            return false;
+        }
+        for (final int field : _expression._root._fields)
+            values.missing(field);
+        return _expression._condition.test(values) == FieldCondition.TRUE;
+    }
+
+    // Reads the value at the parser's current token, stopping early if the result is known. Returns UNKNOWN if it is not.
+    private int _read(final JsonParser parser, final Path path, final FieldValues values) throws IOException
+    {
+        if (path._field >= 0)
+        {
+            values.read(path._field, parser);
+            final int result = _expression._condition.test(values);
+            if (result != UNKNOWN) return result;
+        }
+        if (parser.getCurrentToken() == JsonToken.START_OBJECT && !path._children.isEmpty())
+        {
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                final Path child = path._children.get(parser.getCurrentName());
+                parser.nextToken();
+                if (child == null)
+                {
+                    parser.skipChildren();
+                    continue;
+                }
+                final int result = _read(parser, child, values);
+                if (result != UNKNOWN) return result;
+            }
+        }
+        else
+        {
+            parser.skipChildren();
+        }
+        if (path._fields.length == (path._field >= 0 ? 1 : 0)) return UNKNOWN;
+
+        // Any path below this one that was not read is missing.
+        for (final int field : path._fields)
+            values.missing(field);
+        return _expression._condition.test(values);
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '{' +
+               "_predicate=" + _expression._text +
+               '}';
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.filtering;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+// The values of the fields a FieldFilter reads from one message. Only scalars are kept. Integers are kept exactly, as a long or
+// a BigInteger when they do not fit, and every number is also kept as a double so that 1 and 1.0 are equal.
+final class FieldValues
+{
+    static final byte UNSEEN = 0;
+    // The field is not in the message or is null; the two are not distinguished.
+    static final byte NULL = 1;
+    static final byte NUMBER = 2;
+    static final byte STRING = 3;
+    static final byte TRUE = 4;
+    static final byte FALSE = 5;
+    // An object or an array.
+    static final byte OTHER = 6;
+
+    private final byte[] _kinds;
+    private final double[] _numbers;
+    private final long[] _longs;
+    private final boolean[] _integral;
+    // Integers that do not fit in a long, which are rare, so the array is only created when one is read.
+    private BigInteger[] _bigIntegers;
+    private final String[] _text;
+
+    FieldValues(final int fields)
+    {
+        _kinds = new byte[fields];
+        _numbers = new double[fields];
+        _longs = new long[fields];
+        _integral = new boolean[fields];
+        _text = new String[fields];
+    }
+
+    int kind(final int field)
+    {
+        return _kinds[field];
+    }
+
+    // Compares the number in a field to a Long, BigInteger or Double. Two integers are compared exactly and other numbers are
+    // compared as doubles, under which -0.0 equals 0. Returns a negative number, zero or a positive number as the field is less
+    // than, equal to or greater than the value.
+    int compare(final int field, final Number value)
+    {
+        final boolean big = _bigIntegers != null && _bigIntegers[field] != null;
+        if (value instanceof Double || !big && !_integral[field])
+        {
+            final double number = _numbers[field];
+            final double other = value.doubleValue();
+            return number < other ? -1 : number > other ? 1 : 0;
+        }
+        if (!big && value instanceof Long) return Long.compare(_longs[field], (Long) value);
+        final BigInteger number = big ? _bigIntegers[field] : BigInteger.valueOf(_longs[field]);
+        return number.compareTo(value instanceof BigInteger ? (BigInteger) value : BigInteger.valueOf(value.longValue()));
+    }
+
+    String text(final int field)
+    {
+        return _text[field];
+    }
+
+    // Records the value at the parser's current token, which must start the value.
+    void read(final int field, final JsonParser parser) throws IOException
+    {
+        final JsonToken token = parser.getCurrentToken();
+        switch (token)
+        {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                // A field may be read more than once if the message repeats a property.
+                _integral[field] = false;
+                if (_bigIntegers != null) _bigIntegers[field] = null;
+                if (token == JsonToken.VALUE_NUMBER_INT) _readInteger(field, parser);
+                _numbers[field] = parser.getDoubleValue();
+                _kinds[field] = NUMBER;
+                break;
+            case VALUE_STRING:
+                _text[field] = parser.getText();
+                _kinds[field] = STRING;
+                break;
+            case VALUE_TRUE:
+                _kinds[field] = TRUE;
+                break;
+            case VALUE_FALSE:
+                _kinds[field] = FALSE;
+                break;
+            case VALUE_NULL:
+                _kinds[field] = NULL;
+                break;
+            default:
+                _kinds[field] = OTHER;
+                break;
+        }
+    }
+
+    private void _readInteger(final int field, final JsonParser parser) throws IOException
+    {
+        if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER)
+        {
+            if (_bigIntegers == null) _bigIntegers = new BigInteger[_kinds.length];
+            _bigIntegers[field] = parser.getBigIntegerValue();
+        }
+        else
+        {
+            _longs[field] = parser.getLongValue();
+            _integral[field] = true;
+        }
+    }
+
+    // Records that a field is not in the message, unless it has been read.
+    void missing(final int field)
+    {
+        if (_kinds[field] == UNSEEN) _kinds[field] = NULL;
+    }
+}
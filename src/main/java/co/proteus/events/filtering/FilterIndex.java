@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.filtering;
+
+import io.burt.jmespath.Expression;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import co.proteus.events.filtering.JmesPathRuntime.Conjunction;
+import co.proteus.events.filtering.JmesPathRuntime.Equality;
+import co.proteus.events.filtering.JmesPathRuntime.PathNode;
+
+/**
+ * Tests a message against the filters of many subscribers at once. {@link JmesPathFilter JMESPath filters} that compare a
+ * property path to a literal, such as {@code payload.deviceId == 'device-7'}, optionally combined with another comparison by
+ * {@code &&}, are grouped by path: the path is evaluated once per message and the subscribers whose literal matches are found
+ * with one hash lookup. Property paths in other JMESPath filters are also evaluated once per message and shared between
+ * filters. Any other filter is tested on its own. The cost of testing a message therefore grows with the number of distinct
+ * paths and predicates rather than with the number of subscribers.
+ *
+ * <p>An index is immutable and may be used by several threads, but a message must be tested on one thread at a time.</p>
+ *
+ * @param <S> the type of the subscribers
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class FilterIndex<S>
+{
+    private static final Logger _logger = LogManager.getLogger(FilterIndex.class);
+
+    // Stands in for JSON null and missing properties, which compare equal in JMESPath.
+    private static final Object NULL_KEY = new Object();
+    private static final int[] NONE = new int[0];
+
+    // Subscribers that compare the same path to literals, by the literal they expect.
+    private static final class Group
+    {
+        final PathNode _path;
+        final Map<Object, int[]> _byValue;
+
+        Group(final PathNode path, final Map<Object, int[]> byValue)
+        {
+            _path = path;
+            _byValue = byValue;
+        }
+    }
+
+    private final Object[] _subscribers;
+    private final MessageFilter[] _filters;
+    private final Group[] _groups;
+    // The rest of a conjunction whose equality is indexed, or null.
+    private final Expression<JsonNode>[] _conditions;
+    // JMESPath filters that are not indexed.
+    private final int[] _expressions;
+    // Filters that are not JMESPath filters.
+    private final int[] _others;
+
+    /**
+     * Create an index of the filters of subscribers.
+     *
+     * @param subscribers the subscribers, in the order that matching subscribers are reported
+     * @param filter gets the filter of a subscriber
+     */
+    @SuppressWarnings("unchecked")
+    public FilterIndex(final List<? extends S> subscribers, final Function<? super S, ? extends MessageFilter> filter)
+    {
+        final int size = subscribers.size();
+        _subscribers = subscribers.toArray();
+        _filters = new MessageFilter[size];
+        _conditions = (Expression<JsonNode>[]) new Expression<?>[size];
+        final Map<List<String>, PathNode> paths = new HashMap<>();
+        final Map<List<String>, Map<Object, List<Integer>>> groups = new LinkedHashMap<>();
+        final List<Integer> expressions = new ArrayList<>();
+        final List<Integer> others = new ArrayList<>();
+        for (int i = 0; i < size; i++)
+        {
+            _filters[i] = filter.apply(subscribers.get(i));
+            if (!(_filters[i] instanceof JmesPathFilter))
+            {
+                others.add(i);
+                continue;
+            }
+            final Expression<JsonNode> expression = ((JmesPathFilter) _filters[i])._expression;
+            if (!_index(expression, null, i, paths, groups)
+                && !(expression instanceof Conjunction && _indexConjunction((Conjunction) expression, i, paths, groups)))
+                expressions.add(i);
+        }
+
+        _groups = new Group[groups.size()];
+        int index = 0;
+        for (final Map.Entry<List<String>, Map<Object, List<Integer>>> entry : groups.entrySet())
+        {
+            final Map<Object, int[]> byValue = new HashMap<>();
+            entry.getValue().forEach((value, indexes) -> byValue.put(value, _toArray(indexes)));
+            _groups[index++] = new Group(paths.get(entry.getKey()), byValue);
+        }
+        _expressions = _toArray(expressions);
+        _others = _toArray(others);
+    }
+
+    /**
+     * Test a message and report the subscribers whose filter accepts it, in the order they were given to the index.
+     *
+     * @param params the message
+     * @param accepted called for each subscriber that accepts the message
+     */
+    @SuppressWarnings("unchecked")
+    public void match(final MessageFilter.Parameters params, final Consumer<? super S> accepted)
+    {
+        final BitSet matched = new BitSet(_subscribers.length);
+        if (_groups.length > 0 || _expressions.length > 0) _matchJmesPath(params, matched);
+        for (final int i : _others)
+        {
+            if (_filters[i].accept(params)) matched.set(i);
+        }
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1))
+            accepted.accept((S) _subscribers[i]);
+    }
+
+    private void _matchJmesPath(final MessageFilter.Parameters params, final BitSet matched)
+    {
+        final PathValues values;
+        try
+        {
+            values = params.getPathValues();
+        }
+        catch (final IOException e)
+        {
+            _logger.error("Error parsing " + params.getMessage().getStringPayload() + " as JSON", e);
+            return;
+        }
+
+        final PathValues previous = values.enter();
+        try
+        {
+            for (final Group group : _groups)
+            {
+                final int[] candidates = group._byValue.getOrDefault(_key(values.get(group._path)), NONE);
+                for (final int i : candidates)
+                {
+                    final Expression<JsonNode> condition = _conditions[i];
+                    if (condition == null || JmesPathFilter.deriveTruthiness(condition.search(values._root))) matched.set(i);
+                }
+            }
+            for (final int i : _expressions)
+            {
+                if (JmesPathFilter.deriveTruthiness(((JmesPathFilter) _filters[i])._expression.search(values._root)))
+                    matched.set(i);
+            }
+        }
+        finally
+        {
+            PathValues.exit(previous);
+        }
+    }
+
+    // Indexes a path == literal comparison, with an optional condition that must also hold. Returns false if the expression
+    // is not such a comparison.
+    private boolean _index(
+        final Expression<JsonNode> expression, final Expression<JsonNode> condition, final int subscriber,
+        final Map<List<String>, PathNode> paths, final Map<List<String>, Map<Object, List<Integer>>> groups)
+    {
+        if (!(expression instanceof Equality)) return false;
+        final Equality equality = (Equality) expression;
+        PathNode path = JmesPathFilter.RUNTIME.path(equality.getLeft());
+        JsonNode literal = JmesPathRuntime.literalValue(equality.getRight());
+        if (path == null || literal == null)
+        {
+            path = JmesPathFilter.RUNTIME.path(equality.getRight());
+            literal = JmesPathRuntime.literalValue(equality.getLeft());
+        }
+        final Object key = literal != null ? _key(literal) : null;
+        if (path == null || key == null) return false;
+
+        paths.putIfAbsent(path._key, path);
+        groups.computeIfAbsent(path._key, it -> new HashMap<>()).computeIfAbsent(key, it -> new ArrayList<>()).add(subscriber);
+        _conditions[subscriber] = condition;
+        return true;
+    }
+
+    private boolean _indexConjunction(
+        final Conjunction conjunction, final int subscriber, final Map<List<String>, PathNode> paths,
+        final Map<List<String>, Map<Object, List<Integer>>> groups)
+    {
+        // a && b is truthy exactly when both a and b are, so either side can be indexed, but only if both are booleans. Otherwise
+        // && tests a with the runtime's truthiness, under which 0 is truthy and {} is falsy, and the whole expression must be
+        // evaluated.
+        if (!JmesPathRuntime.isBoolean(conjunction.getLeft()) || !JmesPathRuntime.isBoolean(conjunction.getRight())) return false;
+        return _index(conjunction.getLeft(), conjunction.getRight(), subscriber, paths, groups)
+               || _index(conjunction.getRight(), conjunction.getLeft(), subscriber, paths, groups);
+    }
+
+    // Values that are equal in JMESPath have equal keys. JMESPath compares numbers as doubles. Returns null for arrays and
+    // objects, which are not indexed.
+    private static Object _key(final JsonNode value)
+    {
+        if (value.isTextual()) return value.textValue();
+        if (value.isNumber()) return value.doubleValue();
+        if (value.isBoolean()) return value.booleanValue();
+        if (value.isNull() || value.isMissingNode()) return NULL_KEY;
+        return null;
+    }
+
+    private static int[] _toArray(final List<Integer> values)
+    {
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -12,20 +12,17 @@
 package co.proteus.events.filtering;
 
 import io.burt.jmespath.Expression;
-import io.burt.jmespath.JmesPath;
-import io.burt.jmespath.jackson.JacksonRuntime;
 import io.burt.jmespath.parser.ParseException;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.math.BigDecimal;
-
-import static java.math.BigDecimal.ZERO;
 
 /**
  * {@link MessageFilter} that accepts messages that match a JMESpath expression.
@@ -34,11 +31,27 @@ import static java.math.BigDecimal.ZERO;
  */
 public final class JmesPathFilter implements MessageFilter
 {
-    private static final ObjectReader READER = new ObjectMapper()
-        .reader();
     private static final Logger _logger = LogManager.getLogger(JmesPathFilter.class);
 
-    private final Expression<JsonNode> _expression;
+    /** The number of compiled expressions kept; the least recently used are evicted first. */
+    public static final int CACHE_SIZE = 1024;
+
+    /** The runtime is stateless and thread-safe, so a single instance compiles every expression. */
+    static final JmesPathRuntime RUNTIME = new JmesPathRuntime();
+
+    /** Filters by expression text, so subscriptions that use the same expression share a filter and compile it once. */
+    private static final LoadingCache<String, JmesPathFilter> FILTERS = CacheBuilder.newBuilder()
+        .maximumSize(CACHE_SIZE)
+        .build(new CacheLoader<String, JmesPathFilter>()
+        {
+            @Override
+            public JmesPathFilter load(final String expression)
+            {
+                return new JmesPathFilter(RUNTIME.compile(expression));
+            }
+        });
+
+    final Expression<JsonNode> _expression;
 
     /**
      * Create an instance of {@code JmesPathFilter} that accepts any messages that match the expression provided.
@@ -51,7 +64,8 @@ public final class JmesPathFilter implements MessageFilter
     }
 
     /**
-     * Compile a JMESpath expression. Compiled expressions are reusable and thread-safe.
+     * Compile a JMESpath expression. Compiled expressions are reusable and thread-safe, and are cached, so compiling the same
+     * expression again returns the same instance unless it has been evicted.
      *
      * @param expression the expression
      *
@@ -61,17 +75,68 @@ public final class JmesPathFilter implements MessageFilter
      */
     public static Expression<JsonNode> jmesPathCompile(final String expression) throws ParseException
     {
-        final JmesPath<JsonNode> jmespath = new JacksonRuntime();
-        return jmespath.compile(expression);
+        return jmesPathFilter(expression)._expression;
     }
 
-    private static boolean _deriveTruthiness(final JsonNode node)
+    /**
+     * Get a filter that accepts messages that match a JMESpath expression. Filters are cached by the text of their expression,
+     * so filters for the same expression are shared and the expression is only compiled once, unless it has been evicted.
+     *
+     * @param expression the expression
+     *
+     * @return the filter
+     *
+     * @throws ParseException thrown when {@code expression} is invalid
+     */
+    public static JmesPathFilter jmesPathFilter(final String expression) throws ParseException
     {
-        return (node.isBoolean() && node.booleanValue())
-               || (node.isNumber() && ZERO.compareTo(new BigDecimal(node.numberValue().toString())) != 0)
-               || (node.isTextual() && !node.textValue().isEmpty())
-               || (node.isArray() && node.size() > 0)
-               || (node.isObject());
+        try
+        {
+            return FILTERS.getUnchecked(expression);
+        }
+        catch (final UncheckedExecutionException e)
+        {
+            // Invalid expressions are not cached, so the ParseException is thrown again for each attempt.
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    static boolean deriveTruthiness(final JsonNode node)
+    {
+        switch (node.getNodeType())
+        {
+            case BOOLEAN:
+                return node.booleanValue();
+            case NUMBER:
+                return _isNonZero(node);
+            case STRING:
+                return !node.textValue().isEmpty();
+            case ARRAY:
+                return node.size() > 0;
+            case OBJECT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Tests numbers in their own representation, so only big values are converted to BigInteger or BigDecimal.
+    private static boolean _isNonZero(final JsonNode node)
+    {
+        switch (node.numberType())
+        {
+            case INT:
+            case LONG:
+                return node.longValue() != 0;
+            case FLOAT:
+            case DOUBLE:
+                return node.doubleValue() != 0;
+            case BIG_INTEGER:
+                return node.bigIntegerValue().signum() != 0;
+            default:
+                return node.decimalValue().signum() != 0;
+        }
     }
 
     /**
@@ -89,15 +154,13 @@ public final class JmesPathFilter implements MessageFilter
     @Override
     public boolean accept(final Parameters params)
     {
-        final String payload = params.getMessage().getStringPayload();
         try
         {
-            final JsonNode input = READER.readTree(payload);
-            return _deriveTruthiness(_expression.search(input));
+            return deriveTruthiness(_expression.search(params.getJson()));
         }
         catch (IOException e)
         {
-            _logger.error("Error parsing " + payload + " as JSON", e);
+            _logger.error("Error parsing " + params.getMessage().getStringPayload() + " as JSON", e);
             return false;
         }
     }
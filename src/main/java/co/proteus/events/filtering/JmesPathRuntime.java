@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.filtering;
+
+import io.burt.jmespath.Expression;
+import io.burt.jmespath.function.Function;
+import io.burt.jmespath.jackson.JacksonRuntime;
+import io.burt.jmespath.node.AndNode;
+import io.burt.jmespath.node.ComparisonNode;
+import io.burt.jmespath.node.CreateObjectNode;
+import io.burt.jmespath.node.JsonLiteralNode;
+import io.burt.jmespath.node.NegateNode;
+import io.burt.jmespath.node.Node;
+import io.burt.jmespath.node.NodeFactory;
+import io.burt.jmespath.node.Operator;
+import io.burt.jmespath.node.OrNode;
+import io.burt.jmespath.node.PropertyNode;
+import io.burt.jmespath.node.SequenceNode;
+import io.burt.jmespath.node.StandardNodeFactory;
+import io.burt.jmespath.node.StringNode;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// JMESPath runtime whose compiled expressions can be inspected by a FilterIndex. Property paths such as payload.deviceId are
+// compiled to a single PathNode that looks its value up in the PathValues of the message being filtered, so a path shared by
+// several expressions is evaluated once per message. Equality, conjunction and disjunction nodes expose their operands. The
+// expressions otherwise behave exactly as the standard ones.
+final class JmesPathRuntime extends JacksonRuntime
+{
+    // A chain of property lookups.
+    static final class PathNode extends SequenceNode<JsonNode>
+    {
+        final List<Node<JsonNode>> _properties;
+        final String[] _names;
+        final List<String> _key;
+
+        PathNode(final JmesPathRuntime runtime, final List<Node<JsonNode>> properties, final String[] names)
+        {
+            super(runtime, properties);
+            _properties = properties;
+            _names = names;
+            _key = Arrays.asList(names);
+        }
+
+        @Override
+        public JsonNode search(final JsonNode input)
+        {
+            final PathValues values = PathValues.current();
+            return values != null && values._root == input ? values.get(this) : evaluate(input);
+        }
+
+        JsonNode evaluate(final JsonNode input)
+        {
+            JsonNode value = input;
+            for (final String name : _names)
+            {
+                value = value.isObject() ? value.get(name) : null;
+                if (value == null) return NullNode.getInstance();
+            }
+            return value;
+        }
+    }
+
+    static final class Property extends PropertyNode<JsonNode>
+    {
+        final String _name;
+
+        Property(final JmesPathRuntime runtime, final String name)
+        {
+            super(runtime, name);
+            _name = name;
+        }
+    }
+
+    static final class Equality extends ComparisonNode.EqualsNode<JsonNode>
+    {
+        Equality(final JmesPathRuntime runtime, final Expression<JsonNode> left, final Expression<JsonNode> right)
+        {
+            super(runtime, left, right);
+        }
+
+        Expression<JsonNode> getLeft()
+        {
+            return operand(0);
+        }
+
+        Expression<JsonNode> getRight()
+        {
+            return operand(1);
+        }
+    }
+
+    static final class Conjunction extends AndNode<JsonNode>
+    {
+        Conjunction(final JmesPathRuntime runtime, final Expression<JsonNode> left, final Expression<JsonNode> right)
+        {
+            super(runtime, left, right);
+        }
+
+        Expression<JsonNode> getLeft()
+        {
+            return operand(0);
+        }
+
+        Expression<JsonNode> getRight()
+        {
+            return operand(1);
+        }
+    }
+
+    static final class Disjunction extends OrNode<JsonNode>
+    {
+        Disjunction(final JmesPathRuntime runtime, final Expression<JsonNode> left, final Expression<JsonNode> right)
+        {
+            super(runtime, left, right);
+        }
+
+        Expression<JsonNode> getLeft()
+        {
+            return operand(0);
+        }
+
+        Expression<JsonNode> getRight()
+        {
+            return operand(1);
+        }
+    }
+
+    private final class AnalyzingNodeFactory implements NodeFactory<JsonNode>
+    {
+        private final NodeFactory<JsonNode> _standard = new StandardNodeFactory<>(JmesPathRuntime.this);
+
+        @Override
+        public Node<JsonNode> createProperty(final String name)
+        {
+            return new Property(JmesPathRuntime.this, name);
+        }
+
+        @Override
+        public Node<JsonNode> createSequence(final List<Node<JsonNode>> nodes)
+        {
+            // The parser nests sequences, e.g. a.b.c is (a, (b, c)), so paths are flattened.
+            final List<Node<JsonNode>> properties = new ArrayList<>();
+            final List<String> names = new ArrayList<>();
+            for (final Node<JsonNode> node : nodes)
+            {
+                if (node instanceof Property)
+                {
+                    properties.add(node);
+                    names.add(((Property) node)._name);
+                }
+                else if (node instanceof PathNode)
+                {
+                    properties.addAll(((PathNode) node)._properties);
+                    Collections.addAll(names, ((PathNode) node)._names);
+                }
+                else
+                {
+                    return _standard.createSequence(nodes);
+                }
+            }
+            return new PathNode(JmesPathRuntime.this, properties, names.toArray(new String[names.size()]));
+        }
+
+        @Override
+        public Node<JsonNode> createComparison(
+            final Operator operator, final Expression<JsonNode> left, final Expression<JsonNode> right)
+        {
+            if (operator == Operator.EQUALS) return new Equality(JmesPathRuntime.this, left, right);
+            return _standard.createComparison(operator, left, right);
+        }
+
+        @Override
+        public Node<JsonNode> createAnd(final Expression<JsonNode> left, final Expression<JsonNode> right)
+        {
+            return new Conjunction(JmesPathRuntime.this, left, right);
+        }
+
+        @Override
+        public Node<JsonNode> createCurrent()
+        {
+            return _standard.createCurrent();
+        }
+
+        @Override
+        public Node<JsonNode> createIndex(final int index)
+        {
+            return _standard.createIndex(index);
+        }
+
+        @Override
+        public Node<JsonNode> createSlice(final Integer start, final Integer stop, final Integer step)
+        {
+            return _standard.createSlice(start, stop, step);
+        }
+
+        @Override
+        public Node<JsonNode> createProjection(final Expression<JsonNode> expression)
+        {
+            return _standard.createProjection(expression);
+        }
+
+        @Override
+        public Node<JsonNode> createFlattenArray()
+        {
+            return _standard.createFlattenArray();
+        }
+
+        @Override
+        public Node<JsonNode> createFlattenObject()
+        {
+            return _standard.createFlattenObject();
+        }
+
+        @Override
+        public Node<JsonNode> createSelection(final Expression<JsonNode> test)
+        {
+            return _standard.createSelection(test);
+        }
+
+        @Override
+        public Node<JsonNode> createOr(final Expression<JsonNode> left, final Expression<JsonNode> right)
+        {
+            return new Disjunction(JmesPathRuntime.this, left, right);
+        }
+
+        @Override
+        public Node<JsonNode> createFunctionCall(final String name, final List<? extends Expression<JsonNode>> args)
+        {
+            return _standard.createFunctionCall(name, args);
+        }
+
+        @Override
+        public Node<JsonNode> createFunctionCall(final Function function, final List<? extends Expression<JsonNode>> args)
+        {
+            return _standard.createFunctionCall(function, args);
+        }
+
+        @Override
+        public Node<JsonNode> createExpressionReference(final Expression<JsonNode> expression)
+        {
+            return _standard.createExpressionReference(expression);
+        }
+
+        @Override
+        public Node<JsonNode> createString(final String str)
+        {
+            return _standard.createString(str);
+        }
+
+        @Override
+        public Node<JsonNode> createNegate(final Expression<JsonNode> negated)
+        {
+            return _standard.createNegate(negated);
+        }
+
+        @Override
+        public Node<JsonNode> createCreateObject(final List<CreateObjectNode.Entry<JsonNode>> entries)
+        {
+            return _standard.createCreateObject(entries);
+        }
+
+        @Override
+        public Node<JsonNode> createCreateArray(final List<? extends Expression<JsonNode>> entries)
+        {
+            return _standard.createCreateArray(entries);
+        }
+
+        @Override
+        public Node<JsonNode> createJsonLiteral(final String json)
+        {
+            return _standard.createJsonLiteral(json);
+        }
+    }
+
+    private final NodeFactory<JsonNode> _nodeFactory = new AnalyzingNodeFactory();
+
+    @Override
+    public NodeFactory<JsonNode> nodeFactory()
+    {
+        return _nodeFactory;
+    }
+
+    // Returns the value of a literal, or null if the expression is not a literal.
+    static JsonNode literalValue(final Expression<JsonNode> expression)
+    {
+        if (expression instanceof StringNode || expression instanceof JsonLiteralNode)
+            return expression.search(NullNode.getInstance());
+        return null;
+    }
+
+    // Returns true if the expression always evaluates to a boolean or null. The runtime and JmesPathFilter agree on the
+    // truthiness of these values, but not on that of numbers and empty objects, which && and || test the way the runtime does.
+    static boolean isBoolean(final Expression<JsonNode> expression)
+    {
+        if (expression instanceof ComparisonNode || expression instanceof NegateNode) return true;
+        if (expression instanceof Conjunction)
+        {
+            final Conjunction conjunction = (Conjunction) expression;
+            return isBoolean(conjunction.getLeft()) && isBoolean(conjunction.getRight());
+        }
+        if (expression instanceof Disjunction)
+        {
+            final Disjunction disjunction = (Disjunction) expression;
+            return isBoolean(disjunction.getLeft()) && isBoolean(disjunction.getRight());
+        }
+        final JsonNode literal = literalValue(expression);
+        return literal != null && (literal.isBoolean() || literal.isNull());
+    }
+
+    // Returns the path of a property or chain of properties, or null if the expression is not a path.
+    PathNode path(final Expression<JsonNode> expression)
+    {
+        if (expression instanceof PathNode) return (PathNode) expression;
+        if (expression instanceof Property)
+        {
+            final Property property = (Property) expression;
+            return new PathNode(this, Collections.singletonList(property), new String[]{property._name});
+        }
+        return null;
+    }
+}
@@ -12,6 +12,13 @@
 package co.proteus.events.filtering;
 
 import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
 
 /**
  * Filter incoming {@link AWSIotMessage messages}.
@@ -22,11 +29,19 @@ import com.amazonaws.services.iot.client.AWSIotMessage;
 public interface MessageFilter
 {
     /**
-     * Information about the message received.
+     * Information about the message received. A single instance is shared by the unmarshaller and every filter that sees the
+     * message, so the JSON view of the payload is only parsed once.
      */
     final class Parameters
     {
+        private static final ObjectMapper MAPPER = new ObjectMapper();
+        private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory());
+
         private final AWSIotMessage _message;
+        private volatile JsonNode _json;
+        private volatile IOException _jsonError;
+        // Created by the first FilterIndex that tests the message, which happens on the thread that receives it.
+        private PathValues _pathValues;
 
         /**
          * Create an instance of {@code Parameters}
@@ -38,6 +53,19 @@ public interface MessageFilter
             _message = message;
         }
 
+        /**
+         * Create an instance of {@code Parameters} for a message whose payload has already been parsed, such as one event of a
+         * batch.
+         *
+         * @param message the message
+         * @param json the parsed payload
+         */
+        public Parameters(final AWSIotMessage message, final JsonNode json)
+        {
+            _message = message;
+            _json = json;
+        }
+
         /**
          * Get the message.
          * @return the message.
@@ -46,6 +74,68 @@ public interface MessageFilter
         {
             return _message;
         }
+
+        /**
+         * Get the payload of the message parsed as a JSON tree. The payload may be JSON text, or binary Smile data that starts
+         * with the Smile header; both give the same tree. The payload is parsed the first time this is called and the result is
+         * cached. The tree is shared and must not be modified.
+         *
+         * @return the payload as JSON
+         *
+         * @throws IOException thrown if the payload is not valid JSON or Smile data
+         */
+        public JsonNode getJson() throws IOException
+        {
+            JsonNode json = _json;
+            if (json != null) return json;
+            if (_jsonError != null) throw _jsonError;
+            try
+            {
+                final byte[] payload = _message.getPayload();
+                json = (_isSmile(payload) ? SMILE_MAPPER : MAPPER).readTree(payload);
+                _json = json;
+                return json;
+            }
+            catch (final IOException e)
+            {
+                _jsonError = e;
+                throw e;
+            }
+        }
+
+        /**
+         * Check if the payload has already been parsed by {@link #getJson()}, so that using the parsed payload costs nothing.
+         *
+         * @return true if the parsed payload is cached
+         */
+        public boolean isJsonParsed()
+        {
+            return _json != null;
+        }
+
+        // Streams the parsed payload if there is one, so filters that read a few fields do not parse the message again.
+        JsonParser createParser() throws IOException
+        {
+            final JsonNode json = _json;
+            if (json != null) return json.traverse();
+            if (_jsonError != null) throw _jsonError;
+            final byte[] payload = _message.getPayload();
+            return (_isSmile(payload) ? SMILE_MAPPER : MAPPER).getFactory().createParser(payload);
+        }
+
+        PathValues getPathValues() throws IOException
+        {
+            if (_pathValues == null) _pathValues = new PathValues(getJson());
+            return _pathValues;
+        }
+
+        private static boolean _isSmile(final byte[] payload)
+        {
+            return payload.length >= 4
+                   && payload[0] == SmileConstants.HEADER_BYTE_1
+                   && payload[1] == SmileConstants.HEADER_BYTE_2
+                   && payload[2] == SmileConstants.HEADER_BYTE_3;
+        }
     }
 
     /**
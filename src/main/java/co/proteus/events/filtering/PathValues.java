@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.filtering;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import co.proteus.events.filtering.JmesPathRuntime.PathNode;
+
+// The values of property paths in one message, kept so that a path shared by several filters is evaluated once. Used on the
+// thread that filters the message; the values for the message being filtered are made current while its filters run.
+final class PathValues
+{
+    private static final ThreadLocal<PathValues> CURRENT = new ThreadLocal<>();
+
+    final JsonNode _root;
+    private final Map<List<String>, JsonNode> _values = new HashMap<>();
+
+    PathValues(final JsonNode root)
+    {
+        _root = root;
+    }
+
+    static PathValues current()
+    {
+        return CURRENT.get();
+    }
+
+    // Returns the values that were current before, to be restored by exit.
+    PathValues enter()
+    {
+        final PathValues previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    static void exit(final PathValues previous)
+    {
+        CURRENT.set(previous);
+    }
+
+    JsonNode get(final PathNode path)
+    {
+        JsonNode value = _values.get(path._key);
+        if (value == null)
+        {
+            value = path.evaluate(_root);
+            _values.put(path._key, value);
+        }
+        return value;
+    }
+}
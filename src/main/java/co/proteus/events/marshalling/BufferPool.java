@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of byte arrays used as scratch space by marshallers, so that encoding a message does not allocate a new working
+ * buffer each time. Buffers are not cleared when they are released. Buffers larger than the maximum pooled size are not kept, so
+ * an occasional very large message does not pin its buffer in memory.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class BufferPool
+{
+    /** The size of new buffers when the requested size is smaller. */
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    private final BlockingQueue<byte[]> _buffers;
+    private final int _maxBufferSize;
+
+    /**
+     * Create an instance of {@code BufferPool}.
+     *
+     * @param maxPooled the maximum number of buffers kept in the pool
+     * @param maxBufferSize the size of the largest buffer kept in the pool
+     */
+    public BufferPool(final int maxPooled, final int maxBufferSize)
+    {
+        if (maxPooled < 1) throw new IllegalArgumentException("maxPooled must be positive: " + maxPooled);
+        _buffers = new ArrayBlockingQueue<>(maxPooled);
+        _maxBufferSize = maxBufferSize;
+    }
+
+    /**
+     * Get a buffer from the pool, or allocate one if none of the pooled buffers is large enough.
+     *
+     * @param minSize the minimum size of the buffer
+     *
+     * @return the buffer, which may contain data from an earlier use
+     */
+    public byte[] acquire(final int minSize)
+    {
+        final byte[] buffer = _buffers.poll();
+        if (buffer != null && buffer.length >= minSize) return buffer;
+        // A pooled buffer that is too small is dropped; the larger one replaces it when it is released.
+        return new byte[Math.max(minSize, DEFAULT_BUFFER_SIZE)];
+    }
+
+    /**
+     * Return a buffer to the pool.
+     *
+     * @param buffer the buffer, which must not be used after it is released
+     */
+    public void release(final byte[] buffer)
+    {
+        if (buffer.length <= _maxBufferSize) _buffers.offer(buffer);
+    }
+}
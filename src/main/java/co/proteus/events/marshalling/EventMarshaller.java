@@ -13,6 +13,8 @@ package co.proteus.events.marshalling;
 
 import com.amazonaws.services.iot.client.AWSIotMessage;
 
+import java.util.List;
+
 import co.proteus.events.publication.Event;
 import co.proteus.events.publication.PublisherService;
 
@@ -35,4 +37,20 @@ public interface EventMarshaller
      * @throws MarshalException thrown if there is a problem creating the message
      */
     <T> AWSIotMessage marshall(Event<T> event) throws MarshalException;
+
+    /**
+     * Create a single {@code AWSIotMessage} that carries several events sent to the same topic. The {@link EventUnmarshaller}
+     * on the receiving side must be able to {@link EventUnmarshaller#split split} the message back into individual events.
+     *
+     * @param topic the topic all of the events are sent to
+     * @param events the events
+     *
+     * @return the message
+     *
+     * @throws MarshalException thrown if there is a problem creating the message, or if the marshaller does not support batches
+     */
+    default AWSIotMessage marshallBatch(String topic, List<? extends Event<?>> events) throws MarshalException
+    {
+        throw new MarshalException(getClass().getName() + " does not support batches");
+    }
 }
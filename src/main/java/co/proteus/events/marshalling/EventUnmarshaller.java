@@ -13,6 +13,10 @@ package co.proteus.events.marshalling;
 
 import com.amazonaws.services.iot.client.AWSIotMessage;
 
+import java.util.Collections;
+import java.util.List;
+
+import co.proteus.events.filtering.MessageFilter;
 import co.proteus.events.publication.Event;
 import co.proteus.events.publication.SubscriptionService;
 
@@ -35,4 +39,50 @@ public interface EventUnmarshaller
      * @throws UnmarshalException thrown if there is a problem creating the event
      */
     <T> Event<T> unmarshall(AWSIotMessage message) throws UnmarshalException;
+
+    /**
+     * Create an {@code Event} from a message that is also being passed to {@link MessageFilter filters}. Implementations that
+     * decode JSON should override this to reuse the {@link MessageFilter.Parameters#getJson parsed payload} instead of parsing
+     * the message again.
+     *
+     * @param params the message and its parsed views
+     * @param <T> the type of the event payload
+     *
+     * @return the event
+     *
+     * @throws UnmarshalException thrown if there is a problem creating the event
+     */
+    default <T> Event<T> unmarshall(MessageFilter.Parameters params) throws UnmarshalException
+    {
+        return unmarshall(params.getMessage());
+    }
+
+    /**
+     * Split a message created by {@link EventMarshaller#marshallBatch} into one set of parameters per event, each of which can
+     * be passed to {@link #unmarshall(MessageFilter.Parameters)} and to filters as if the event had been sent on its own.
+     * Messages that carry a single event are returned as is.
+     *
+     * @param params the message and its parsed views
+     *
+     * @return the parameters for each event in the message
+     *
+     * @throws UnmarshalException thrown if there is a problem decoding the message
+     */
+    default List<MessageFilter.Parameters> split(MessageFilter.Parameters params) throws UnmarshalException
+    {
+        return Collections.singletonList(params);
+    }
+
+    /**
+     * Tell the unmarshaller the payload type of an event type, for unmarshallers that need to know it in advance. By default
+     * this does nothing.
+     *
+     * @param eventType the event type
+     * @param payloadType the payload type
+     *
+     * @throws IllegalArgumentException if a different payload type is already registered for {@code eventType}
+     */
+    default void registerPayloadType(String eventType, Class<?> payloadType)
+    {
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling.compression;
+
+// Layout of a compressed payload: a marker byte, the algorithm ID, the decompressed length as a big-endian int, and then the
+// compressed data. The marker is 0xFE, which never occurs in UTF-8 text and is not the first byte of a Smile header, so
+// compressed payloads cannot be mistaken for JSON or Smile.
+final class CompressedPayload
+{
+    static final byte MARKER = (byte) 0xFE;
+    static final int HEADER_LENGTH = 6;
+
+    private CompressedPayload()
+    {
+    }
+
+    static boolean isCompressed(final byte[] payload)
+    {
+        return payload.length >= HEADER_LENGTH && payload[0] == MARKER;
+    }
+
+    static void writeHeader(final byte[] buffer, final byte algorithm, final int length)
+    {
+        buffer[0] = MARKER;
+        buffer[1] = algorithm;
+        buffer[2] = (byte) (length >>> 24);
+        buffer[3] = (byte) (length >>> 16);
+        buffer[4] = (byte) (length >>> 8);
+        buffer[5] = (byte) length;
+    }
+
+    static byte getAlgorithm(final byte[] payload)
+    {
+        return payload[1];
+    }
+
+    static int getLength(final byte[] payload)
+    {
+        return (payload[2] & 0xFF) << 24 | (payload[3] & 0xFF) << 16 | (payload[4] & 0xFF) << 8 | payload[5] & 0xFF;
+    }
+}
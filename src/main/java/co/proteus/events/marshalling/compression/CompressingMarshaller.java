@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling.compression;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import co.proteus.events.marshalling.BufferPool;
+import co.proteus.events.marshalling.EventMarshaller;
+import co.proteus.events.marshalling.MarshalException;
+import co.proteus.events.publication.Event;
+
+/**
+ * Marshaller that compresses the payloads created by another marshaller when they are at least a threshold size. Smaller
+ * payloads, and payloads that do not get smaller when compressed, are sent as they are. Compressed payloads start with a header
+ * that a {@link DecompressingUnmarshaller} recognizes. Compression works in pooled buffers, so the only allocation per message
+ * is the payload that is sent.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public class CompressingMarshaller implements EventMarshaller
+{
+    /** Payloads smaller than this are usually not worth compressing. */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final BufferPool DEFAULT_BUFFERS = new BufferPool(32, 256 * 1024);
+
+    private final EventMarshaller _delegate;
+    private final Compression _compression;
+    private final int _threshold;
+    private final BufferPool _buffers;
+
+    /**
+     * Create a {@code CompressingMarshaller} that uses {@link DeflateCompression deflate} for payloads of at least
+     * {@link #DEFAULT_THRESHOLD} bytes.
+     *
+     * @param delegate the marshaller that creates the messages
+     */
+    public CompressingMarshaller(final EventMarshaller delegate)
+    {
+        this(delegate, new DeflateCompression(), DEFAULT_THRESHOLD, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * Create a {@code CompressingMarshaller}.
+     *
+     * @param delegate the marshaller that creates the messages
+     * @param compression the compression algorithm
+     * @param threshold the size of the smallest payload that is compressed
+     * @param buffers the pool of working buffers
+     */
+    public CompressingMarshaller(
+        final EventMarshaller delegate, final Compression compression, final int threshold, final BufferPool buffers)
+    {
+        _delegate = delegate;
+        _compression = compression;
+        _threshold = threshold;
+        _buffers = buffers;
+    }
+
+    @Override
+    public <T> AWSIotMessage marshall(final Event<T> event) throws MarshalException
+    {
+        return _compress(_delegate.marshall(event));
+    }
+
+    @Override
+    public AWSIotMessage marshallBatch(final String topic, final List<? extends Event<?>> events) throws MarshalException
+    {
+        return _compress(_delegate.marshallBatch(topic, events));
+    }
+
+    private AWSIotMessage _compress(final AWSIotMessage message) throws MarshalException
+    {
+        final byte[] payload = message.getPayload();
+        if (payload.length < _threshold) return message;
+
+        final int header = CompressedPayload.HEADER_LENGTH;
+        final byte[] buffer = _buffers.acquire(header + payload.length);
+        try
+        {
+            // Only keep the compressed payload if it is smaller, header included.
+            final int length = _compression.compress(payload, 0, payload.length, buffer, header, payload.length - header);
+            if (length < 0) return message;
+            CompressedPayload.writeHeader(buffer, _compression.getId(), payload.length);
+            return new AWSIotMessage(message.getTopic(), message.getQos(), Arrays.copyOf(buffer, header + length));
+        }
+        catch (final IOException e)
+        {
+            throw new MarshalException("Error compressing " + message, e);
+        }
+        finally
+        {
+            _buffers.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling.compression;
+
+import java.io.IOException;
+
+/**
+ * A compression algorithm used by {@link CompressingMarshaller} and {@link DecompressingUnmarshaller}. Implementations must be
+ * thread-safe.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public interface Compression
+{
+    /**
+     * Get the ID that identifies the algorithm in the header of compressed payloads. IDs must be stable, since they are sent
+     * on the wire.
+     *
+     * @return the algorithm ID
+     */
+    byte getId();
+
+    /**
+     * Compress data into a buffer.
+     *
+     * @param input the data
+     * @param inputOffset the offset of the data in {@code input}
+     * @param inputLength the length of the data
+     * @param output the buffer to compress into
+     * @param outputOffset the offset in {@code output} to start writing at
+     * @param outputLength the room in {@code output}
+     *
+     * @return the length of the compressed data, or -1 if it did not fit in {@code outputLength} bytes
+     *
+     * @throws IOException thrown if the data cannot be compressed
+     */
+    int compress(byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset, int outputLength)
+        throws IOException;
+
+    /**
+     * Decompress data into a buffer of exactly the decompressed length.
+     *
+     * @param input the compressed data
+     * @param inputOffset the offset of the compressed data in {@code input}
+     * @param inputLength the length of the compressed data
+     * @param output the buffer to decompress into
+     *
+     * @throws IOException thrown if the data is corrupt or does not decompress to {@code output.length} bytes
+     */
+    void decompress(byte[] input, int inputOffset, int inputLength, byte[] output) throws IOException;
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling.compression;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+
+import java.io.IOException;
+import java.util.List;
+
+import co.proteus.events.filtering.MessageFilter.Parameters;
+import co.proteus.events.marshalling.EventUnmarshaller;
+import co.proteus.events.marshalling.UnmarshalException;
+import co.proteus.events.publication.Event;
+
+/**
+ * Unmarshaller that decompresses payloads created by a {@link CompressingMarshaller} before passing them to another
+ * unmarshaller. Payloads without the compression header are passed on as they are, so senders can enable compression at any
+ * time. When used by a {@link co.proteus.events.publication.SubscriptionService} the payload is decompressed once, when the
+ * message is {@link #split split}, and filters see the decompressed payload.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public class DecompressingUnmarshaller implements EventUnmarshaller
+{
+    /** The largest decompressed payload accepted, which guards against payloads that expand to use up memory. */
+    public static final int DEFAULT_MAX_LENGTH = 16 * 1024 * 1024;
+
+    private final EventUnmarshaller _delegate;
+    private final Compression[] _algorithms = new Compression[256];
+    private final int _maxLength;
+
+    /**
+     * Create a {@code DecompressingUnmarshaller} that supports {@link DeflateCompression deflate}.
+     *
+     * @param delegate the unmarshaller for decompressed messages
+     */
+    public DecompressingUnmarshaller(final EventUnmarshaller delegate)
+    {
+        this(delegate, DEFAULT_MAX_LENGTH, new DeflateCompression());
+    }
+
+    /**
+     * Create a {@code DecompressingUnmarshaller}.
+     *
+     * @param delegate the unmarshaller for decompressed messages
+     * @param maxLength the largest decompressed payload accepted
+     * @param algorithms the supported compression algorithms
+     */
+    public DecompressingUnmarshaller(final EventUnmarshaller delegate, final int maxLength, final Compression... algorithms)
+    {
+        _delegate = delegate;
+        _maxLength = maxLength;
+        for (final Compression algorithm : algorithms)
+            _algorithms[algorithm.getId() & 0xFF] = algorithm;
+    }
+
+    @Override
+    public <T> Event<T> unmarshall(final AWSIotMessage message) throws UnmarshalException
+    {
+        return _delegate.unmarshall(_decompress(message));
+    }
+
+    @Override
+    public <T> Event<T> unmarshall(final Parameters params) throws UnmarshalException
+    {
+        final AWSIotMessage message = params.getMessage();
+        final AWSIotMessage decompressed = _decompress(message);
+        return _delegate.unmarshall(decompressed == message ? params : new Parameters(decompressed));
+    }
+
+    @Override
+    public List<Parameters> split(final Parameters params) throws UnmarshalException
+    {
+        final AWSIotMessage message = params.getMessage();
+        final AWSIotMessage decompressed = _decompress(message);
+        return _delegate.split(decompressed == message ? params : new Parameters(decompressed));
+    }
+
+    @Override
+    public void registerPayloadType(final String eventType, final Class<?> payloadType)
+    {
+        _delegate.registerPayloadType(eventType, payloadType);
+    }
+
+    private AWSIotMessage _decompress(final AWSIotMessage message) throws UnmarshalException
+    {
+        final byte[] payload = message.getPayload();
+        if (!CompressedPayload.isCompressed(payload)) return message;
+
+        final Compression algorithm = _algorithms[CompressedPayload.getAlgorithm(payload) & 0xFF];
+        if (algorithm == null)
+            throw new UnmarshalException("Unsupported compression " + CompressedPayload.getAlgorithm(payload) + " in " + message);
+        final int length = CompressedPayload.getLength(payload);
+        if (length < 0 || length > _maxLength)
+            throw new UnmarshalException("Decompressed length " + length + " exceeds " + _maxLength + " in " + message);
+
+        final byte[] decompressed = new byte[length];
+        try
+        {
+            final int header = CompressedPayload.HEADER_LENGTH;
+            algorithm.decompress(payload, header, payload.length - header, decompressed);
+        }
+        catch (final IOException e)
+        {
+            throw new UnmarshalException("Error decompressing " + message, e);
+        }
+        return new AWSIotMessage(message.getTopic(), message.getQos(), decompressed);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling.compression;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate (zlib) compression from the JDK. Deflaters and inflaters hold native memory and are expensive to create, so they are
+ * kept in bounded pools and reused.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class DeflateCompression implements Compression
+{
+    /** The algorithm ID of deflate compression. */
+    public static final byte ID = 1;
+
+    /** The number of deflaters and inflaters kept for reuse. */
+    public static final int DEFAULT_POOL_SIZE = 16;
+
+    private final int _level;
+    private final BlockingQueue<Deflater> _deflaters;
+    private final BlockingQueue<Inflater> _inflaters;
+
+    /**
+     * Create an instance of {@code DeflateCompression} that favors speed over compression ratio.
+     */
+    public DeflateCompression()
+    {
+        this(Deflater.BEST_SPEED, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Create an instance of {@code DeflateCompression}.
+     *
+     * @param level the compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     * @param poolSize the number of deflaters and inflaters kept for reuse
+     */
+    public DeflateCompression(final int level, final int poolSize)
+    {
+        if (poolSize < 1) throw new IllegalArgumentException("poolSize must be positive: " + poolSize);
+        _level = level;
+        _deflaters = new ArrayBlockingQueue<>(poolSize);
+        _inflaters = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    @Override
+    public byte getId()
+    {
+        return ID;
+    }
+
+    @Override
+    public int compress(
+        final byte[] input, final int inputOffset, final int inputLength, final byte[] output, final int outputOffset,
+        final int outputLength)
+    {
+        final Deflater deflater = _deflaters.poll();
+        final Deflater active = deflater != null ? deflater : new Deflater(_level);
+        try
+        {
+            active.setInput(input, inputOffset, inputLength);
+            active.finish();
+            int length = 0;
+            while (!active.finished())
+            {
+                if (length == outputLength) return -1;
+                length += active.deflate(output, outputOffset + length, outputLength - length);
+            }
+            return length;
+        }
+        finally
+        {
+            active.reset();
+            if (!_deflaters.offer(active)) active.end();
+        }
+    }
+
+    @Override
+    public void decompress(final byte[] input, final int inputOffset, final int inputLength, final byte[] output)
+        throws IOException
+    {
+        final Inflater inflater = _inflaters.poll();
+        final Inflater active = inflater != null ? inflater : new Inflater();
+        try
+        {
+            active.setInput(input, inputOffset, inputLength);
+            int length = 0;
+            while (!active.finished())
+            {
+                final int inflated = active.inflate(output, length, output.length - length);
+                if (inflated == 0 && (active.needsInput() || active.needsDictionary() || length == output.length))
+                    throw new IOException("Compressed data does not decompress to " + output.length + " bytes");
+                length += inflated;
+            }
+            if (length != output.length)
+                throw new IOException("Decompressed " + length + " bytes, expected " + output.length);
+        }
+        catch (final DataFormatException e)
+        {
+            throw new IOException("Compressed data is corrupt", e);
+        }
+        finally
+        {
+            active.reset();
+            if (!_inflaters.offer(active)) active.end();
+        }
+    }
+}
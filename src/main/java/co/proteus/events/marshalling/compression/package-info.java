@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+/**
+ * Compression of message payloads. A {@link co.proteus.events.marshalling.compression.CompressingMarshaller} wraps any
+ * marshaller and compresses payloads above a size threshold, marking them with a header, and a
+ * {@link co.proteus.events.marshalling.compression.DecompressingUnmarshaller} wraps the matching unmarshaller and decompresses
+ * only the payloads that carry the header. Algorithms are pluggable through
+ * {@link co.proteus.events.marshalling.compression.Compression}.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+package co.proteus.events.marshalling.compression;
@@ -12,6 +12,8 @@
 package co.proteus.events.marshalling.json;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonTypeInfo.As;
@@ -29,6 +31,7 @@ import co.proteus.events.publication.Event;
 public class EventData<T>
 {
     private final String _eventType;
+    private final String _origin;
     private final T _payload;
 
     /**
@@ -38,7 +41,7 @@ public class EventData<T>
      */
     public EventData(final Event<T> event)
     {
-        this(event.getEventType(), event.getPayload());
+        this(event.getEventType(), event.getOrigin(), event.getPayload());
     }
 
     /**
@@ -47,10 +50,25 @@ public class EventData<T>
      * @param eventType the event type
      * @param payload the payload
      */
+    public EventData(final String eventType, final T payload)
+    {
+        this(eventType, null, payload);
+    }
+
+    /**
+     * Create an instance for the specified type, origin and payload
+     *
+     * @param eventType the event type
+     * @param origin the identifier of the publisher, or null
+     * @param payload the payload
+     */
     @JsonCreator
-    public EventData(@JsonProperty("eventType") final String eventType, @JsonProperty("payload") final T payload)
+    public EventData(
+        @JsonProperty("eventType") final String eventType, @JsonProperty("origin") final String origin,
+        @JsonProperty("payload") final T payload)
     {
         _eventType = eventType;
+        _origin = origin;
         _payload = payload;
     }
 
@@ -64,6 +82,17 @@ public class EventData<T>
         return _eventType;
     }
 
+    /**
+     * Get the identifier of the publisher that sent the event.
+     *
+     * @return the identifier, or null if the event is not marked with one
+     */
+    @JsonInclude(Include.NON_NULL)
+    public String getOrigin()
+    {
+        return _origin;
+    }
+
     /**
      * Get the event payload.
      *
@@ -80,6 +109,7 @@ public class EventData<T>
     {
         return getClass().getSimpleName() + '{' +
                "_eventType='" + _eventType + '\'' +
+               ", _origin='" + _origin + '\'' +
                ", _payload=" + _payload +
                '}';
     }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.deser.DeserializationProblemHandler;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps event types to the type of their payload. Payloads of registered event types are encoded without their class name, and
+ * decoded with a reader built once for the payload type, so no class is looked up by name for each message. Share one registry
+ * between the {@link JsonMarshaller} and {@link JsonUnmarshaller} of every service that sends or receives the event types, and
+ * fill it in at startup or when subscribing. Payloads of event types that are not registered carry their class name as before.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class EventTypeRegistry
+{
+    private static final class Registration
+    {
+        final JavaType _payloadType;
+        final ObjectReader _reader;
+
+        Registration(final JavaType payloadType)
+        {
+            _payloadType = payloadType;
+            _reader = MAPPER.readerFor(payloadType).withHandler(IGNORE_CLASS_PROPERTY);
+        }
+    }
+
+    /** The property that holds the class name of payloads whose event type is not registered. */
+    static final String CLASS_PROPERTY = "@class";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Payloads sent before their event type was registered still carry their class name.
+    private static final DeserializationProblemHandler IGNORE_CLASS_PROPERTY = new DeserializationProblemHandler()
+    {
+        @Override
+        public boolean handleUnknownProperty(
+            final DeserializationContext context, final JsonParser parser, final JsonDeserializer<?> deserializer,
+            final Object beanOrClass, final String propertyName) throws IOException
+        {
+            if (!CLASS_PROPERTY.equals(propertyName)) return false;
+            parser.skipChildren();
+            return true;
+        }
+    };
+
+    private final Map<String, Registration> _registrations = new ConcurrentHashMap<>();
+
+    /**
+     * Register the payload type for an event type.
+     *
+     * @param eventType the event type
+     * @param payloadType the payload type
+     *
+     * @throws IllegalArgumentException if a different payload type is already registered for {@code eventType}
+     */
+    public void register(final String eventType, final Class<?> payloadType)
+    {
+        register(eventType, MAPPER.constructType(payloadType));
+    }
+
+    /**
+     * Register a generic payload type for an event type, e.g. {@code new TypeReference<List<String>>() {}}.
+     *
+     * @param eventType the event type
+     * @param payloadType the payload type
+     *
+     * @throws IllegalArgumentException if a different payload type is already registered for {@code eventType}
+     */
+    public void register(final String eventType, final TypeReference<?> payloadType)
+    {
+        register(eventType, MAPPER.getTypeFactory().constructType(payloadType));
+    }
+
+    /**
+     * Register the payload type for an event type.
+     *
+     * @param eventType the event type
+     * @param payloadType the payload type
+     *
+     * @throws IllegalArgumentException if a different payload type is already registered for {@code eventType}
+     */
+    public void register(final String eventType, final JavaType payloadType)
+    {
+        final Registration existing = _registrations.computeIfAbsent(eventType, it -> new Registration(payloadType));
+        if (!existing._payloadType.equals(payloadType))
+        {
+            throw new IllegalArgumentException(
+                "Event type " + eventType + " is already registered for " + existing._payloadType + ", not " + payloadType);
+        }
+    }
+
+    /**
+     * Check if a payload type is registered for an event type.
+     *
+     * @param eventType the event type
+     *
+     * @return true if the event type is registered
+     */
+    public boolean isRegistered(final String eventType)
+    {
+        return _registrations.containsKey(eventType);
+    }
+
+    /**
+     * Check if no event types are registered.
+     *
+     * @return true if the registry is empty
+     */
+    public boolean isEmpty()
+    {
+        return _registrations.isEmpty();
+    }
+
+    // Returns null if the event type is not registered.
+    ObjectReader getReader(final String eventType)
+    {
+        final Registration registration = _registrations.get(eventType);
+        return registration != null ? registration._reader : null;
+    }
+}
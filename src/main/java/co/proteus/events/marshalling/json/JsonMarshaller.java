@@ -13,10 +13,22 @@ package co.proteus.events.marshalling.json;
 
 import com.amazonaws.services.iot.client.AWSIotMessage;
 import com.amazonaws.services.iot.client.AWSIotQos;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.jsontype.impl.AsPropertyTypeSerializer;
+import com.fasterxml.jackson.databind.jsontype.impl.ClassNameIdResolver;
+import com.fasterxml.jackson.databind.ser.DefaultSerializerProvider;
+import com.fasterxml.jackson.databind.ser.SerializerFactory;
+import com.fasterxml.jackson.databind.type.TypeFactory;
 
+import java.io.IOException;
+import java.util.List;
+
+import co.proteus.events.marshalling.BufferPool;
 import co.proteus.events.marshalling.EventMarshaller;
 import co.proteus.events.marshalling.MarshalException;
 import co.proteus.events.publication.Event;
@@ -24,14 +36,32 @@ import co.proteus.events.publication.Event;
 /**
  * Marshaller that uses Jackson to convert to encode the {@link Event#getPayload payload} as JSON data.
  *
+ * The envelope is streamed straight to a {@link JsonGenerator} rather than being bound from an {@link EventData}, and the
+ * generator writes into a pooled buffer, so the only allocations per event that outlive the call are the payload of the
+ * message and the message itself. The encoding is the same as binding an {@code EventData}.
+ *
  * @author Justin Piper (jpiper@proteus.co)
  */
 public class JsonMarshaller implements EventMarshaller
 {
-    private static final ObjectWriter WRITER = new ObjectMapper()
-        .writer();
+    /** The name of the property of a batch envelope that holds its events. */
+    static final String BATCH_EVENTS = "events";
+    /** The name of the property that holds the {@link Event#getOrigin() origin} of an event, which is left out when null. */
+    static final String ORIGIN = "origin";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final BufferPool DEFAULT_BUFFERS = new BufferPool(32, 256 * 1024);
+    private static final String EVENT_TYPE = "eventType";
+    private static final String PAYLOAD = "payload";
 
     private final AWSIotQos _qos;
+    private final EventTypeRegistry _registry;
+    private final JsonFactory _factory;
+    private final SerializationConfig _config;
+    private final SerializerFactory _serializerFactory;
+    private final DefaultSerializerProvider _serializerProvider;
+    private final TypeSerializer _classSerializer;
+    private final BufferPool _buffers;
 
     /**
      * Create a {@code JsonMarshaller} that creates messages with the specified QoS level
@@ -39,21 +69,138 @@ public class JsonMarshaller implements EventMarshaller
      * @param qos the QoS level
      */
     public JsonMarshaller(final AWSIotQos qos)
+    {
+        this(qos, new EventTypeRegistry());
+    }
+
+    /**
+     * Create a {@code JsonMarshaller} that creates messages with the specified QoS level, and leaves the class name out of the
+     * payload of event types that are registered.
+     *
+     * @param qos the QoS level
+     * @param registry the payload types of registered event types
+     */
+    public JsonMarshaller(final AWSIotQos qos, final EventTypeRegistry registry)
+    {
+        this(qos, registry, MAPPER);
+    }
+
+    /**
+     * Create a marshaller that encodes events in the data format of {@code mapper}, for subclasses that use a format other
+     * than JSON text.
+     *
+     * @param qos the QoS level
+     * @param registry the payload types of registered event types
+     * @param mapper the mapper for the data format; it is not modified
+     */
+    protected JsonMarshaller(final AWSIotQos qos, final EventTypeRegistry registry, final ObjectMapper mapper)
+    {
+        this(qos, registry, mapper, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * Create a marshaller that encodes events in the data format of {@code mapper} into buffers from the specified pool.
+     *
+     * @param qos the QoS level
+     * @param registry the payload types of registered event types
+     * @param mapper the mapper for the data format; it is not modified
+     * @param buffers the pool of buffers that messages are encoded in
+     */
+    protected JsonMarshaller(
+        final AWSIotQos qos, final EventTypeRegistry registry, final ObjectMapper mapper, final BufferPool buffers)
     {
         _qos = qos;
+        _registry = registry;
+        _factory = mapper.getFactory();
+        _config = mapper.getSerializationConfig();
+        _serializerFactory = mapper.getSerializerFactory();
+        _serializerProvider = (DefaultSerializerProvider) mapper.getSerializerProvider();
+        // Matches the @JsonTypeInfo on EventData.getPayload.
+        _classSerializer = new AsPropertyTypeSerializer(
+            new ClassNameIdResolver(TypeFactory.unknownType(), mapper.getTypeFactory()), null, EventTypeRegistry.CLASS_PROPERTY);
+        _buffers = buffers;
     }
 
     @Override
     public <T> AWSIotMessage marshall(final Event<T> event) throws MarshalException
     {
+        final PooledOutputStream out = new PooledOutputStream(_buffers);
         try
         {
-            final EventData<T> fields = new EventData<>(event);
-            return new AWSIotMessage(event.getTopic(), _qos, WRITER.writeValueAsBytes(fields));
+            try (JsonGenerator generator = _factory.createGenerator(out))
+            {
+                _config.initialize(generator);
+                _writeEvent(generator, _serializerProvider.createInstance(_config, _serializerFactory), event);
+            }
+            return new AWSIotMessage(event.getTopic(), _qos, out.toByteArray());
         }
-        catch (JsonProcessingException e)
+        catch (IOException e)
         {
             throw new MarshalException("Error marshalling " + event, e);
         }
+        finally
+        {
+            out.release();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The events are encoded as an envelope with an {@code events} property that holds each event as it would be encoded on its
+     * own.
+     */
+    @Override
+    public AWSIotMessage marshallBatch(final String topic, final List<? extends Event<?>> events) throws MarshalException
+    {
+        final PooledOutputStream out = new PooledOutputStream(_buffers);
+        try
+        {
+            try (JsonGenerator generator = _factory.createGenerator(out))
+            {
+                _config.initialize(generator);
+                final DefaultSerializerProvider provider = _serializerProvider.createInstance(_config, _serializerFactory);
+                generator.writeStartObject();
+                generator.writeArrayFieldStart(BATCH_EVENTS);
+                for (final Event<?> event : events)
+                {
+                    if (!topic.equals(event.getTopic())) throw new MarshalException(event + " is not sent to " + topic);
+                    _writeEvent(generator, provider, event);
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            return new AWSIotMessage(topic, _qos, out.toByteArray());
+        }
+        catch (IOException e)
+        {
+            throw new MarshalException("Error marshalling " + events, e);
+        }
+        finally
+        {
+            out.release();
+        }
+    }
+
+    private void _writeEvent(final JsonGenerator generator, final DefaultSerializerProvider provider, final Event<?> event)
+        throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeStringField(EVENT_TYPE, event.getEventType());
+        // Before the payload, so unmarshallers that stream the envelope find it without reading the payload.
+        if (event.getOrigin() != null) generator.writeStringField(ORIGIN, event.getOrigin());
+        generator.writeFieldName(PAYLOAD);
+        final Object payload = event.getPayload();
+        if (payload == null)
+        {
+            generator.writeNull();
+        }
+        else
+        {
+            final JsonSerializer<Object> serializer = provider.findValueSerializer(payload.getClass(), null);
+            if (_registry.isRegistered(event.getEventType())) serializer.serialize(payload, generator, provider);
+            else serializer.serializeWithType(payload, generator, provider, _classSerializer);
+        }
+        generator.writeEndObject();
     }
 }
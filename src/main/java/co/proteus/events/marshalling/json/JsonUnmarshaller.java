@@ -12,35 +12,286 @@
 package co.proteus.events.marshalling.json;
 
 import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
 
+import co.proteus.events.filtering.MessageFilter.Parameters;
 import co.proteus.events.marshalling.EventUnmarshaller;
 import co.proteus.events.marshalling.UnmarshalException;
 import co.proteus.events.publication.Event;
+import co.proteus.events.publication.Event.PayloadBinder;
 
 /**
+ * Unmarshaller that uses Jackson to decode JSON data created by a {@link JsonMarshaller}. Payloads of event types that are
+ * registered in the {@link EventTypeRegistry} are bound directly to their registered type; other payloads are bound to the
+ * class named in the payload.
+ *
+ * An unmarshaller created with {@code lazyPayloads} only reads the event type when a message is unmarshalled, and binds the
+ * payload the first time {@link Event#getPayload()} is called. Events that no subscription accepts are then never bound. The
+ * payload is bound from the parsed view that {@link Parameters#getJson() filters} share when there is one, and otherwise from
+ * the message. Errors in the payload are reported when it is bound rather than when the message is unmarshalled.
+ *
  * @author Justin Piper (jpiper@proteus.co)
  */
 public class JsonUnmarshaller implements EventUnmarshaller
 {
-    private static final ObjectReader READER = new ObjectMapper()
-        .reader();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String EVENT_TYPE = "eventType";
+    private static final String PAYLOAD = "payload";
+
+    private final EventTypeRegistry _registry;
+    private final JsonFactory _factory;
+    private final ObjectReader _reader;
+    private final boolean _lazyPayloads;
+
+    /**
+     * Create a {@code JsonUnmarshaller} that binds payloads to the class named in the payload.
+     */
+    public JsonUnmarshaller()
+    {
+        this(new EventTypeRegistry());
+    }
+
+    /**
+     * Create a {@code JsonUnmarshaller} that binds the payloads of registered event types to their registered type.
+     *
+     * @param registry the payload types of registered event types
+     */
+    public JsonUnmarshaller(final EventTypeRegistry registry)
+    {
+        this(registry, false);
+    }
+
+    /**
+     * Create a {@code JsonUnmarshaller} that binds the payloads of registered event types to their registered type, and that
+     * may defer binding payloads until they are used.
+     *
+     * @param registry the payload types of registered event types
+     * @param lazyPayloads true to bind each payload the first time it is used
+     */
+    public JsonUnmarshaller(final EventTypeRegistry registry, final boolean lazyPayloads)
+    {
+        this(registry, MAPPER, lazyPayloads);
+    }
+
+    /**
+     * Create an unmarshaller that decodes messages in the data format of {@code mapper}, for subclasses that use a format other
+     * than JSON text. Parsed payloads are always taken from {@link Parameters#getJson()}.
+     *
+     * @param registry the payload types of registered event types
+     * @param mapper the mapper for the data format
+     * @param lazyPayloads true to bind each payload the first time it is used
+     */
+    protected JsonUnmarshaller(final EventTypeRegistry registry, final ObjectMapper mapper, final boolean lazyPayloads)
+    {
+        _registry = registry;
+        _factory = mapper.getFactory();
+        _reader = mapper.readerFor(EventData.class);
+        _lazyPayloads = lazyPayloads;
+    }
 
     @Override
     public <T> Event<T> unmarshall(final AWSIotMessage message) throws UnmarshalException
     {
         try
         {
-            final EventData<T> fields = READER.forType(EventData.class)
-                .readValue(message.getPayload());
-            return new Event<>(message.getTopic(), fields.getEventType(), fields.getPayload());
+            if (_lazyPayloads) return _readLazy(message, eventType -> () -> _bindPayload(eventType, message.getPayload()));
+            if (!_registry.isEmpty()) return _unmarshallRegistered(message);
+            final EventData<T> fields = _reader.readValue(message.getPayload());
+            return _withOrigin(new Event<>(message.getTopic(), fields.getEventType(), fields.getPayload()), fields.getOrigin());
         }
         catch (final IOException | ClassCastException e)
         {
             throw new UnmarshalException("Error marshalling " + message, e);
         }
     }
+
+    @Override
+    public <T> Event<T> unmarshall(final Parameters params) throws UnmarshalException
+    {
+        final AWSIotMessage message = params.getMessage();
+        try
+        {
+            if (_lazyPayloads && !params.isJsonParsed())
+            {
+                // Bind from the parsed view if a filter has parsed the message by the time the payload is used.
+                return _readLazy(message, eventType -> () -> params.isJsonParsed()
+                    ? _bindPayload(eventType, params.getJson())
+                    : _bindPayload(eventType, message.getPayload()));
+            }
+            final JsonNode json = params.getJson();
+            final String eventType = json.path(EVENT_TYPE).textValue();
+            final String origin = json.path(JsonMarshaller.ORIGIN).textValue();
+            if (_lazyPayloads)
+                return _withOrigin(Event.lazy(message.getTopic(), eventType, () -> _bindPayload(eventType, json)), origin);
+            return _withOrigin(new Event<>(message.getTopic(), eventType, _bindPayload(eventType, json)), origin);
+        }
+        catch (final IOException | ClassCastException e)
+        {
+            throw new UnmarshalException("Error marshalling " + message, e);
+        }
+    }
+
+    // Binds the payload straight from the parser when the event type comes first, as the JsonMarshaller writes it. Otherwise
+    // the message is parsed into a tree and bound from there.
+    private <T> Event<T> _unmarshallRegistered(final AWSIotMessage message) throws IOException, UnmarshalException
+    {
+        try (JsonParser parser = _factory.createParser(message.getPayload()))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new UnmarshalException("Expected an object in " + message);
+            String eventType = null;
+            String origin = null;
+            T payload = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                final String field = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if (EVENT_TYPE.equals(field))
+                {
+                    eventType = parser.getValueAsString();
+                }
+                else if (JsonMarshaller.ORIGIN.equals(field))
+                {
+                    origin = parser.getValueAsString();
+                }
+                else if (PAYLOAD.equals(field))
+                {
+                    final ObjectReader reader = eventType != null ? _registry.getReader(eventType) : null;
+                    if (reader == null) return unmarshall(new Parameters(message));
+                    payload = value == JsonToken.VALUE_NULL ? null : reader.readValue(parser);
+                }
+                else
+                {
+                    parser.skipChildren();
+                }
+            }
+            return _withOrigin(new Event<>(message.getTopic(), eventType, payload), origin);
+        }
+    }
+
+    // Reads the event type and origin without reading the payload, which the JsonMarshaller writes after them, and creates an
+    // event whose payload is bound by the binder for the event type.
+    private <T> Event<T> _readLazy(final AWSIotMessage message, final Function<String, PayloadBinder<T>> binder)
+        throws IOException, UnmarshalException
+    {
+        try (JsonParser parser = _factory.createParser(message.getPayload()))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new UnmarshalException("Expected an object in " + message);
+            String eventType = null;
+            String origin = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                if (EVENT_TYPE.equals(field)) eventType = parser.getValueAsString();
+                else if (JsonMarshaller.ORIGIN.equals(field)) origin = parser.getValueAsString();
+                else if (PAYLOAD.equals(field) && eventType != null) break;
+                else parser.skipChildren();
+            }
+            return _withOrigin(Event.lazy(message.getTopic(), eventType, binder.apply(eventType)), origin);
+        }
+    }
+
+    private static <T> Event<T> _withOrigin(final Event<T> event, final String origin)
+    {
+        return origin != null ? event.withOrigin(origin) : event;
+    }
+
+    // Reads only the first property name of the envelope: a batch envelope has no other property, and the JsonMarshaller writes
+    // the event type first, so the payload of a single event is never read here. Returns true if the message could not be
+    // streamed, so the parsed view reports the error, or reads a format that this unmarshaller does not stream, such as Smile.
+    private boolean _mayBeBatch(final AWSIotMessage message)
+    {
+        try (JsonParser parser = _factory.createParser(message.getPayload()))
+        {
+            return parser.nextToken() == JsonToken.START_OBJECT
+                   && parser.nextToken() == JsonToken.FIELD_NAME
+                   && JsonMarshaller.BATCH_EVENTS.equals(parser.getCurrentName());
+        }
+        catch (final IOException e)
+        {
+            return true;
+        }
+    }
+
+    private <T> T _bindPayload(final String eventType, final JsonNode json) throws IOException
+    {
+        final ObjectReader reader = eventType != null ? _registry.getReader(eventType) : null;
+        if (reader == null)
+        {
+            final EventData<T> fields = _reader.readValue(json);
+            return fields.getPayload();
+        }
+        final JsonNode payload = json.path(PAYLOAD);
+        return payload.isMissingNode() || payload.isNull() ? null : reader.readValue(payload);
+    }
+
+    private <T> T _bindPayload(final String eventType, final byte[] message) throws IOException
+    {
+        final ObjectReader reader = eventType != null ? _registry.getReader(eventType) : null;
+        if (reader == null)
+        {
+            final EventData<T> fields = _reader.readValue(message);
+            return fields.getPayload();
+        }
+        try (JsonParser parser = _factory.createParser(message))
+        {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                final String field = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if (PAYLOAD.equals(field)) return value == JsonToken.VALUE_NULL ? null : reader.readValue(parser);
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public void registerPayloadType(final String eventType, final Class<?> payloadType)
+    {
+        _registry.register(eventType, payloadType);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Messages are recognized as batches by the {@code events} property of the envelope. Each event in a
+     * batch shares the message's topic, and its parsed view is the event's element of the envelope. Unless the message has
+     * already been parsed, only the first property name of the envelope is read to find out whether it is a batch, so a message
+     * that carries one event is not parsed here and filters and payloads may still stream it.
+     */
+    @Override
+    public List<Parameters> split(final Parameters params) throws UnmarshalException
+    {
+        final JsonNode events;
+        try
+        {
+            if (!params.isJsonParsed() && !_mayBeBatch(params.getMessage())) return Collections.singletonList(params);
+            events = params.getJson().get(JsonMarshaller.BATCH_EVENTS);
+        }
+        catch (final IOException e)
+        {
+            throw new UnmarshalException("Error unmarshalling " + params.getMessage(), e);
+        }
+        if (events == null) return Collections.singletonList(params);
+        if (!events.isArray()) throw new UnmarshalException("Expected an array of events in " + params.getMessage());
+
+        final List<Parameters> result = new ArrayList<>(events.size());
+        for (final JsonNode event : events)
+            result.add(new Parameters(params.getMessage(), event));
+        return result;
+    }
 }
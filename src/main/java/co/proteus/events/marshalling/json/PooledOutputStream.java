@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling.json;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import co.proteus.events.marshalling.BufferPool;
+
+// Output stream that writes into a buffer borrowed from a pool, growing into larger pooled buffers as needed. The buffer must
+// be released once the contents have been copied out.
+final class PooledOutputStream extends OutputStream
+{
+    private final BufferPool _pool;
+    private byte[] _buffer;
+    private int _length;
+
+    PooledOutputStream(final BufferPool pool)
+    {
+        _pool = pool;
+        _buffer = pool.acquire(0);
+    }
+
+    @Override
+    public void write(final int b)
+    {
+        _ensureCapacity(1);
+        _buffer[_length++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len)
+    {
+        _ensureCapacity(len);
+        System.arraycopy(b, off, _buffer, _length, len);
+        _length += len;
+    }
+
+    byte[] toByteArray()
+    {
+        return Arrays.copyOf(_buffer, _length);
+    }
+
+    void release()
+    {
+        _pool.release(_buffer);
+        _buffer = null;
+    }
+
+    private void _ensureCapacity(final int len)
+    {
+        if (_length + len <= _buffer.length) return;
+        final byte[] larger = _pool.acquire(Math.max(_length + len, _buffer.length * 2));
+        System.arraycopy(_buffer, 0, larger, 0, _length);
+        _pool.release(_buffer);
+        _buffer = larger;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling.smile;
+
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import co.proteus.events.marshalling.json.EventTypeRegistry;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+
+/**
+ * Marshaller that uses Jackson to encode events as binary Smile data, which is smaller and faster to parse than JSON text.
+ * Property names and short strings that repeat within a message are written once and referred back to.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public class SmileMarshaller extends JsonMarshaller
+{
+    /** Writes the Smile header, which {@link SmileUnmarshaller} uses to tell Smile messages from JSON text. */
+    static final ObjectMapper MAPPER = new ObjectMapper(new SmileFactory());
+
+    /**
+     * Create a {@code SmileMarshaller} that creates messages with the specified QoS level
+     *
+     * @param qos the QoS level
+     */
+    public SmileMarshaller(final AWSIotQos qos)
+    {
+        this(qos, new EventTypeRegistry());
+    }
+
+    /**
+     * Create a {@code SmileMarshaller} that creates messages with the specified QoS level, and leaves the class name out of the
+     * payload of event types that are registered.
+     *
+     * @param qos the QoS level
+     * @param registry the payload types of registered event types
+     */
+    public SmileMarshaller(final AWSIotQos qos, final EventTypeRegistry registry)
+    {
+        super(qos, registry, MAPPER);
+    }
+}
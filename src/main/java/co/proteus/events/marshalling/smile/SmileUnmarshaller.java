@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling.smile;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+
+import co.proteus.events.filtering.MessageFilter.Parameters;
+import co.proteus.events.marshalling.UnmarshalException;
+import co.proteus.events.marshalling.json.EventTypeRegistry;
+import co.proteus.events.marshalling.json.JsonUnmarshaller;
+import co.proteus.events.publication.Event;
+
+/**
+ * Unmarshaller for messages created by a {@link SmileMarshaller}. Messages that do not start with the Smile header are decoded
+ * as JSON text, so a single subscription service can receive events from senders that use either format.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public class SmileUnmarshaller extends JsonUnmarshaller
+{
+    private final JsonUnmarshaller _json;
+
+    /**
+     * Create a {@code SmileUnmarshaller} that binds payloads to the class named in the payload.
+     */
+    public SmileUnmarshaller()
+    {
+        this(new EventTypeRegistry());
+    }
+
+    /**
+     * Create a {@code SmileUnmarshaller} that binds the payloads of registered event types to their registered type.
+     *
+     * @param registry the payload types of registered event types
+     */
+    public SmileUnmarshaller(final EventTypeRegistry registry)
+    {
+        this(registry, false);
+    }
+
+    /**
+     * Create a {@code SmileUnmarshaller} that binds the payloads of registered event types to their registered type, and that
+     * may defer binding payloads until they are used.
+     *
+     * @param registry the payload types of registered event types
+     * @param lazyPayloads true to bind each payload the first time it is used
+     *
+     * @see JsonUnmarshaller#JsonUnmarshaller(EventTypeRegistry, boolean)
+     */
+    public SmileUnmarshaller(final EventTypeRegistry registry, final boolean lazyPayloads)
+    {
+        super(registry, SmileMarshaller.MAPPER, lazyPayloads);
+        _json = new JsonUnmarshaller(registry, lazyPayloads);
+    }
+
+    /**
+     * Check if a payload is Smile data rather than JSON text.
+     *
+     * @param payload the message payload
+     *
+     * @return true if the payload starts with the Smile header
+     */
+    public static boolean isSmile(final byte[] payload)
+    {
+        return payload.length >= 4
+               && payload[0] == SmileConstants.HEADER_BYTE_1
+               && payload[1] == SmileConstants.HEADER_BYTE_2
+               && payload[2] == SmileConstants.HEADER_BYTE_3;
+    }
+
+    @Override
+    public <T> Event<T> unmarshall(final AWSIotMessage message) throws UnmarshalException
+    {
+        return isSmile(message.getPayload()) ? super.unmarshall(message) : _json.unmarshall(message);
+    }
+
+    @Override
+    public <T> Event<T> unmarshall(final Parameters params) throws UnmarshalException
+    {
+        return isSmile(params.getMessage().getPayload()) ? super.unmarshall(params) : _json.unmarshall(params);
+    }
+}
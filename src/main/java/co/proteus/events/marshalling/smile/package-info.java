@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+/**
+ * Binary encoding of events using Jackson's Smile format. Messages have the same structure as those of the JSON codec in
+ * {@link co.proteus.events.marshalling.json}, so filters and {@link co.proteus.events.marshalling.json.EventTypeRegistry
+ * registered payload types} work the same for both. Every Smile message starts with the Smile header ({@code :)\n} followed by
+ * a version byte), which can never start JSON text, so the {@link co.proteus.events.marshalling.smile.SmileUnmarshaller} can
+ * receive both formats while senders are migrated.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+package co.proteus.events.marshalling.smile;
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.metrics;
+
+import co.proteus.events.publication.PublishStatus;
+import co.proteus.events.publication.PublisherService;
+import co.proteus.events.publication.SubscriptionService;
+
+/**
+ * Receives measurements from the publish and subscribe paths of {@link PublisherService} and {@link SubscriptionService}, to
+ * be recorded by an adapter for a metrics library such as Micrometer or Dropwizard Metrics. Every method does nothing by
+ * default, so an adapter only implements the measurements it records. Durations are in nanoseconds.
+ *
+ * <p>Methods are called on the threads that publish, send and receive events, often on the client's callback thread, so they
+ * must be thread-safe and should return quickly. A service given {@link #NONE} does not read the clock or make any calls.</p>
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public interface EventMetrics
+{
+    /** Records nothing; services skip all measurement. */
+    EventMetrics NONE = new EventMetrics()
+    {
+        @Override
+        public boolean isEnabled()
+        {
+            return false;
+        }
+    };
+
+    /**
+     * Check if measurements should be taken. Services check this once, when they are created.
+     *
+     * @return false if the service should not call this instance
+     */
+    default boolean isEnabled()
+    {
+        return true;
+    }
+
+    /**
+     * Called when a published event that was not throttled has a result.
+     *
+     * @param topic the topic
+     * @param eventType the event type
+     * @param status the status: {@code PUBLISHED}, {@code DROPPED} or {@code SUPERSEDED}
+     * @param latency the time from publishing the event until the result
+     */
+    default void published(final String topic, final String eventType, final PublishStatus status, final long latency)
+    {
+    }
+
+    /**
+     * Called when a published event fails, for example because it could not be marshalled or the client reported an error.
+     *
+     * @param topic the topic
+     * @param eventType the event type
+     * @param error the error
+     * @param latency the time from publishing the event until the failure
+     */
+    default void publishFailed(final String topic, final String eventType, final Throwable error, final long latency)
+    {
+    }
+
+    /**
+     * Called when the throttler for a channel does not let an event be sent right away. The event is dropped, or deferred if
+     * coalescing is enabled for the channel.
+     *
+     * @param topic the topic
+     * @param eventType the event type
+     */
+    default void throttled(final String topic, final String eventType)
+    {
+    }
+
+    /**
+     * Called when the events of a message have been marshalled.
+     *
+     * @param topic the topic
+     * @param events the number of events in the message
+     * @param duration the time taken by the marshaller
+     */
+    default void marshalled(final String topic, final int events, final long duration)
+    {
+    }
+
+    /**
+     * Called when an event has been unmarshalled from a received message.
+     *
+     * @param topic the topic
+     * @param eventType the event type
+     * @param duration the time taken by the unmarshaller
+     */
+    default void unmarshalled(final String topic, final String eventType, final long duration)
+    {
+    }
+
+    /**
+     * Called when a received message could not be unmarshalled.
+     *
+     * @param topic the topic
+     * @param error the error
+     */
+    default void unmarshalFailed(final String topic, final Throwable error)
+    {
+    }
+
+    /**
+     * Called when the filters of the subscriptions to a topic filter and event type have been applied to an event. Filters
+     * of subscriptions that share a topic filter and event type are applied together and share work, so they are measured
+     * together.
+     *
+     * @param topicFilter the topic filter the subscriptions are for
+     * @param eventType the event type
+     * @param subscriptions the number of subscriptions whose filters were applied
+     * @param accepted the number of subscriptions that accepted the event
+     * @param duration the time taken by the filters
+     */
+    default void filtered(
+        final String topicFilter, final String eventType, final int subscriptions, final int accepted, final long duration)
+    {
+    }
+
+    /**
+     * Called when an event has been queued for delivery to a subscription.
+     *
+     * @param topicFilter the topic filter of the subscription
+     * @param eventType the event type
+     * @param queueDepth the number of events waiting to be delivered to the subscription once this one was queued, which is
+     * zero if it was delivered right away
+     */
+    default void dispatched(final String topicFilter, final String eventType, final int queueDepth)
+    {
+    }
+
+    /**
+     * Called when events were not delivered to a subscription because its queue was full, either the event being queued or,
+     * with {@code DROP_OLDEST}, events that were waiting.
+     *
+     * @param topicFilter the topic filter of the subscription
+     * @param eventType the event type
+     * @param count the number of events dropped
+     */
+    default void dispatchDropped(final String topicFilter, final String eventType, final int count)
+    {
+    }
+}
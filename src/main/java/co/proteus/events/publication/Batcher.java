@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Collects events published to the same topic into batches. A batch is submitted to the pipeline when it reaches the maximum
+// size, or when the linger time has passed since its first event, whichever comes first. Every event in a batch shares the
+// batch's result. The scheduler only hands expired batches to the executor, since submitting one may wait for room in the
+// pipeline's queue and the scheduler may be shared.
+final class Batcher
+{
+    private static final class Batch
+    {
+        final List<Event<?>> _events = new ArrayList<>();
+        final CompletableFuture<PublishResult> _result = new CompletableFuture<>();
+    }
+
+    private final PublishPipeline _pipeline;
+    private final ScheduledExecutorService _scheduler;
+    private final Executor _executor;
+    private final long _lingerNanos;
+    private final int _maxSize;
+    // Open batches by topic, guarded by this.
+    private final Map<String, Batch> _open = new HashMap<>();
+
+    Batcher(
+        final PublishPipeline pipeline, final ScheduledExecutorService scheduler, final Executor executor, final Duration linger,
+        final int maxSize)
+    {
+        if (linger.isNegative()) throw new IllegalArgumentException("linger must not be negative: " + linger);
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        _pipeline = pipeline;
+        _scheduler = scheduler;
+        _executor = executor;
+        _lingerNanos = linger.toNanos();
+        _maxSize = maxSize;
+    }
+
+    CompletableFuture<PublishResult> add(final Event<?> event)
+    {
+        final String topic = event.getTopic();
+        final Batch batch;
+        final boolean opened;
+        final boolean full;
+        synchronized (this)
+        {
+            final Batch existing = _open.get(topic);
+            opened = existing == null;
+            batch = opened ? new Batch() : existing;
+            batch._events.add(event);
+            full = batch._events.size() >= _maxSize;
+            if (full) _open.remove(topic);
+            else if (opened) _open.put(topic, batch);
+        }
+
+        if (full) _submit(topic, batch);
+        else if (opened)
+            _scheduler.schedule(() -> _executor.execute(() -> _expire(topic, batch)), _lingerNanos, TimeUnit.NANOSECONDS);
+        return batch._result;
+    }
+
+    // Submits every open batch without waiting for its linger time.
+    void flush()
+    {
+        final Map<String, Batch> open;
+        synchronized (this)
+        {
+            open = new HashMap<>(_open);
+            _open.clear();
+        }
+        open.forEach(this::_submit);
+    }
+
+    private void _expire(final String topic, final Batch batch)
+    {
+        synchronized (this)
+        {
+            // The batch may already have been submitted because it filled up.
+            if (!_open.remove(topic, batch)) return;
+        }
+        _submit(topic, batch);
+    }
+
+    private void _submit(final String topic, final Batch batch)
+    {
+        _pipeline.submit(topic, batch._events).whenComplete((result, error) -> {
+            if (error != null) batch._result.completeExceptionally(error);
+            else batch._result.complete(result);
+        });
+    }
+}
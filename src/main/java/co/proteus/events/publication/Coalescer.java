@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Holds the latest throttled event for each key of a channel and sends it at a fixed interval, so that for events that carry
+// state the final value is still delivered. An event that is replaced before it is sent completes as SUPERSEDED. The scheduler
+// only hands each flush to the executor, since sending may wait for room in the pipeline's queue and the scheduler may be
+// shared.
+final class Coalescer<T>
+{
+    private static final class Pending<T>
+    {
+        final Event<T> _event;
+        final CompletableFuture<PublishResult> _result = new CompletableFuture<>();
+
+        Pending(final Event<T> event)
+        {
+            _event = event;
+        }
+    }
+
+    private static final Logger _logger = LogManager.getLogger(Coalescer.class);
+
+    // Used for events whose key is null, since ConcurrentHashMap does not allow null keys.
+    private static final Object NULL_KEY = new Object();
+
+    private final Function<? super T, ?> _keyExtractor;
+    private final Function<Event<T>, CompletableFuture<PublishResult>> _sink;
+    private final Map<Object, Pending<T>> _pending = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> _flushTask;
+
+    Coalescer(
+        final Function<? super T, ?> keyExtractor, final Function<Event<T>, CompletableFuture<PublishResult>> sink,
+        final ScheduledExecutorService scheduler, final Executor executor, final Duration interval)
+    {
+        if (interval.isZero() || interval.isNegative())
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        _keyExtractor = keyExtractor;
+        _sink = sink;
+        final long intervalNanos = interval.toNanos();
+        _flushTask = scheduler.scheduleAtFixedRate(() -> executor.execute(this::flush), intervalNanos, intervalNanos,
+            TimeUnit.NANOSECONDS);
+    }
+
+    CompletableFuture<PublishResult> defer(final Event<T> event)
+    {
+        final Pending<T> pending = new Pending<>(event);
+        _supersede(_pending.put(_key(event), pending));
+        return pending._result;
+    }
+
+    // Called when a newer event is sent right away, so the older pending event is not sent after it.
+    void supersede(final Event<T> event)
+    {
+        _supersede(_pending.remove(_key(event)));
+    }
+
+    void flush()
+    {
+        for (final Object key : _pending.keySet())
+        {
+            final Pending<T> pending = _pending.remove(key);
+            if (pending == null) continue;
+            try
+            {
+                _sink.apply(pending._event).whenComplete((result, error) -> {
+                    if (error != null) pending._result.completeExceptionally(error);
+                    else pending._result.complete(result);
+                });
+            }
+            catch (final RuntimeException e)
+            {
+                // Keep the scheduled task alive for the other keys and later intervals.
+                _logger.error("Error sending coalesced event " + pending._event, e);
+                pending._result.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Stops the scheduled flush and sends whatever is pending.
+    void close()
+    {
+        _flushTask.cancel(false);
+        flush();
+    }
+
+    int size()
+    {
+        return _pending.size();
+    }
+
+    private Object _key(final Event<T> event)
+    {
+        final Object key = _keyExtractor.apply(event.getPayload());
+        return key != null ? key : NULL_KEY;
+    }
+
+    private static void _supersede(final Pending<?> pending)
+    {
+        if (pending != null) pending._result.complete(new PublishResult(PublishStatus.SUPERSEDED));
+    }
+}
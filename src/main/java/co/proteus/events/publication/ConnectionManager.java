@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotConnectionStatus;
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMqttClient;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Owns the connection of a {@link Transport}, such as an {@link AWSIotMqttClient}, on behalf of the {@link PublisherService}
+ * and {@link SubscriptionService} that share it. The transport is connected once when the manager is {@link #start started};
+ * after that the connection status is checked periodically and, if the transport gives up reconnecting on its own, it is
+ * reconnected with jittered exponential backoff. Publishing and subscribing only read the current {@link State}, they never
+ * connect.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class ConnectionManager
+{
+    /**
+     * The state of the connection.
+     */
+    public enum State
+    {
+        /** Not connected and not currently trying to connect. */
+        DISCONNECTED,
+        /** Trying to connect, either because the manager is reconnecting or because the transport is. */
+        CONNECTING,
+        /** Connected to the broker. */
+        CONNECTED,
+        /** The manager has been {@link #close closed} and will not reconnect. */
+        CLOSED
+    }
+
+    /**
+     * Notified when the connection state changes.
+     */
+    @FunctionalInterface
+    public interface Listener
+    {
+        /**
+         * Called after the state changes. This is called on the manager's scheduler thread and should not block.
+         *
+         * @param state the new state
+         */
+        void stateChanged(final State state);
+    }
+
+    /** The delay before the first reconnect attempt. */
+    public static final Duration DEFAULT_BASE_DELAY = Duration.ofMillis(500);
+
+    /** The longest delay between reconnect attempts. */
+    public static final Duration DEFAULT_MAX_DELAY = Duration.ofSeconds(30);
+
+    /** How often the transport's connection status is checked. */
+    public static final Duration DEFAULT_CHECK_INTERVAL = Duration.ofSeconds(1);
+
+    private static final Logger _logger = LogManager.getLogger(ConnectionManager.class);
+
+    private final Transport _transport;
+    private final ScheduledExecutorService _scheduler;
+    private final boolean _ownsScheduler;
+    private final long _baseDelay;
+    private final long _maxDelay;
+    private final long _checkInterval;
+    private final List<Listener> _listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean _started = new AtomicBoolean();
+
+    private volatile State _state = State.DISCONNECTED;
+    private volatile CompletableFuture<Void> _connected = new CompletableFuture<>();
+    private boolean _reconnecting;
+    private int _attempts;
+
+    /**
+     * Create an instance of {@code ConnectionManager} with the default backoff that checks the connection on its own thread.
+     *
+     * @param client the IoT client
+     */
+    public ConnectionManager(final AWSIotMqttClient client)
+    {
+        this(new MqttTransport(client));
+    }
+
+    /**
+     * Create an instance of {@code ConnectionManager} for a transport with the default backoff that checks the connection on
+     * its own thread.
+     *
+     * @param transport the transport
+     */
+    public ConnectionManager(final Transport transport)
+    {
+        this(transport, Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("event-connection-%d").build()), true,
+            DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_CHECK_INTERVAL);
+    }
+
+    /**
+     * Create an instance of {@code ConnectionManager}.
+     *
+     * @param client the IoT client
+     * @param scheduler the scheduler used to connect and check the connection. Connecting blocks a scheduler thread until the
+     * client's connection timeout.
+     * @param baseDelay the delay before the first reconnect attempt, doubled for each failed attempt
+     * @param maxDelay the longest delay between reconnect attempts
+     * @param checkInterval how often to check the client's connection status
+     */
+    public ConnectionManager(
+        final AWSIotMqttClient client, final ScheduledExecutorService scheduler, final Duration baseDelay,
+        final Duration maxDelay, final Duration checkInterval)
+    {
+        this(new MqttTransport(client), scheduler, baseDelay, maxDelay, checkInterval);
+    }
+
+    /**
+     * Create an instance of {@code ConnectionManager} for a transport.
+     *
+     * @param transport the transport
+     * @param scheduler the scheduler used to connect and check the connection. Connecting blocks a scheduler thread until the
+     * transport connects or fails.
+     * @param baseDelay the delay before the first reconnect attempt, doubled for each failed attempt
+     * @param maxDelay the longest delay between reconnect attempts
+     * @param checkInterval how often to check the transport's connection status
+     */
+    public ConnectionManager(
+        final Transport transport, final ScheduledExecutorService scheduler, final Duration baseDelay,
+        final Duration maxDelay, final Duration checkInterval)
+    {
+        this(transport, scheduler, false, baseDelay, maxDelay, checkInterval);
+    }
+
+    private ConnectionManager(
+        final Transport transport, final ScheduledExecutorService scheduler, final boolean ownsScheduler,
+        final Duration baseDelay, final Duration maxDelay, final Duration checkInterval)
+    {
+        _transport = transport;
+        _scheduler = scheduler;
+        _ownsScheduler = ownsScheduler;
+        _baseDelay = Math.max(1L, baseDelay.toMillis());
+        _maxDelay = Math.max(_baseDelay, maxDelay.toMillis());
+        _checkInterval = Math.max(1L, checkInterval.toMillis());
+    }
+
+    /**
+     * Connect the transport and start monitoring the connection. Calling this more than once has no effect.
+     */
+    public void start()
+    {
+        if (!_started.compareAndSet(false, true)) return;
+        _setState(State.CONNECTING);
+        synchronized (this)
+        {
+            _reconnecting = true;
+        }
+        _scheduler.execute(this::_attempt);
+        _scheduler.scheduleWithFixedDelay(this::_check, _checkInterval, _checkInterval, MILLISECONDS);
+    }
+
+    /**
+     * Disconnect the transport and stop monitoring the connection.
+     */
+    public void close()
+    {
+        _setState(State.CLOSED);
+        if (_ownsScheduler) _scheduler.shutdownNow();
+        try
+        {
+            _transport.disconnect();
+        }
+        catch (final AWSIotException e)
+        {
+            _logger.warn("Error disconnecting", e);
+        }
+    }
+
+    /**
+     * Get the current state of the connection.
+     *
+     * @return the state
+     */
+    public State getState()
+    {
+        return _state;
+    }
+
+    /**
+     * Check if the transport is connected.
+     *
+     * @return true if the transport is connected
+     */
+    public boolean isConnected()
+    {
+        return _state == State.CONNECTED;
+    }
+
+    /**
+     * Get a future that completes the next time the transport is connected, or immediately if it is connected now.
+     *
+     * @return the future
+     */
+    public CompletableFuture<Void> whenConnected()
+    {
+        return _connected;
+    }
+
+    /**
+     * Add a listener to be notified of state changes.
+     *
+     * @param listener the listener
+     */
+    public void addListener(final Listener listener)
+    {
+        _listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(final Listener listener)
+    {
+        _listeners.remove(listener);
+    }
+
+    Transport getTransport()
+    {
+        return _transport;
+    }
+
+    // Called when an operation on the transport fails, so a dropped connection is noticed before the next periodic check.
+    void checkConnection()
+    {
+        if (_state == State.CLOSED) return;
+        try
+        {
+            _scheduler.execute(this::_check);
+        }
+        catch (final RuntimeException e)
+        {
+            _logger.debug("Unable to schedule connection check", e);
+        }
+    }
+
+    private void _check()
+    {
+        if (_state == State.CLOSED) return;
+        final AWSIotConnectionStatus status = _transport.getConnectionStatus();
+        switch (status)
+        {
+            case CONNECTED:
+                _setState(State.CONNECTED);
+                break;
+
+            case RECONNECTING:
+                _setState(State.CONNECTING);
+                break;
+
+            case DISCONNECTED:
+                synchronized (this)
+                {
+                    if (_reconnecting) return;
+                    _reconnecting = true;
+                }
+                _setState(State.CONNECTING);
+                _scheduleAttempt();
+                break;
+
+            default:
+                throw new AssertionError("Unknown connection status " + status);
+        }
+    }
+
+    private void _attempt()
+    {
+        if (_state == State.CLOSED) return;
+        try
+        {
+            _transport.connect();
+            synchronized (this)
+            {
+                _reconnecting = false;
+                _attempts = 0;
+            }
+            _setState(State.CONNECTED);
+        }
+        catch (final AWSIotException | RuntimeException e)
+        {
+            _logger.warn("Error connecting to " + _transport.getEndpoint(), e);
+            _scheduleAttempt();
+        }
+    }
+
+    private void _scheduleAttempt()
+    {
+        final long delay;
+        synchronized (this)
+        {
+            final long ceiling = Math.min(_maxDelay, _baseDelay << Math.min(_attempts, 30));
+            _attempts++;
+            // Use half the backoff plus a random jitter so clients that dropped together do not reconnect together.
+            delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        }
+        _scheduler.schedule(this::_attempt, delay, MILLISECONDS);
+    }
+
+    private void _setState(final State state)
+    {
+        final CompletableFuture<Void> connected;
+        synchronized (this)
+        {
+            final State previous = _state;
+            if (previous == state || previous == State.CLOSED) return;
+            _state = state;
+            connected = _connected;
+            if (previous == State.CONNECTED) _connected = new CompletableFuture<>();
+        }
+        if (state == State.CONNECTED) connected.complete(null);
+        _logger.info("Connection to " + _transport.getEndpoint() + " is " + state);
+        for (final Listener listener : _listeners)
+        {
+            try
+            {
+                listener.stateChanged(state);
+            }
+            catch (final RuntimeException e)
+            {
+                _logger.error("Error notifying " + listener + " of " + state, e);
+            }
+        }
+    }
+}
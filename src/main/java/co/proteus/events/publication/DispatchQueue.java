@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded queue of tasks that runs at most one task at a time on the executor, so tasks run in the order they were offered
+// even when the executor is a shared pool.
+final class DispatchQueue
+{
+    private static final Logger _logger = LogManager.getLogger(DispatchQueue.class);
+
+    private final Executor _executor;
+    private final OverflowPolicy _overflowPolicy;
+    private final BlockingDeque<Runnable> _queue;
+    private final AtomicBoolean _draining = new AtomicBoolean();
+    private final AtomicLong _dropped = new AtomicLong();
+
+    DispatchQueue(final Executor executor, final int capacity, final OverflowPolicy overflowPolicy)
+    {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        _executor = executor;
+        _overflowPolicy = overflowPolicy;
+        _queue = new LinkedBlockingDeque<>(capacity);
+    }
+
+    // Returns false if the task was dropped.
+    boolean offer(final Runnable task)
+    {
+        final boolean queued = _enqueue(task);
+        if (queued) _scheduleDrain();
+        else _dropped.incrementAndGet();
+        return queued;
+    }
+
+    int size()
+    {
+        return _queue.size();
+    }
+
+    long getDroppedCount()
+    {
+        return _dropped.get();
+    }
+
+    private boolean _enqueue(final Runnable task)
+    {
+        switch (_overflowPolicy)
+        {
+            case BLOCK:
+                try
+                {
+                    _queue.putLast(task);
+                    return true;
+                }
+                catch (final InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+
+            case FAIL_FAST:
+                return _queue.offerLast(task);
+
+            case DROP_OLDEST:
+                while (!_queue.offerLast(task))
+                {
+                    if (_queue.pollFirst() != null) _dropped.incrementAndGet();
+                }
+                return true;
+
+            default:
+                throw new AssertionError("Unknown overflow policy " + _overflowPolicy);
+        }
+    }
+
+    private void _scheduleDrain()
+    {
+        if (!_draining.compareAndSet(false, true)) return;
+        try
+        {
+            _executor.execute(this::_drain);
+        }
+        catch (final RejectedExecutionException e)
+        {
+            _draining.set(false);
+            _logger.error("Dispatch executor rejected the drain task, dropping " + _queue.size() + " queued events", e);
+            while (_queue.pollFirst() != null)
+                _dropped.incrementAndGet();
+        }
+    }
+
+    private void _drain()
+    {
+        while (true)
+        {
+            final Runnable task = _queue.pollFirst();
+            if (task != null)
+            {
+                try
+                {
+                    task.run();
+                }
+                catch (final RuntimeException e)
+                {
+                    _logger.error("Error dispatching event", e);
+                }
+                continue;
+            }
+
+            // Another task may have been offered after the poll but before the flag was cleared.
+            _draining.set(false);
+            if (_queue.isEmpty() || !_draining.compareAndSet(false, true)) return;
+        }
+    }
+}
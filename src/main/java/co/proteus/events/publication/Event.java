@@ -11,6 +11,9 @@
 
 package co.proteus.events.publication;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 /**
  * A message to send through the {@link PublisherService}.
  *
@@ -20,9 +23,31 @@ package co.proteus.events.publication;
  */
 public final class Event<T>
 {
+    /**
+     * Binds the payload of an event that was received before it is needed, such as an event created by an unmarshaller that
+     * only decodes the payload when a subscriber asks for it.
+     *
+     * @param <T> the payload type
+     */
+    @FunctionalInterface
+    public interface PayloadBinder<T>
+    {
+        /**
+         * Bind the payload.
+         *
+         * @return the payload
+         *
+         * @throws IOException thrown if the payload cannot be decoded
+         */
+        T bind() throws IOException;
+    }
+
     private final String _topic;
     private final String _eventType;
-    private final T _payload;
+    private final String _origin;
+    private volatile T _payload;
+    // Cleared once the payload is bound, after the payload is set, so a thread that sees it cleared also sees the payload.
+    private volatile PayloadBinder<? extends T> _binder;
 
     /**
      * @param topic the topic to send the event to
@@ -30,10 +55,48 @@ public final class Event<T>
      * @param payload the data to send
      */
     public Event(final String topic, final String eventType, T payload)
+    {
+        this(topic, eventType, null, payload, null);
+    }
+
+    private Event(
+        final String topic, final String eventType, final String origin, final T payload, final PayloadBinder<? extends T> binder)
     {
         _topic = topic;
         _eventType = eventType;
+        _origin = origin;
         _payload = payload;
+        _binder = binder;
+    }
+
+    /**
+     * Create an event whose payload is bound the first time {@link #getPayload()} is called. The bound payload is kept and
+     * returned by later calls, and the binder is released.
+     *
+     * @param topic the topic the event was sent to
+     * @param eventType the event type
+     * @param binder binds the payload
+     * @param <T> the payload type
+     *
+     * @return the event
+     */
+    public static <T> Event<T> lazy(final String topic, final String eventType, final PayloadBinder<? extends T> binder)
+    {
+        return new Event<>(topic, eventType, null, null, binder);
+    }
+
+    /**
+     * Create a copy of this event that is marked with the identifier of the publisher that sends it. The copy has the same
+     * payload; if this event is {@link #lazy lazy} and its payload has not been bound, the copy binds it separately.
+     *
+     * @param origin the identifier of the publisher
+     *
+     * @return the copy
+     */
+    public Event<T> withOrigin(final String origin)
+    {
+        final PayloadBinder<? extends T> binder = _binder;
+        return new Event<>(_topic, _eventType, origin, binder == null ? _payload : null, binder);
     }
 
     /**
@@ -57,13 +120,42 @@ public final class Event<T>
     }
 
     /**
-     * Get the data to send to the topic.
+     * Get the identifier of the publisher that sent the event, if the event is marked with one. A {@link PublisherService} marks
+     * the events that it also {@link PublisherService#enableLocalDelivery delivers locally}, so the copies that the broker sends
+     * back can be recognized.
+     *
+     * @return the identifier, or null if the event is not marked
+     */
+    public String getOrigin()
+    {
+        return _origin;
+    }
+
+    /**
+     * Get the data to send to the topic. The payload of a {@link #lazy lazy} event is bound by the first call.
      *
      * @return the payload
+     *
+     * @throws UncheckedIOException thrown if the payload of a lazy event cannot be decoded
      */
     public T getPayload()
     {
-        return _payload;
+        if (_binder == null) return _payload;
+        synchronized (this)
+        {
+            final PayloadBinder<? extends T> binder = _binder;
+            if (binder == null) return _payload;
+            try
+            {
+                _payload = binder.bind();
+                _binder = null;
+                return _payload;
+            }
+            catch (final IOException e)
+            {
+                throw new UncheckedIOException("Error binding the payload of " + this, e);
+            }
+        }
     }
 
     @Override
@@ -72,7 +164,7 @@ public final class Event<T>
         return getClass().getSimpleName() + '{' +
                "_topic='" + _topic + '\'' +
                ", _eventType='" + _eventType + '\'' +
-               ", _payload=" + _payload +
+               ", _payload=" + (_binder == null ? _payload : "(not bound)") +
                '}';
     }
 }
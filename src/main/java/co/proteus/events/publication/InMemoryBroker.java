@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotConnectionStatus;
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotTopic;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A message broker within the JVM, for exchanging events between components of one application and for load tests and
+ * benchmarks that should not depend on AWS. Each {@link #createTransport() transport} is like a separate MQTT client: it has
+ * its own subscriptions and its own thread that delivers messages to them. Messages are passed to subscribers as they were
+ * published, without copying.
+ *
+ * <p>Publishing never blocks or locks. A message is added to the inbox of each connected transport with a matching
+ * subscription, a lock-free ring buffer, and the publish succeeds right away, as with QoS 0. If a transport's inbox is full
+ * the message is dropped for that transport and counted in {@link #getDroppedCount()}.</p>
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class InMemoryBroker
+{
+    /** The number of messages that can be waiting to be delivered by each transport. */
+    public static final int DEFAULT_INBOX_CAPACITY = 8192;
+
+    // How many times an idle delivery thread checks its inbox again before parking.
+    private static final int SPINS = 100;
+
+    private static final Logger _logger = LogManager.getLogger(InMemoryBroker.class);
+
+    private final String _name;
+    private final int _inboxCapacity;
+    private final List<LocalTransport> _connected = new CopyOnWriteArrayList<>();
+    private final AtomicInteger _transports = new AtomicInteger();
+    private final AtomicLong _dropped = new AtomicLong();
+
+    /**
+     * Create an instance of {@code InMemoryBroker} with the {@link #DEFAULT_INBOX_CAPACITY default inbox capacity}.
+     */
+    public InMemoryBroker()
+    {
+        this("in-memory", DEFAULT_INBOX_CAPACITY);
+    }
+
+    /**
+     * Create an instance of {@code InMemoryBroker}.
+     *
+     * @param name the name of the broker, used in log messages and thread names
+     * @param inboxCapacity the maximum number of messages waiting to be delivered by each transport, rounded up to a power of
+     * two
+     */
+    public InMemoryBroker(final String name, final int inboxCapacity)
+    {
+        if (inboxCapacity < 1) throw new IllegalArgumentException("inboxCapacity must be positive: " + inboxCapacity);
+        _name = name;
+        _inboxCapacity = inboxCapacity;
+    }
+
+    /**
+     * Create a transport connected to this broker, to be given to a {@link ConnectionManager}.
+     *
+     * @return the transport
+     */
+    public Transport createTransport()
+    {
+        return new LocalTransport(_name + '-' + _transports.incrementAndGet());
+    }
+
+    /**
+     * Get the number of messages that were not delivered to a transport because its inbox was full.
+     *
+     * @return the number of dropped messages
+     */
+    public long getDroppedCount()
+    {
+        return _dropped.get();
+    }
+
+    private void _publish(final AWSIotMessage message)
+    {
+        for (final LocalTransport transport : _connected)
+        {
+            if (!transport.isSubscribed(message.getTopic())) continue;
+            if (transport._inbox.offer(message))
+            {
+                transport.wake();
+                continue;
+            }
+            _dropped.incrementAndGet();
+            _logger.warn("Inbox of " + transport._name + " is full, dropped message for " + message.getTopic());
+        }
+        message.onSuccess();
+    }
+
+    // A client of the broker. Messages are delivered to subscriptions by a thread that runs while the transport is connected.
+    private final class LocalTransport implements Transport
+    {
+        final String _name;
+        final RingBuffer<AWSIotMessage> _inbox = new RingBuffer<>(_inboxCapacity);
+        private final Map<String, AWSIotTopic> _topics = new ConcurrentHashMap<>();
+        private volatile Thread _deliverer;
+        // Set by the delivery thread before it parks, so publishers know to unpark it.
+        private volatile boolean _parked;
+
+        LocalTransport(final String name)
+        {
+            _name = name;
+        }
+
+        @Override
+        public synchronized void connect()
+        {
+            if (_deliverer != null) return;
+            final Thread deliverer = new Thread(this::_deliver, "event-" + _name);
+            deliverer.setDaemon(true);
+            _deliverer = deliverer;
+            deliverer.start();
+            _connected.add(this);
+        }
+
+        @Override
+        public synchronized void disconnect()
+        {
+            final Thread deliverer = _deliverer;
+            if (deliverer == null) return;
+            _connected.remove(this);
+            _deliverer = null;
+            LockSupport.unpark(deliverer);
+        }
+
+        @Override
+        public AWSIotConnectionStatus getConnectionStatus()
+        {
+            return _deliverer != null ? AWSIotConnectionStatus.CONNECTED : AWSIotConnectionStatus.DISCONNECTED;
+        }
+
+        @Override
+        public String getEndpoint()
+        {
+            return _name;
+        }
+
+        @Override
+        public void publish(final AWSIotMessage message) throws AWSIotException
+        {
+            if (_deliverer == null) throw new AWSIotException("Not connected to " + _name);
+            _publish(message);
+        }
+
+        @Override
+        public void subscribe(final AWSIotTopic topic) throws AWSIotException
+        {
+            if (_deliverer == null) throw new AWSIotException("Not connected to " + _name);
+            TopicFilter.validate(topic.getTopic());
+            _topics.put(topic.getTopic(), topic);
+            topic.onSuccess();
+        }
+
+        @Override
+        public void unsubscribe(final AWSIotTopic topic)
+        {
+            _topics.remove(topic.getTopic(), topic);
+        }
+
+        boolean isSubscribed(final String topic)
+        {
+            if (_topics.containsKey(topic)) return true;
+            for (final String filter : _topics.keySet())
+            {
+                if (TopicFilter.covers(filter, topic)) return true;
+            }
+            return false;
+        }
+
+        void wake()
+        {
+            if (_parked) LockSupport.unpark(_deliverer);
+        }
+
+        private void _deliver()
+        {
+            final Thread self = Thread.currentThread();
+            int idle = 0;
+            while (_deliverer == self)
+            {
+                final AWSIotMessage message = _inbox.poll();
+                if (message != null)
+                {
+                    idle = 0;
+                    _dispatch(message);
+                }
+                else if (++idle < SPINS)
+                {
+                    Thread.yield();
+                }
+                else
+                {
+                    _parked = true;
+                    // Check again after announcing the park, so a message published in between is not missed.
+                    if (_inbox.size() == 0 && _deliverer == self) LockSupport.park(this);
+                    _parked = false;
+                }
+            }
+        }
+
+        private void _dispatch(final AWSIotMessage message)
+        {
+            // Like an MQTT client, every matching subscription receives the message.
+            for (final AWSIotTopic topic : _topics.values())
+            {
+                if (!TopicFilter.covers(topic.getTopic(), message.getTopic())) continue;
+                try
+                {
+                    topic.onMessage(message);
+                }
+                catch (final RuntimeException e)
+                {
+                    _logger.error("Error delivering message for " + message.getTopic() + " to " + topic.getTopic(), e);
+                }
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + '{' +
+                   "_name='" + _name + '\'' +
+                   '}';
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+
+import co.proteus.events.filtering.MessageFilter;
+import co.proteus.events.marshalling.EventMarshaller;
+import co.proteus.events.marshalling.EventUnmarshaller;
+import co.proteus.events.marshalling.MarshalException;
+import co.proteus.events.marshalling.UnmarshalException;
+
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// The message for an event that is delivered locally. It is only seen by message filters, so the event is marshalled the first
+// time a filter reads the payload rather than when it is published. The marshalled message is then split by the subscribing
+// service's unmarshaller, so filters see the same payload they would for the message from the broker, for example decompressed.
+// Used by the thread that publishes the event.
+final class LocalMessage extends AWSIotMessage
+{
+    // Thrown by getPayload when the event cannot be marshalled or unmarshalled, which the AWSIotMessage methods cannot declare.
+    static final class MarshalFailure extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        MarshalFailure(final Exception cause)
+        {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    private final Event<?> _event;
+    private final EventMarshaller _marshaller;
+    private final EventUnmarshaller _unmarshaller;
+
+    LocalMessage(final Event<?> event, final EventMarshaller marshaller, final EventUnmarshaller unmarshaller)
+    {
+        super(event.getTopic(), QOS0);
+        _event = event;
+        _marshaller = marshaller;
+        _unmarshaller = unmarshaller;
+    }
+
+    @Override
+    public byte[] getPayload()
+    {
+        if (payload == null)
+        {
+            try
+            {
+                final MessageFilter.Parameters marshalled = new MessageFilter.Parameters(_marshaller.marshall(_event));
+                payload = _unmarshaller.split(marshalled).get(0).getMessage().getPayload();
+            }
+            catch (final MarshalException | UnmarshalException e)
+            {
+                throw new MarshalFailure(e);
+            }
+        }
+        return payload;
+    }
+
+    @Override
+    public String getStringPayload()
+    {
+        return new String(getPayload(), UTF_8);
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '{' +
+               "_event=" + _event +
+               '}';
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotConnectionStatus;
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotMqttClient;
+import com.amazonaws.services.iot.client.AWSIotTopic;
+
+// Transport that sends messages to AWS IoT with an MQTT client. Requests time out after the client's server ack timeout.
+final class MqttTransport implements Transport
+{
+    private final AWSIotMqttClient _client;
+
+    MqttTransport(final AWSIotMqttClient client)
+    {
+        _client = client;
+    }
+
+    @Override
+    public void connect() throws AWSIotException
+    {
+        _client.connect();
+    }
+
+    @Override
+    public void disconnect() throws AWSIotException
+    {
+        _client.disconnect();
+    }
+
+    @Override
+    public AWSIotConnectionStatus getConnectionStatus()
+    {
+        return _client.getConnectionStatus();
+    }
+
+    @Override
+    public String getEndpoint()
+    {
+        return _client.getClientEndpoint();
+    }
+
+    @Override
+    public void publish(final AWSIotMessage message) throws AWSIotException
+    {
+        _client.publish(message, _client.getServerAckTimeout());
+    }
+
+    @Override
+    public void subscribe(final AWSIotTopic topic) throws AWSIotException
+    {
+        _client.subscribe(topic, _client.getServerAckTimeout());
+    }
+
+    @Override
+    public void unsubscribe(final AWSIotTopic topic) throws AWSIotException
+    {
+        _client.unsubscribe(topic, _client.getServerAckTimeout());
+    }
+}
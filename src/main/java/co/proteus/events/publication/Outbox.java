@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A durable, append-only log of messages that a {@link PublisherService} could not send. While the connection is down, or when
+ * the transport fails to send a message, the marshalled message is stored in the outbox instead of failing the publish, and
+ * stored messages are sent in order, before any newer events, once the connection is back.
+ *
+ * <p>The log is a series of fixed-size segment files in a directory, which are memory-mapped so that storing a message is a
+ * copy into the page cache rather than a write to disk, and so that stored messages do not take up heap. Each stored message
+ * is checksummed, and is marked as sent in place once the transport accepts it. When the outbox is opened it recovers the
+ * messages that were not sent from the segment files, ignoring a message that was only partly written when the process
+ * stopped. Stored messages survive the process exiting or crashing right away, since they are in the page cache. They survive
+ * the operating system crashing once the operating system has written them back, or once they have been {@link #flush flushed},
+ * which happens when the outbox is closed. Flushing waits for the disk, so it is left to the application, which can flush
+ * periodically if it needs to.</p>
+ *
+ * <p>A new segment is started when a message does not fit in the current one, and a segment is deleted once all of its
+ * messages have been sent. If starting a segment would make the outbox larger than its maximum size, the oldest segment is
+ * deleted along with any messages in it that have not been sent, which are counted as {@link #getDroppedCount dropped}.</p>
+ *
+ * <p>Messages are sent at least once: a message that the transport accepts but then reports as failed is stored again, after
+ * any messages stored in the meantime. An outbox must only be used by one {@code PublisherService}, and a directory by one
+ * outbox.</p>
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class Outbox implements Closeable
+{
+    /** The size of each segment file, in bytes. A message must fit in one segment. */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /** The largest total size of the segment files, in bytes. */
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+
+    private static final Logger _logger = LogManager.getLogger(Outbox.class);
+
+    private static final String SUFFIX = ".outbox";
+    // Each record is the length of its body, which is negated once the message is sent, the CRC-32 of the body, then the body:
+    // the QoS level, the length of the topic, the topic in UTF-8, and the payload. A length of zero marks the end of the records.
+    private static final int HEADER = 8;
+    private static final int SMALLEST_SEGMENT = 64;
+
+    private static final class Segment
+    {
+        final long _sequence;
+        final Path _path;
+        final MappedByteBuffer _buffer;
+        // Where the next record is written.
+        int _end;
+
+        Segment(final long sequence, final Path path, final MappedByteBuffer buffer)
+        {
+            _sequence = sequence;
+            _path = path;
+            _buffer = buffer;
+        }
+    }
+
+    // A message returned by peek, and where it is stored, so that marking it as sent does nothing if its segment was dropped to
+    // make room while it was being sent.
+    static final class Stored
+    {
+        final AWSIotMessage _message;
+        final long _sequence;
+        final int _position;
+
+        Stored(final AWSIotMessage message, final long sequence, final int position)
+        {
+            _message = message;
+            _sequence = sequence;
+            _position = position;
+        }
+    }
+
+    private final Path _directory;
+    private final int _segmentSize;
+    private final int _maxSegments;
+    // Oldest first. Messages are read from the first segment and written to the last.
+    private final Deque<Segment> _segments = new ArrayDeque<>();
+    // The position of the next record to read in the first segment.
+    private int _position;
+    private int _size;
+    private long _dropped;
+    private boolean _closed;
+
+    /**
+     * Open an outbox in a directory with the {@link #DEFAULT_SEGMENT_SIZE default segment size} and
+     * {@link #DEFAULT_MAX_SIZE maximum size}, recovering any messages that were stored in it and not sent.
+     *
+     * @param directory the directory, which is created if it does not exist
+     *
+     * @throws IOException thrown if the segment files cannot be created or read
+     */
+    public Outbox(final Path directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Open an outbox in a directory, recovering any messages that were stored in it and not sent. Existing segments keep the
+     * size they were created with.
+     *
+     * @param directory the directory, which is created if it does not exist
+     * @param segmentSize the size of each segment file, in bytes
+     * @param maxSize the largest total size of the segment files, in bytes
+     *
+     * @throws IOException thrown if the segment files cannot be created or read
+     * @throws IllegalArgumentException thrown if {@code maxSize} is less than {@code segmentSize}
+     */
+    public Outbox(final Path directory, final int segmentSize, final long maxSize) throws IOException
+    {
+        if (segmentSize < SMALLEST_SEGMENT)
+            throw new IllegalArgumentException("segmentSize must be at least " + SMALLEST_SEGMENT + ": " + segmentSize);
+        if (maxSize < segmentSize)
+            throw new IllegalArgumentException("maxSize must be at least segmentSize: " + maxSize);
+        _directory = Files.createDirectories(directory);
+        _segmentSize = segmentSize;
+        _maxSegments = (int) Math.min(Integer.MAX_VALUE, maxSize / segmentSize);
+        _recover();
+    }
+
+    /**
+     * Get the number of stored messages that have not been sent. A closed outbox has none, since it can no longer send them.
+     *
+     * @return the number of messages
+     */
+    public synchronized int size()
+    {
+        return _closed ? 0 : _size;
+    }
+
+    /**
+     * Check if every stored message has been sent, or the outbox is closed.
+     *
+     * @return true if there are no messages waiting to be sent
+     */
+    public synchronized boolean isEmpty()
+    {
+        return _closed || _size == 0;
+    }
+
+    /**
+     * Get the number of messages that were deleted without being sent because the outbox reached its maximum size.
+     *
+     * @return the number of dropped messages
+     */
+    public synchronized long getDroppedCount()
+    {
+        return _dropped;
+    }
+
+    /**
+     * Write the stored messages to disk, so that they survive the operating system crashing.
+     */
+    public synchronized void flush()
+    {
+        for (final Segment segment : _segments)
+            segment._buffer.force();
+    }
+
+    /**
+     * Flush the stored messages and close the outbox. Messages that have not been sent are recovered when the directory is
+     * opened again.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (_closed) return;
+        flush();
+        _closed = true;
+        _segments.clear();
+    }
+
+    // Stores a message after the other stored messages.
+    synchronized void append(final AWSIotMessage message) throws IOException
+    {
+        if (_closed) throw new IOException("Outbox is closed");
+        final byte[] topic = message.getTopic().getBytes(UTF_8);
+        final byte[] payload = message.getPayload();
+        final int length = 3 + topic.length + payload.length;
+        Segment segment = _segments.getLast();
+        if (segment._end + HEADER + length > segment._buffer.capacity())
+        {
+            if (HEADER + length > _segmentSize)
+                throw new IOException("Message of " + payload.length + " bytes does not fit in an outbox segment");
+            segment = _roll(segment._sequence + 1);
+        }
+
+        final ByteBuffer body = segment._buffer.duplicate();
+        body.position(segment._end + HEADER);
+        body.put((byte) message.getQos().getValue());
+        body.putShort((short) topic.length);
+        body.put(topic);
+        body.put(payload);
+        final CRC32 crc = new CRC32();
+        final ByteBuffer written = segment._buffer.duplicate();
+        written.position(segment._end + HEADER);
+        written.limit(segment._end + HEADER + length);
+        crc.update(written);
+        segment._buffer.putInt(segment._end + 4, (int) crc.getValue());
+        // The length is written last, so a record that was not finished when the process stopped reads as the end.
+        segment._buffer.putInt(segment._end, length);
+        segment._end += HEADER + length;
+        _size++;
+    }
+
+    // Returns the oldest message that has not been sent, or null if there is none.
+    synchronized Stored peek()
+    {
+        if (_closed) return null;
+        while (true)
+        {
+            final Segment first = _segments.getFirst();
+            final int length = _recordLength(first, _position);
+            if (length > 0) return new Stored(_read(first._buffer, _position, length), first._sequence, _position);
+            if (length < 0)
+            {
+                _position += HEADER - length;
+                continue;
+            }
+            if (_segments.size() == 1) return null;
+            _delete(_segments.removeFirst());
+            _position = 0;
+        }
+    }
+
+    // Marks a message returned by peek as sent, unless it has since been dropped or the outbox closed. Messages can only be
+    // marked in order, so anything else but the oldest message is ignored.
+    synchronized void remove(final Stored stored)
+    {
+        if (_closed) return;
+        final Segment first = _segments.getFirst();
+        if (first._sequence != stored._sequence || _position != stored._position) return;
+        final int length = _recordLength(first, _position);
+        if (length <= 0) return;
+        first._buffer.putInt(_position, -length);
+        _position += HEADER + length;
+        _size--;
+    }
+
+    private void _recover() throws IOException
+    {
+        final List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(_directory, "*" + SUFFIX))
+        {
+            files.forEach(paths::add);
+        }
+        // The names are zero-padded sequence numbers, so they sort in the order the segments were created.
+        Collections.sort(paths);
+        for (final Path path : paths)
+        {
+            final String name = path.getFileName().toString();
+            final Segment segment = new Segment(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), path,
+                _map(path, Files.size(path)));
+            int position = 0;
+            int length;
+            while ((length = _recordLength(segment, position)) != 0)
+            {
+                if (length > 0) _size++;
+                position += HEADER + Math.abs(length);
+            }
+            segment._end = position;
+            _segments.addLast(segment);
+        }
+        if (_segments.isEmpty())
+        {
+            _roll(0);
+            return;
+        }
+
+        // Clear whatever follows the last record, such as part of a record that was being written, so it cannot be mistaken for
+        // the records that will be written after it.
+        final Segment last = _segments.getLast();
+        for (int i = last._end; i < last._buffer.capacity(); i++)
+            last._buffer.put(i, (byte) 0);
+        if (_size > 0) _logger.info("Recovered " + _size + " unsent messages from " + _directory);
+    }
+
+    // Returns the length of the record at position, negative if it has been sent, or zero if there is no valid record there.
+    private static int _recordLength(final Segment segment, final int position)
+    {
+        final MappedByteBuffer buffer = segment._buffer;
+        if (position > segment._buffer.capacity() - HEADER) return 0;
+        final int length = buffer.getInt(position);
+        if (length == 0 || Math.abs((long) length) > buffer.capacity() - position - HEADER) return 0;
+        if (length < 0) return length;
+        final CRC32 crc = new CRC32();
+        final ByteBuffer body = buffer.duplicate();
+        body.position(position + HEADER);
+        body.limit(position + HEADER + length);
+        crc.update(body);
+        return (int) crc.getValue() == buffer.getInt(position + 4) ? length : 0;
+    }
+
+    private static AWSIotMessage _read(final MappedByteBuffer buffer, final int position, final int length)
+    {
+        final ByteBuffer body = buffer.duplicate();
+        body.position(position + HEADER);
+        final AWSIotQos qos = AWSIotQos.valueOf(body.get());
+        final byte[] topic = new byte[body.getShort() & 0xFFFF];
+        body.get(topic);
+        final byte[] payload = new byte[length - 3 - topic.length];
+        body.get(payload);
+        return new AWSIotMessage(new String(topic, UTF_8), qos, payload);
+    }
+
+    private Segment _roll(final long sequence) throws IOException
+    {
+        while (_segments.size() >= _maxSegments)
+            _drop(_segments.removeFirst());
+        final Path path = _directory.resolve(String.format("%020d%s", sequence, SUFFIX));
+        final Segment segment = new Segment(sequence, path, _map(path, _segmentSize));
+        _segments.addLast(segment);
+        return segment;
+    }
+
+    // Deletes the oldest segment, and the messages in it that have not been sent, to make room for a new one.
+    private void _drop(final Segment segment)
+    {
+        int dropped = 0;
+        int length;
+        for (int position = _position; (length = _recordLength(segment, position)) != 0; position += HEADER + Math.abs(length))
+        {
+            if (length > 0) dropped++;
+        }
+        _position = 0;
+        _size -= dropped;
+        _dropped += dropped;
+        if (dropped > 0) _logger.warn("Outbox " + _directory + " is full, dropped " + dropped + " unsent messages");
+        _delete(segment);
+    }
+
+    private static void _delete(final Segment segment)
+    {
+        try
+        {
+            Files.deleteIfExists(segment._path);
+        }
+        catch (final IOException e)
+        {
+            _logger.warn("Error deleting outbox segment " + segment._path, e);
+        }
+    }
+
+    private static MappedByteBuffer _map(final Path path, final long size) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, READ, WRITE, CREATE))
+        {
+            // The mapping stays valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '{' +
+               "_directory=" + _directory +
+               '}';
+    }
+}
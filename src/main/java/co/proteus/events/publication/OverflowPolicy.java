@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+/**
+ * What to do when a bounded queue is full.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public enum OverflowPolicy
+{
+    /** Block the caller until there is room in the queue. */
+    BLOCK,
+    /** Reject the new event immediately. */
+    FAIL_FAST,
+    /** Discard the oldest queued event to make room for the new one. */
+    DROP_OLDEST
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.amazonaws.services.iot.client.AWSIotTimeoutException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import co.proteus.events.marshalling.EventMarshaller;
+import co.proteus.events.marshalling.MarshalException;
+import co.proteus.events.metrics.EventMetrics;
+
+// Bounded queues of messages waiting to be sent, one for each priority, drained by a single task on the executor so messages of
+// the same priority are sent in the order they were queued. Each message carries one event, or a batch of events for the same
+// topic. The futures complete when the client reports the outcome of the publish. While the connection is down messages are held
+// in the queue, and draining resumes when the connection manager reports that it is connected again. With an outbox, messages are
+// stored in it instead of being held in the queue or failed, and stored messages are sent before the queues.
+final class PublishPipeline
+{
+    // The number of messages in a row that higher priority queues may send while a lower priority queue is waiting. The lower
+    // queue then sends one, so bulk traffic is slowed down by urgent traffic rather than starved.
+    static final int LANE_BUDGET = 16;
+
+    private static final PublishPriority[] PRIORITIES = PublishPriority.values();
+
+    private static final class PendingMessage
+    {
+        final String _topic;
+        final List<? extends Event<?>> _events;
+        final PublishPriority _priority;
+        // Null to keep the QoS level chosen by the marshaller.
+        final AWSIotQos _qos;
+        final CompletableFuture<PublishResult> _result = new CompletableFuture<>();
+
+        PendingMessage(
+            final String topic, final List<? extends Event<?>> events, final PublishPriority priority, final AWSIotQos qos)
+        {
+            _topic = topic;
+            _events = events;
+            _priority = priority;
+            _qos = qos;
+        }
+    }
+
+    // The client calls back on this message when the broker acknowledges the publish (or right after sending for QoS 0).
+    private static final class CallbackMessage extends AWSIotMessage
+    {
+        private final CompletableFuture<PublishResult> _result;
+        // Null if failed messages are not stored.
+        private final Outbox _outbox;
+        private final long _sentAt;
+
+        CallbackMessage(
+            final AWSIotMessage message, final CompletableFuture<PublishResult> result, final Outbox outbox, final long sentAt)
+        {
+            super(message.getTopic(), message.getQos(), message.getPayload());
+            _result = result;
+            _outbox = outbox;
+            _sentAt = sentAt;
+        }
+
+        @Override
+        public void onSuccess()
+        {
+            _result.complete(new PublishResult(PublishStatus.PUBLISHED, _sentAt));
+        }
+
+        @Override
+        public void onFailure()
+        {
+            _fail(new AWSIotException(getErrorCode(), getErrorMessage()));
+        }
+
+        @Override
+        public void onTimeout()
+        {
+            _fail(new AWSIotTimeoutException("Timed out publishing to " + getTopic()));
+        }
+
+        private void _fail(final Exception error)
+        {
+            if (_outbox == null || !_store(_outbox, this, error)) _result.completeExceptionally(error);
+            else _result.complete(new PublishResult(PublishStatus.STORED, _sentAt));
+        }
+    }
+
+    private static final Logger _logger = LogManager.getLogger(PublishPipeline.class);
+
+    private final ConnectionManager _connection;
+    private final EventMarshaller _marshaller;
+    private final Executor _executor;
+    private final OverflowPolicy _overflowPolicy;
+    // Indexed by priority.
+    private final BlockingDeque<PendingMessage>[] _lanes;
+    // The number of messages sent from higher priority queues while each queue has been waiting. Only used by the drain task.
+    private final int[] _passed = new int[PRIORITIES.length];
+    private final Map<Channel, PublishPriority> _priorities = new ConcurrentHashMap<>();
+    private final Map<Channel, AWSIotQos> _qosLevels = new ConcurrentHashMap<>();
+    private final AtomicBoolean _draining = new AtomicBoolean();
+    // Null if marshalling is not measured.
+    private final EventMetrics _metrics;
+    // Null if messages that cannot be sent are not stored.
+    private final Outbox _outbox;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    PublishPipeline(
+        final ConnectionManager connection, final EventMarshaller marshaller, final Executor executor, final int capacity,
+        final OverflowPolicy overflowPolicy, final EventMetrics metrics, final Outbox outbox)
+    {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        _connection = connection;
+        _marshaller = marshaller;
+        _executor = executor;
+        _overflowPolicy = overflowPolicy;
+        _lanes = new BlockingDeque[PRIORITIES.length];
+        for (int i = 0; i < _lanes.length; i++)
+            _lanes[i] = new LinkedBlockingDeque<>(capacity);
+        _metrics = metrics;
+        _outbox = outbox;
+        // Sends the queue and the outbox when the connection is back, and moves the queue to the outbox when it is lost.
+        _connection.addListener(state -> {
+            if (state != ConnectionManager.State.CLOSED && _hasWork()) _scheduleDrain();
+        });
+        if (_hasWork()) _scheduleDrain();
+    }
+
+    CompletableFuture<PublishResult> submit(final Event<?> event)
+    {
+        return submit(event.getTopic(), Collections.singletonList(event));
+    }
+
+    // The events must all be sent to the topic; more than one is marshalled as a batch. A batch has the highest priority and
+    // QoS level of its events.
+    CompletableFuture<PublishResult> submit(final String topic, final List<? extends Event<?>> events)
+    {
+        PublishPriority priority = PublishPriority.NORMAL;
+        AWSIotQos qos = null;
+        if (!_priorities.isEmpty() || !_qosLevels.isEmpty())
+        {
+            priority = PRIORITIES[PRIORITIES.length - 1];
+            for (final Event<?> event : events)
+            {
+                final Channel channel = new Channel(event);
+                final PublishPriority eventPriority = _priorities.getOrDefault(channel, PublishPriority.NORMAL);
+                if (eventPriority.compareTo(priority) < 0) priority = eventPriority;
+                final AWSIotQos eventQos = _qosLevels.get(channel);
+                if (eventQos != null && (qos == null || eventQos.getValue() > qos.getValue())) qos = eventQos;
+            }
+        }
+        final PendingMessage pending = new PendingMessage(topic, events, priority, qos);
+        if (_enqueue(pending)) _scheduleDrain();
+        return pending._result;
+    }
+
+    void setPriority(final Channel channel, final PublishPriority priority)
+    {
+        if (priority == PublishPriority.NORMAL) _priorities.remove(channel);
+        else _priorities.put(channel, priority);
+    }
+
+    // Null to keep the QoS level chosen by the marshaller.
+    void setQos(final Channel channel, final AWSIotQos qos)
+    {
+        if (qos == null) _qosLevels.remove(channel);
+        else _qosLevels.put(channel, qos);
+    }
+
+    int size()
+    {
+        int size = 0;
+        for (final BlockingDeque<PendingMessage> lane : _lanes)
+            size += lane.size();
+        return size;
+    }
+
+    private boolean _enqueue(final PendingMessage pending)
+    {
+        final BlockingDeque<PendingMessage> queue = _lanes[pending._priority.ordinal()];
+        switch (_overflowPolicy)
+        {
+            case BLOCK:
+                try
+                {
+                    queue.putLast(pending);
+                    return true;
+                }
+                catch (final InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    pending._result.completeExceptionally(e);
+                    return false;
+                }
+
+            case FAIL_FAST:
+                if (queue.offerLast(pending)) return true;
+                pending._result.completeExceptionally(
+                    new RejectedExecutionException("Publish queue is full, rejected " + pending._events));
+                return false;
+
+            case DROP_OLDEST:
+                while (!queue.offerLast(pending))
+                {
+                    final PendingMessage dropped = queue.pollFirst();
+                    if (dropped != null) dropped._result.complete(new PublishResult(PublishStatus.DROPPED));
+                }
+                return true;
+
+            default:
+                throw new AssertionError("Unknown overflow policy " + _overflowPolicy);
+        }
+    }
+
+    private void _scheduleDrain()
+    {
+        if (!_draining.compareAndSet(false, true)) return;
+        try
+        {
+            _executor.execute(this::_drain);
+        }
+        catch (final RejectedExecutionException e)
+        {
+            _draining.set(false);
+            _logger.error("Publish executor rejected the drain task, failing queued events", e);
+            for (final BlockingDeque<PendingMessage> lane : _lanes)
+            {
+                PendingMessage pending;
+                while ((pending = lane.pollFirst()) != null)
+                    pending._result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void _drain()
+    {
+        // Cleared when a stored message cannot be sent, so the rest of the queue is stored until the next drain.
+        boolean online = true;
+        while (true)
+        {
+            final boolean connected = online && _connection.isConnected();
+            if (connected && _outbox != null && !_outbox.isEmpty())
+            {
+                online = _replay();
+                continue;
+            }
+            if (connected || _outbox != null)
+            {
+                final PendingMessage pending = _poll();
+                if (pending != null)
+                {
+                    _send(pending, connected);
+                    continue;
+                }
+            }
+
+            // Another event may have been queued, or the connection restored, after the checks above but before the flag was
+            // cleared.
+            _draining.set(false);
+            if (!online || !_hasWork() || !_draining.compareAndSet(false, true)) return;
+        }
+    }
+
+    private boolean _hasWork()
+    {
+        if (_connection.isConnected()) return _hasQueued() || _outbox != null && !_outbox.isEmpty();
+        return _outbox != null && _hasQueued();
+    }
+
+    private boolean _hasQueued()
+    {
+        for (final BlockingDeque<PendingMessage> lane : _lanes)
+        {
+            if (!lane.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    // Takes the next message from the highest priority queue, unless a lower priority queue has waited for LANE_BUDGET messages.
+    private PendingMessage _poll()
+    {
+        while (true)
+        {
+            int chosen = -1;
+            for (int i = 0; i < _lanes.length; i++)
+            {
+                if (_lanes[i].isEmpty())
+                {
+                    _passed[i] = 0;
+                    continue;
+                }
+                if (chosen < 0 || _passed[i] >= LANE_BUDGET && _passed[chosen] < LANE_BUDGET) chosen = i;
+            }
+            if (chosen < 0) return null;
+
+            // The queue may have been emptied by DROP_OLDEST since it was checked.
+            final PendingMessage pending = _lanes[chosen].pollFirst();
+            if (pending == null) continue;
+            _passed[chosen] = 0;
+            for (int i = chosen + 1; i < _lanes.length; i++)
+            {
+                if (!_lanes[i].isEmpty()) _passed[i]++;
+            }
+            return pending;
+        }
+    }
+
+    // Stores the message instead of sending it if the connection is down. Results for messages that reach the transport carry
+    // the time they were taken off the queue, so adaptive throttling does not count batching linger or queue wait as latency.
+    private void _send(final PendingMessage pending, final boolean connected)
+    {
+        final long start = System.nanoTime();
+        final AWSIotMessage message;
+        try
+        {
+            message = pending._events.size() == 1
+                ? _marshaller.marshall(pending._events.get(0))
+                : _marshaller.marshallBatch(pending._topic, pending._events);
+            if (_metrics != null) _metrics.marshalled(pending._topic, pending._events.size(), System.nanoTime() - start);
+            if (pending._qos != null) message.setQos(pending._qos);
+        }
+        catch (final MarshalException | RuntimeException e)
+        {
+            pending._result.completeExceptionally(e);
+            return;
+        }
+
+        try
+        {
+            if (!connected)
+            {
+                _outbox.append(message);
+                pending._result.complete(new PublishResult(PublishStatus.STORED));
+                return;
+            }
+            _connection.getTransport().publish(new CallbackMessage(message, pending._result, _outbox, start));
+        }
+        catch (final AWSIotException e)
+        {
+            _connection.checkConnection();
+            if (_outbox != null && _store(_outbox, message, e))
+                pending._result.complete(new PublishResult(PublishStatus.STORED, start));
+            else pending._result.completeExceptionally(e);
+        }
+        catch (final IOException | RuntimeException e)
+        {
+            pending._result.completeExceptionally(e);
+        }
+    }
+
+    // Sends the oldest stored message. Returns false if the transport did not accept it, leaving it in the outbox, or if the
+    // outbox has messages but none could be read from it.
+    private boolean _replay()
+    {
+        final Outbox.Stored stored = _outbox.peek();
+        if (stored == null) return _outbox.isEmpty();
+        try
+        {
+            _connection.getTransport().publish(
+                new CallbackMessage(stored._message, new CompletableFuture<>(), _outbox, System.nanoTime()));
+            _outbox.remove(stored);
+            return true;
+        }
+        catch (final AWSIotException | RuntimeException e)
+        {
+            _logger.warn("Error sending stored message to " + stored._message.getTopic() + ", will retry", e);
+            _connection.checkConnection();
+            return false;
+        }
+    }
+
+    // Returns false if the message could not be stored either.
+    private static boolean _store(final Outbox outbox, final AWSIotMessage message, final Exception error)
+    {
+        try
+        {
+            outbox.append(message);
+            return true;
+        }
+        catch (final IOException e)
+        {
+            e.addSuppressed(error);
+            _logger.error("Error storing message to " + message.getTopic() + " in outbox", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+/**
+ * The priority of the events published to a channel, {@link PublisherService#registerPriority registered} with the
+ * {@link PublisherService}. Each priority has its own queue, and queued events are sent from the highest priority queue that
+ * has any, so a burst of lower priority events does not delay higher priority ones.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public enum PublishPriority
+{
+    /** Sent before any other queued events, such as alarms. */
+    HIGH,
+    /** The priority of channels that are not registered. */
+    NORMAL,
+    /** Sent when no higher priority events are queued, such as bulk telemetry. */
+    LOW
+}
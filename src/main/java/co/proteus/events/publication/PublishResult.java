@@ -18,11 +18,22 @@ package co.proteus.events.publication;
  */
 public final class PublishResult
 {
+    // The sent time of a result for an event that never reached the transport.
+    static final long NOT_SENT = Long.MIN_VALUE;
+
     private final PublishStatus _status;
+    // When the pipeline took the message off its queue to send it, in System.nanoTime() nanoseconds, or NOT_SENT.
+    private final long _sentAt;
 
     PublishResult(final PublishStatus status)
+    {
+        this(status, NOT_SENT);
+    }
+
+    PublishResult(final PublishStatus status, final long sentAt)
     {
         _status = status;
+        _sentAt = sentAt;
     }
 
     /**
@@ -35,6 +46,11 @@ public final class PublishResult
         return _status;
     }
 
+    long getSentAt()
+    {
+        return _sentAt;
+    }
+
     @Override
     public String toString()
     {
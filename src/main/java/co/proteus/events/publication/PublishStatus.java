@@ -19,5 +19,8 @@ package co.proteus.events.publication;
 public enum PublishStatus
 {
     PUBLISHED,
-    THROTTLED
+    THROTTLED,
+    DROPPED,
+    SUPERSEDED,
+    STORED
 }
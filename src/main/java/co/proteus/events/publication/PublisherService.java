@@ -11,17 +11,30 @@
 
 package co.proteus.events.publication;
 
-import com.amazonaws.services.iot.client.AWSIotException;
 import com.amazonaws.services.iot.client.AWSIotMessage;
 import com.amazonaws.services.iot.client.AWSIotMqttClient;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import co.proteus.events.marshalling.EventMarshaller;
-import co.proteus.events.marshalling.MarshalException;
 import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.metrics.EventMetrics;
 import co.proteus.events.throttling.EventThrottler;
 
 import static co.proteus.events.throttling.EventThrottler.INCLUDE_ALL;
@@ -42,9 +55,50 @@ public final class PublisherService
      */
     private static final EventMarshaller DEFAULT_MARSHALLER = new JsonMarshaller(QOS0);
 
-    private final AWSIotMqttClient _client;
+    /** The number of events that can be waiting to be sent before the {@link #DEFAULT_OVERFLOW_POLICY} applies. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /** Callers wait for room in the queue, the same as if they were sending the event themselves. */
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.BLOCK;
+
+    /**
+     * Daemon threads shared by all services that do not provide their own executor. Batches and coalesced events that fall due
+     * are also sent on these threads rather than the service's executor, because under {@link OverflowPolicy#BLOCK} sending
+     * them may wait for the service's drain task to make room in the queue.
+     */
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("event-publisher-%d").build());
+
+    /** Daemon thread shared by all services to hand batches and coalesced events to the executor when they are due. */
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("event-scheduler-%d").build());
+
+    // Subscriptions in this JVM that receive events directly, and whether the events are also sent to the broker.
+    private static final class LocalDelivery
+    {
+        final SubscriptionService _subscriptions;
+        final boolean _remote;
+
+        LocalDelivery(final SubscriptionService subscriptions, final boolean remote)
+        {
+            _subscriptions = subscriptions;
+            _remote = remote;
+        }
+    }
+
+    private final PublishPipeline _pipeline;
     private final EventMarshaller _marshaller;
+    private final EventMetrics _metrics;
+    // Checked before reading the clock, so a service without metrics does no measurement.
+    private final boolean _measured;
     private final Map<Channel,EventThrottler<?>> _throttlers = new ConcurrentHashMap<>();
+    // Set once an adaptive throttler is registered, so sent events are only timed when one might need it.
+    private volatile boolean _adaptive;
+    private final Map<Channel,Coalescer<?>> _coalescers = new ConcurrentHashMap<>();
+    private final Map<Channel,LocalDelivery> _local = new ConcurrentHashMap<>();
+    // Marks the events that are delivered locally and also sent to the broker, so the copies that come back can be recognized.
+    private final String _origin = UUID.randomUUID().toString();
+    private volatile Batcher _batcher;
 
     /**
      * Create an instance of {@code PublisherService} that uses the {@link #DEFAULT_MARSHALLER default marshaller} to encode event
@@ -65,13 +119,89 @@ public final class PublisherService
      */
     public PublisherService(final AWSIotMqttClient client, final EventMarshaller marshaller)
     {
-        _client = client;
+        this(new ConnectionManager(client), marshaller);
+    }
+
+    /**
+     * Create an instance of {@code PublisherService} that uses a connection that may be shared with a
+     * {@link SubscriptionService}.
+     *
+     * @param connection the connection manager
+     * @param marshaller the marshaller to use to encode event payloads
+     */
+    public PublisherService(final ConnectionManager connection, final EventMarshaller marshaller)
+    {
+        this(connection, marshaller, DEFAULT_EXECUTOR, DEFAULT_QUEUE_CAPACITY, DEFAULT_OVERFLOW_POLICY);
+    }
+
+    /**
+     * Create an instance of {@code PublisherService} that sends events from a bounded queue. Events are marshalled and handed
+     * to the client by a single task at a time on {@code executor}, so they are sent in the order they were published. Events
+     * stay in the queue while the connection is down.
+     *
+     * @param connection the connection manager
+     * @param marshaller the marshaller to use to encode event payloads
+     * @param executor the executor used to send queued events
+     * @param queueCapacity the maximum number of events waiting to be sent
+     * @param overflowPolicy what to do when an event is published and the queue is full
+     */
+    public PublisherService(
+        final ConnectionManager connection, final EventMarshaller marshaller, final Executor executor, final int queueCapacity,
+        final OverflowPolicy overflowPolicy)
+    {
+        this(connection, marshaller, executor, queueCapacity, overflowPolicy, EventMetrics.NONE);
+    }
+
+    /**
+     * Create an instance of {@code PublisherService} that sends events from a bounded queue and reports publish latency,
+     * throttling and marshalling time to {@code metrics}. Otherwise the same as
+     * {@link #PublisherService(ConnectionManager, EventMarshaller, Executor, int, OverflowPolicy)}.
+     *
+     * @param connection the connection manager
+     * @param marshaller the marshaller to use to encode event payloads
+     * @param executor the executor used to send queued events
+     * @param queueCapacity the maximum number of events waiting to be sent
+     * @param overflowPolicy what to do when an event is published and the queue is full
+     * @param metrics receives measurements, or {@link EventMetrics#NONE}
+     */
+    public PublisherService(
+        final ConnectionManager connection, final EventMarshaller marshaller, final Executor executor, final int queueCapacity,
+        final OverflowPolicy overflowPolicy, final EventMetrics metrics)
+    {
+        this(connection, marshaller, executor, queueCapacity, overflowPolicy, metrics, null);
+    }
+
+    /**
+     * Create an instance of {@code PublisherService} that stores events in an {@link Outbox} when they cannot be sent, instead
+     * of holding them in the queue while the connection is down or failing them when the transport does. The result of a stored
+     * event is {@link PublishStatus#STORED}. Stored events, including those recovered from a previous run, are sent in order
+     * before newer events once the service is connected. Otherwise the same as
+     * {@link #PublisherService(ConnectionManager, EventMarshaller, Executor, int, OverflowPolicy, EventMetrics)}.
+     *
+     * @param connection the connection manager
+     * @param marshaller the marshaller to use to encode event payloads
+     * @param executor the executor used to send queued and stored events
+     * @param queueCapacity the maximum number of events waiting to be sent
+     * @param overflowPolicy what to do when an event is published and the queue is full
+     * @param metrics receives measurements, or {@link EventMetrics#NONE}
+     * @param outbox stores events that cannot be sent, or null to fail them; it must not be shared with another service
+     */
+    public PublisherService(
+        final ConnectionManager connection, final EventMarshaller marshaller, final Executor executor, final int queueCapacity,
+        final OverflowPolicy overflowPolicy, final EventMetrics metrics, final Outbox outbox)
+    {
+        _metrics = metrics;
+        _measured = metrics.isEnabled();
         _marshaller = marshaller;
+        _pipeline = new PublishPipeline(connection, marshaller, executor, queueCapacity, overflowPolicy,
+            _measured ? metrics : null, outbox);
+        connection.start();
     }
 
     /**
      * Register a throttler to limit the number of events sent to the specified topic for the specified event type. If there is an
-     * existing throttler it will be replaced.
+     * existing throttler it will be replaced. If the throttler {@link EventThrottler#isAdaptive adapts}, such as an
+     * {@link co.proteus.events.throttling.AdaptiveThrottler}, it is told the outcome and latency of each event it sends.
      *
      * @param topic the topic
      * @param eventType the event type
@@ -80,47 +210,319 @@ public final class PublisherService
     public void registerThrottler(final String topic, final String eventType, final EventThrottler<?> throttler)
     {
         _throttlers.put(new Channel(topic, eventType), throttler);
+        if (throttler.isAdaptive()) _adaptive = true;
+    }
+
+    /**
+     * Set the priority of events sent to the specified topic for the specified event type. Each priority has its own queue of
+     * the capacity given to the service, and queued events are sent from the highest priority queue first, so events such as
+     * alarms are not held up behind bulk traffic. A lower priority queue that has waited while 16 higher priority events were
+     * sent gets to send one event, so it is slowed down but not starved. Events are only ordered with respect to other events
+     * of the same priority. A batch has the highest priority of its events. Channels that are not registered have
+     * {@link PublishPriority#NORMAL normal} priority.
+     *
+     * @param topic the topic
+     * @param eventType the event type
+     * @param priority the priority
+     */
+    public void registerPriority(final String topic, final String eventType, final PublishPriority priority)
+    {
+        _pipeline.setPriority(new Channel(topic, eventType), priority);
+    }
+
+    /**
+     * Set the QoS level of events sent to the specified topic for the specified event type, instead of the level chosen by the
+     * marshaller. For example, alarms can be sent with at least once delivery while telemetry uses the marshaller's
+     * {@link AWSIotQos#QOS0 QOS0}. A batch has the highest QoS level of its events.
+     *
+     * @param topic the topic
+     * @param eventType the event type
+     * @param qos the QoS level, or null to use the marshaller's
+     */
+    public void registerQos(final String topic, final String eventType, final AWSIotQos qos)
+    {
+        _pipeline.setQos(new Channel(topic, eventType), qos);
+    }
+
+    /**
+     * Defer events for the specified topic and event type that are throttled instead of dropping them. Only the latest deferred
+     * event is kept and it is sent every {@code interval}; an event that is replaced by a newer one, or that is still waiting
+     * when a newer event is sent right away, completes with {@link PublishStatus#SUPERSEDED}. This suits events that carry the
+     * current state of something, where only the most recent value matters. Use a throttler that never sends, such as
+     * {@code it -> false}, to send such events only at the fixed interval. If coalescing is already enabled for the channel it
+     * is replaced, and its pending events are sent.
+     *
+     * @param topic the topic
+     * @param eventType the event type
+     * @param interval how often the latest deferred event is sent
+     */
+    public void enableCoalescing(final String topic, final String eventType, final Duration interval)
+    {
+        enableCoalescing(topic, eventType, interval, payload -> null);
+    }
+
+    /**
+     * Defer events for the specified topic and event type that are throttled, keeping the latest event for each key derived
+     * from the payload, such as a device ID. Otherwise the same as {@link #enableCoalescing(String, String, Duration)}.
+     *
+     * @param topic the topic
+     * @param eventType the event type
+     * @param interval how often the latest deferred event for each key is sent
+     * @param keyExtractor derives the key from an event payload
+     * @param <T> the type of the event payload
+     */
+    public <T> void enableCoalescing(
+        final String topic, final String eventType, final Duration interval, final Function<? super T, ?> keyExtractor)
+    {
+        final Coalescer<T> coalescer = new Coalescer<>(keyExtractor, this::_sendDeferred, SCHEDULER, DEFAULT_EXECUTOR, interval);
+        final Coalescer<?> previous = _coalescers.put(new Channel(topic, eventType), coalescer);
+        if (previous != null) previous.close();
     }
 
     /**
-     * Publish an event and return a future for the result.
+     * Stop deferring throttled events for the specified topic and event type. Pending events are sent right away.
+     *
+     * @param topic the topic
+     * @param eventType the event type
+     */
+    public void disableCoalescing(final String topic, final String eventType)
+    {
+        final Coalescer<?> previous = _coalescers.remove(new Channel(topic, eventType));
+        if (previous != null) previous.close();
+    }
+
+    /**
+     * Hand events for the specified topic and event type directly to the matching subscriptions of a
+     * {@link SubscriptionService} in the same JVM, instead of only receiving them back from the broker. Subscribers receive the
+     * published {@link Event} itself, so its payload is shared and must not be modified. Events are not marshalled unless a
+     * subscription's {@link co.proteus.events.filtering.MessageFilter filter} reads the payload, and are never unmarshalled.
+     * Filters see the payload after the unmarshaller of {@code subscriptions} has
+     * {@link co.proteus.events.marshalling.EventUnmarshaller#split split} it, so a
+     * {@link co.proteus.events.marshalling.compression.CompressingMarshaller compressing} publisher works with
+     * {@link co.proteus.events.marshalling.compression.DecompressingUnmarshaller decompressing} subscriptions.
+     *
+     * <p>If {@code remote} is false the events are not sent to the broker at all, and the result of publishing an event is
+     * {@link PublishStatus#PUBLISHED} once it has been handed to the local subscriptions. If {@code remote} is true the events are
+     * also sent to the broker for consumers in other processes. They are marked with an {@link Event#getOrigin() origin} that
+     * identifies this service, so {@code subscriptions} ignores the copies that the broker sends back while still receiving the
+     * events of other publishers on the same topic and event type. The marshaller and the unmarshaller of {@code subscriptions}
+     * must carry the origin, as the JSON and Smile ones do.</p>
+     *
+     * <p>Events are delivered locally on the thread that sends them, after throttling, so a subscription whose queue is full
+     * applies its {@link OverflowPolicy} to the publisher. Every subscription is filtered before any of them receives the event,
+     * so if a filter reads the payload and the event cannot be marshalled, no local subscription receives it, it is not sent to
+     * the broker either, and the result of publishing it completes exceptionally with the error. If local delivery is already
+     * enabled for the channel it is replaced.</p>
+     *
+     * @param topic the topic
+     * @param eventType the event type
+     * @param subscriptions the service whose subscriptions receive the events
+     * @param remote true to also send the events to the broker
+     */
+    public void enableLocalDelivery(
+        final String topic, final String eventType, final SubscriptionService subscriptions, final boolean remote)
+    {
+        final Channel channel = new Channel(topic, eventType);
+        if (remote) subscriptions.addLocalChannel(_origin, channel);
+        final LocalDelivery previous = _local.put(channel, new LocalDelivery(subscriptions, remote));
+        if (previous != null && previous._remote) previous._subscriptions.removeLocalChannel(_origin, channel);
+    }
+
+    /**
+     * Stop handing events for the specified topic and event type directly to local subscriptions. Events are sent to the broker
+     * again.
+     *
+     * @param topic the topic
+     * @param eventType the event type
+     */
+    public void disableLocalDelivery(final String topic, final String eventType)
+    {
+        final Channel channel = new Channel(topic, eventType);
+        final LocalDelivery previous = _local.remove(channel);
+        if (previous != null && previous._remote) previous._subscriptions.removeLocalChannel(_origin, channel);
+    }
+
+    /**
+     * Send events that are published to the same topic in batches, so that several events share one message. A batch is sent
+     * when it holds {@code maxBatchSize} events or when {@code linger} has passed since its first event was published, whichever
+     * comes first. The marshaller must support {@link EventMarshaller#marshallBatch batches}.
+     *
+     * @param linger the longest time an event waits for other events to join its batch
+     * @param maxBatchSize the maximum number of events in a batch
+     */
+    public void enableBatching(final Duration linger, final int maxBatchSize)
+    {
+        final Batcher previous = _batcher;
+        _batcher = new Batcher(_pipeline, SCHEDULER, DEFAULT_EXECUTOR, linger, maxBatchSize);
+        if (previous != null) previous.flush();
+    }
+
+    /**
+     * Stop batching published events. Events waiting in a batch are sent right away.
+     */
+    public void disableBatching()
+    {
+        final Batcher previous = _batcher;
+        _batcher = null;
+        if (previous != null) previous.flush();
+    }
+
+    /**
+     * Publish an event and return a future for the result. The event is queued and sent asynchronously; the future completes
+     * when the client reports the outcome of the publish. If {@link #enableBatching batching} is enabled the event may wait for
+     * other events to join its batch, and the result is the result of the batch. If the event is throttled the result is
+     * {@link PublishStatus#THROTTLED}, unless {@link #enableCoalescing coalescing} is enabled for its channel. If the queue is
+     * full the result depends on the {@link OverflowPolicy}: {@code BLOCK} waits for room, {@code FAIL_FAST} completes the
+     * future exceptionally with a {@link java.util.concurrent.RejectedExecutionException}, and {@code DROP_OLDEST} completes the
+     * future of the oldest queued event with {@link PublishStatus#DROPPED}.
      *
      * @param event the event
      * @param <T> the type of the event payload
      *
      * @return the future for the result.
      */
-    public <T> CompletableFuture<?> publish(final Event<T> event)
+    public <T> CompletableFuture<PublishResult> publish(final Event<T> event)
     {
-        @SuppressWarnings("unchecked")
-        final EventThrottler<T> throttler = (EventThrottler<T>) _throttlers.getOrDefault(new Channel(event), INCLUDE_ALL);
-        final EventThrottler.Parameters<T> parameters = new EventThrottler.Parameters<>(event);
+        if (!_measured && !_adaptive)
+        {
+            final CompletableFuture<PublishResult> throttled = _throttle(event);
+            return throttled != null ? throttled : _send(event);
+        }
+        final long start = System.nanoTime();
+        final CompletableFuture<PublishResult> throttled = _throttle(event);
+        return _measure(event, start, throttled != null ? throttled : _adapt(event, start, _send(event)));
+    }
+
+    /**
+     * Publish several events and return a future for their results. Events are throttled individually, and the events that are
+     * sent to the same topic are packed into one message, in the order they appear in the list. The marshaller must support
+     * {@link EventMarshaller#marshallBatch batches}; a subscriber using the matching unmarshaller receives each event on its own.
+     *
+     * @param events the events
+     *
+     * @return the future for the results, in the same order as the events
+     */
+    public CompletableFuture<List<PublishResult>> publishBatch(final List<? extends Event<?>> events)
+    {
+        // Throttled and local-only events get their result right away; the rest are filled in once their batch is submitted.
+        final long start = _measured || _adaptive ? System.nanoTime() : 0;
+        final List<CompletableFuture<PublishResult>> results = new ArrayList<>(events.size());
+        final Map<String, List<Event<?>>> byTopic = new LinkedHashMap<>();
+        for (final Event<?> event : events)
+        {
+            CompletableFuture<PublishResult> result = _throttle(event);
+            if (result == null) result = _deliverLocally(event);
+            results.add(result);
+            if (result == null) byTopic.computeIfAbsent(event.getTopic(), topic -> new ArrayList<>()).add(_remote(event));
+        }
+
+        final Map<String, CompletableFuture<PublishResult>> sent = new HashMap<>();
+        byTopic.forEach((topic, batch) -> sent.put(topic, _pipeline.submit(topic, batch)));
+        for (int i = 0; i < results.size(); i++)
+        {
+            if (results.get(i) == null) results.set(i, _adapt(events.get(i), start, sent.get(events.get(i).getTopic())));
+            _measure(events.get(i), start, results.get(i));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()]))
+            .thenApply(ignored -> results.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    // Returns null if the event should be sent now, otherwise the result for the throttled event.
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<PublishResult> _throttle(final Event<T> event)
+    {
+        final Channel channel = new Channel(event);
+        final EventThrottler<T> throttler = (EventThrottler<T>) _throttlers.getOrDefault(channel, INCLUDE_ALL);
+        final Coalescer<T> coalescer = (Coalescer<T>) _coalescers.get(channel);
+        if (throttler.shouldSend(new EventThrottler.Parameters<>(event)))
+        {
+            if (coalescer != null) coalescer.supersede(event);
+            return null;
+        }
+        if (_measured) _metrics.throttled(event.getTopic(), event.getEventType());
+        return coalescer != null ? coalescer.defer(event) : completedFuture(new PublishResult(PublishStatus.THROTTLED));
+    }
+
+    // Reports the result of an event that was published at start. Throttled events have already been reported.
+    private CompletableFuture<PublishResult> _measure(
+        final Event<?> event, final long start, final CompletableFuture<PublishResult> result)
+    {
+        if (!_measured) return result;
+        result.whenComplete((published, error) -> {
+            final long latency = System.nanoTime() - start;
+            if (error != null) _metrics.publishFailed(event.getTopic(), event.getEventType(), error, latency);
+            else if (published.getStatus() != PublishStatus.THROTTLED)
+                _metrics.published(event.getTopic(), event.getEventType(), published.getStatus(), latency);
+        });
+        return result;
+    }
+
+    // Reports the outcome of an event that was published at start to its throttler, if the throttler adapts to it. The latency
+    // runs from when the pipeline sent the message, so time spent waiting in a batch or the queue does not read as a slow broker.
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<PublishResult> _adapt(
+        final Event<T> event, final long start, final CompletableFuture<PublishResult> result)
+    {
+        if (!_adaptive) return result;
+        final EventThrottler<T> throttler = (EventThrottler<T>) _throttlers.get(new Channel(event));
+        if (throttler == null || !throttler.isAdaptive()) return result;
+        final EventThrottler.Parameters<T> params = new EventThrottler.Parameters<>(event);
+        result.whenComplete((published, error) -> {
+            final long sentAt = published != null && published.getSentAt() != PublishResult.NOT_SENT
+                ? published.getSentAt()
+                : start;
+            throttler.completed(params, published != null ? published.getStatus() : null, error, System.nanoTime() - sentAt);
+        });
+        return result;
+    }
+
+    // Sends an event that a coalescer deferred. Its metrics are reported through the future returned when it was published.
+    private <T> CompletableFuture<PublishResult> _sendDeferred(final Event<T> event)
+    {
+        return _adapt(event, System.nanoTime(), _send(event));
+    }
 
-        final boolean included = throttler.shouldSend(parameters);
-        return included? _publish(event) : completedFuture(new PublishResult(PublishStatus.THROTTLED));
+    private <T> CompletableFuture<PublishResult> _send(final Event<T> event)
+    {
+        final CompletableFuture<PublishResult> local = _deliverLocally(event);
+        if (local != null) return local;
+        final Batcher batcher = _batcher;
+        return batcher != null ? batcher.add(_remote(event)) : _pipeline.submit(_remote(event));
     }
 
-    private <T> CompletableFuture<PublishResult> _publish(final Event<T> event)
+    // Returns the event to send to the broker, marked with the origin of this service if it is also delivered locally.
+    private <T> Event<T> _remote(final Event<T> event)
     {
-        // FIXME: the final implementation needs to do this on a separate thread
-        final CompletableFuture<PublishResult> result = new CompletableFuture<>();
+        return _local.isEmpty() || !_local.containsKey(new Channel(event)) ? event : event.withOrigin(_origin);
+    }
+
+    // Hands the event to local subscriptions if local delivery is enabled for its channel. Returns null if the event should also
+    // be sent to the broker, otherwise the result for the event.
+    private CompletableFuture<PublishResult> _deliverLocally(final Event<?> event)
+    {
+        if (_local.isEmpty()) return null;
+        final LocalDelivery local = _local.get(new Channel(event));
+        if (local == null) return null;
         try
         {
-            // Note: this will block until the timeouts configured on the client.
-            _client.connect();
-            _client.publish(_marshal(event));
-            result.complete(new PublishResult(PublishStatus.PUBLISHED));
-            return result;
+            local._subscriptions.deliverLocally(event, _marshaller);
         }
-        catch (final AWSIotException|MarshalException e)
+        catch (final LocalMessage.MarshalFailure e)
         {
-            result.completeExceptionally(e);
-            return result;
+            final CompletableFuture<PublishResult> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e.getCause());
+            return failed;
         }
+        return local._remote ? null : completedFuture(new PublishResult(PublishStatus.PUBLISHED));
     }
 
-    private <T> AWSIotMessage _marshal(final Event<T> event) throws MarshalException
+    /**
+     * Get the number of events waiting to be sent.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth()
     {
-        return _marshaller.marshall(event);
+        return _pipeline.size();
     }
 }
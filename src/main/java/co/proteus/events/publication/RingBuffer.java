@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Bounded lock-free queue for many producers and a single consumer. Producers claim a slot by advancing the tail with a CAS and
+// then fill it; the consumer takes filled slots in order and advances the head. A slot that has been claimed but not yet
+// filled reads as empty, so the consumer sees the queue as empty until the producer finishes.
+final class RingBuffer<E>
+{
+    private final AtomicReferenceArray<E> _slots;
+    private final int _mask;
+    private final AtomicLong _head = new AtomicLong();
+    private final AtomicLong _tail = new AtomicLong();
+
+    // The capacity is rounded up to a power of two.
+    RingBuffer(final int capacity)
+    {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        _slots = new AtomicReferenceArray<>(size);
+        _mask = size - 1;
+    }
+
+    int capacity()
+    {
+        return _mask + 1;
+    }
+
+    // Returns false if the buffer is full.
+    boolean offer(final E element)
+    {
+        while (true)
+        {
+            final long tail = _tail.get();
+            if (tail - _head.get() > _mask) return false;
+            if (_tail.compareAndSet(tail, tail + 1))
+            {
+                // A volatile write, so a consumer that checks for elements after announcing that it will park sees it.
+                _slots.set((int) tail & _mask, element);
+                return true;
+            }
+        }
+    }
+
+    // Only called by the consumer. Returns null if the buffer is empty.
+    E poll()
+    {
+        final long head = _head.get();
+        final int index = (int) head & _mask;
+        final E element = _slots.get(index);
+        if (element == null) return null;
+        _slots.lazySet(index, null);
+        _head.lazySet(head + 1);
+        return element;
+    }
+
+    int size()
+    {
+        return (int) Math.max(0, _tail.get() - _head.get());
+    }
+}
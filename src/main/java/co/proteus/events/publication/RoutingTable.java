@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import co.proteus.events.filtering.FilterIndex;
+import co.proteus.events.publication.SubscriptionService.Subscription;
+
+import static co.proteus.events.publication.TopicFilter.MULTI_LEVEL;
+import static co.proteus.events.publication.TopicFilter.SINGLE_LEVEL;
+
+// Copy-on-write index from topic filter and event type to the subscriptions that should receive an event. Writers rebuild the
+// affected part of the index under a lock and publish it through a volatile field, so readers on the message path never lock.
+// Exact topics are looked up in a hash map; filters with wildcards are kept in a trie of topic levels so matching a topic
+// costs time proportional to its depth rather than to the number of subscriptions. The subscriptions for each topic filter and
+// event type are kept with an index of their message filters, so shared filter work is done once per message. The index is
+// built when a message first uses it rather than on every change, so adding many subscriptions does not index them repeatedly.
+final class RoutingTable
+{
+    static final Route[] NONE = new Route[0];
+
+    // The subscriptions for one topic filter and event type.
+    static final class Route
+    {
+        final Subscription<?>[] _subscriptions;
+        // Lets a lookup that only matches this route return it without allocating.
+        final Route[] _only = {this};
+        // Built by the first message that uses the route, so a route replaced by another subscription before any message
+        // arrives is never indexed. Two threads may both build it, which is harmless.
+        private volatile FilterIndex<Subscription<?>> _filters;
+
+        Route(final Subscription<?>[] subscriptions)
+        {
+            _subscriptions = subscriptions;
+        }
+
+        FilterIndex<Subscription<?>> filters()
+        {
+            FilterIndex<Subscription<?>> filters = _filters;
+            if (filters == null)
+            {
+                filters = new FilterIndex<>(Arrays.asList(_subscriptions), subscription -> subscription._messageFilter);
+                _filters = filters;
+            }
+            return filters;
+        }
+    }
+
+    private static final class Node
+    {
+        static final Node EMPTY = new Node(Collections.emptyMap(), Collections.emptyMap());
+
+        final Map<String, Node> _children;
+        final Map<String, Route> _routes;
+
+        Node(final Map<String, Node> children, final Map<String, Route> routes)
+        {
+            _children = children;
+            _routes = routes;
+        }
+
+        boolean isEmpty()
+        {
+            return _children.isEmpty() && _routes.isEmpty();
+        }
+    }
+
+    private static final class Snapshot
+    {
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), Node.EMPTY);
+
+        final Map<String, Map<String, Route>> _exact;
+        final Node _wildcards;
+
+        Snapshot(final Map<String, Map<String, Route>> exact, final Node wildcards)
+        {
+            _exact = exact;
+            _wildcards = wildcards;
+        }
+    }
+
+    private volatile Snapshot _snapshot = Snapshot.EMPTY;
+
+    Route[] lookup(final String topic, final String eventType)
+    {
+        final Snapshot snapshot = _snapshot;
+        final Map<String, Route> byType = snapshot._exact.get(topic);
+        final Route exact = byType != null ? byType.get(eventType) : null;
+        if (snapshot._wildcards.isEmpty()) return exact != null ? exact._only : NONE;
+
+        final List<Route> matches = new ArrayList<>();
+        if (exact != null) matches.add(exact);
+        _match(snapshot._wildcards, topic, 0, eventType, matches);
+        return matches.toArray(NONE);
+    }
+
+    synchronized void add(final Subscription<?> subscription)
+    {
+        final Snapshot snapshot = _snapshot;
+        final String filter = subscription._topic;
+        if (TopicFilter.isWildcard(filter))
+        {
+            final Node wildcards = _add(snapshot._wildcards, TopicFilter.levels(filter), 0, subscription);
+            _snapshot = new Snapshot(snapshot._exact, wildcards);
+        }
+        else
+        {
+            final Map<String, Map<String, Route>> exact = new HashMap<>(snapshot._exact);
+            exact.put(filter, _append(exact.getOrDefault(filter, Collections.emptyMap()), subscription));
+            _snapshot = new Snapshot(exact, snapshot._wildcards);
+        }
+    }
+
+    // Returns true if the subscription was found.
+    synchronized boolean remove(final Subscription<?> subscription)
+    {
+        final Snapshot snapshot = _snapshot;
+        final String filter = subscription._topic;
+        if (TopicFilter.isWildcard(filter))
+        {
+            final Node wildcards = _remove(snapshot._wildcards, TopicFilter.levels(filter), 0, subscription);
+            if (wildcards == snapshot._wildcards) return false;
+            _snapshot = new Snapshot(snapshot._exact, wildcards);
+        }
+        else
+        {
+            final Map<String, Route> current = snapshot._exact.get(filter);
+            if (current == null) return false;
+            final Map<String, Route> byType = _without(current, subscription);
+            if (byType == current) return false;
+            final Map<String, Map<String, Route>> exact = new HashMap<>(snapshot._exact);
+            if (byType.isEmpty()) exact.remove(filter);
+            else exact.put(filter, byType);
+            _snapshot = new Snapshot(exact, snapshot._wildcards);
+        }
+        return true;
+    }
+
+    // A start of -1 means every level of the topic has been consumed.
+    private static void _match(
+        final Node node, final String topic, final int start, final String eventType, final List<Route> matches)
+    {
+        // Wildcards do not match topics that start with '$' at the first level.
+        final boolean system = start == 0 && topic.startsWith("$");
+        final Node multi = node._children.get(MULTI_LEVEL);
+        if (multi != null && !system) _collect(multi, eventType, matches);
+        if (start < 0)
+        {
+            _collect(node, eventType, matches);
+            return;
+        }
+
+        final int end = topic.indexOf('/', start);
+        final String level = end < 0 ? topic.substring(start) : topic.substring(start, end);
+        final int next = end < 0 ? -1 : end + 1;
+        final Node exact = node._children.get(level);
+        if (exact != null) _match(exact, topic, next, eventType, matches);
+        final Node single = node._children.get(SINGLE_LEVEL);
+        if (single != null && !system) _match(single, topic, next, eventType, matches);
+    }
+
+    private static void _collect(final Node node, final String eventType, final List<Route> matches)
+    {
+        final Route route = node._routes.get(eventType);
+        if (route != null) matches.add(route);
+    }
+
+    private static Node _add(final Node node, final String[] levels, final int index, final Subscription<?> subscription)
+    {
+        if (index == levels.length) return new Node(node._children, _append(node._routes, subscription));
+
+        final Map<String, Node> children = new HashMap<>(node._children);
+        children.put(levels[index], _add(children.getOrDefault(levels[index], Node.EMPTY), levels, index + 1, subscription));
+        return new Node(children, node._routes);
+    }
+
+    // Returns the same node if the subscription was not found, or null if the node is now empty.
+    private static Node _remove(final Node node, final String[] levels, final int index, final Subscription<?> subscription)
+    {
+        final Node updated;
+        if (index == levels.length)
+        {
+            final Map<String, Route> routes = _without(node._routes, subscription);
+            if (routes == node._routes) return node;
+            updated = new Node(node._children, routes);
+        }
+        else
+        {
+            final Node child = node._children.get(levels[index]);
+            if (child == null) return node;
+            final Node removed = _remove(child, levels, index + 1, subscription);
+            if (removed == child) return node;
+            final Map<String, Node> children = new HashMap<>(node._children);
+            if (removed == null) children.remove(levels[index]);
+            else children.put(levels[index], removed);
+            updated = new Node(children, node._routes);
+        }
+        if (!updated.isEmpty()) return updated;
+        return index == 0 ? Node.EMPTY : null;
+    }
+
+    private static Map<String, Route> _append(
+        final Map<String, Route> routes, final Subscription<?> subscription)
+    {
+        final Route route = routes.get(subscription._eventType);
+        final Subscription<?>[] existing = route != null ? route._subscriptions : new Subscription<?>[0];
+        final Subscription<?>[] updated = Arrays.copyOf(existing, existing.length + 1);
+        updated[existing.length] = subscription;
+
+        final Map<String, Route> result = new HashMap<>(routes);
+        result.put(subscription._eventType, new Route(updated));
+        return result;
+    }
+
+    // Returns the same map if the subscription was not found.
+    private static Map<String, Route> _without(
+        final Map<String, Route> routes, final Subscription<?> subscription)
+    {
+        final Route route = routes.get(subscription._eventType);
+        final int index = route != null ? Arrays.asList(route._subscriptions).indexOf(subscription) : -1;
+        if (index < 0) return routes;
+        final Subscription<?>[] existing = route._subscriptions;
+
+        final Map<String, Route> result = new HashMap<>(routes);
+        if (existing.length == 1)
+        {
+            result.remove(subscription._eventType);
+        }
+        else
+        {
+            final Subscription<?>[] updated = new Subscription<?>[existing.length - 1];
+            System.arraycopy(existing, 0, updated, 0, index);
+            System.arraycopy(existing, index + 1, updated, index, existing.length - index - 1);
+            result.put(subscription._eventType, new Route(updated));
+        }
+        return result;
+    }
+}
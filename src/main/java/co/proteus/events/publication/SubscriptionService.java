@@ -14,23 +14,28 @@ package co.proteus.events.publication;
 import com.amazonaws.services.iot.client.AWSIotException;
 import com.amazonaws.services.iot.client.AWSIotMessage;
 import com.amazonaws.services.iot.client.AWSIotMqttClient;
+import com.amazonaws.services.iot.client.AWSIotTimeoutException;
 import com.amazonaws.services.iot.client.AWSIotTopic;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import co.proteus.events.filtering.MessageFilter;
+import co.proteus.events.marshalling.EventMarshaller;
 import co.proteus.events.marshalling.EventUnmarshaller;
 import co.proteus.events.marshalling.UnmarshalException;
 import co.proteus.events.marshalling.json.JsonUnmarshaller;
-
-import static com.google.common.collect.Multimaps.synchronizedListMultimap;
-import static java.util.Objects.requireNonNull;
+import co.proteus.events.metrics.EventMetrics;
 
 /**
  * Service to receive IoT messages and decode them as {@link Event events}.
@@ -39,20 +44,55 @@ import static java.util.Objects.requireNonNull;
  */
 public final class SubscriptionService
 {
+    /**
+     * A registered subscriber. Events accepted for the subscription are queued and delivered to the subscriber in the order
+     * they were received.
+     *
+     * @param <T> the type of the {@link Event#getPayload event payload}
+     */
     public static final class Subscription<T>
     {
         final String _topic;
         final String _eventType;
         final MessageFilter _messageFilter;
         final Subscriber<T> _subscriber;
+        final DispatchQueue _dispatch;
+        // Null if the service is not measured.
+        final EventMetrics _metrics;
+        // The broker subscription that delivers messages for this subscription. Assigned before the subscription is added to
+        // the routing table, which publishes it to the message path.
+        AWSIotTopic _carrier;
 
         private Subscription(
-            final String topic, final String eventType, final MessageFilter messageFilter, final Subscriber<T> subscriber)
+            final String topic, final String eventType, final MessageFilter messageFilter, final Subscriber<T> subscriber,
+            final DispatchQueue dispatch, final EventMetrics metrics)
         {
             _topic = topic;
             _eventType = eventType;
             _messageFilter = messageFilter;
             _subscriber = subscriber;
+            _dispatch = dispatch;
+            _metrics = metrics;
+        }
+
+        /**
+         * Get the number of events waiting to be delivered to the subscriber.
+         *
+         * @return the queue depth
+         */
+        public int getQueueDepth()
+        {
+            return _dispatch.size();
+        }
+
+        /**
+         * Get the number of events that were not delivered because the subscription's queue was full.
+         *
+         * @return the number of dropped events
+         */
+        public long getDroppedCount()
+        {
+            return _dispatch.getDroppedCount();
         }
 
         @Override
@@ -67,53 +107,145 @@ public final class SubscriptionService
 
         private void receive(final Event<?> event)
         {
-            //noinspection unchecked
+            final long dropped = _metrics != null ? _dispatch.getDroppedCount() : 0;
+            final boolean queued = _dispatch.offer(() -> _deliver(event));
+            if (!queued) _logger.warn("Queue is full, dropped " + event + " for " + this);
+            if (_metrics == null) return;
+            if (queued) _metrics.dispatched(_topic, _eventType, _dispatch.size());
+            final long count = _dispatch.getDroppedCount() - dropped;
+            if (count > 0) _metrics.dispatchDropped(_topic, _eventType, (int) count);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void _deliver(final Event<?> event)
+        {
             _subscriber.receive((Event<T>) event);
         }
     }
 
     private final class EventTopic extends AWSIotTopic
     {
+        // Completes when the broker acknowledges the first subscription to the topic.
+        final CompletableFuture<Void> _subscribed = new CompletableFuture<>();
+        // The number of subscriptions carried by this topic, guarded by _routes.
+        int _carried;
+
         @SuppressWarnings("ParameterHidesMemberVariable")
         public EventTopic(final String topic)
         {
             super(topic);
         }
 
+        @Override
+        public void onSuccess()
+        {
+            _subscribed.complete(null);
+        }
+
+        @Override
+        public void onFailure()
+        {
+            _subscribed.completeExceptionally(new AWSIotException(getErrorCode(), getErrorMessage()));
+        }
+
+        @Override
+        public void onTimeout()
+        {
+            _subscribed.completeExceptionally(new AWSIotTimeoutException("Timed out subscribing to " + getTopic()));
+        }
+
         @Override
         public void onMessage(final AWSIotMessage message)
         {
+            // Shared by the unmarshaller and every filter so the payload is parsed at most once.
+            final List<MessageFilter.Parameters> batch;
             try
             {
-                final Event<?> event = _unmarshaller.unmarshall(message);
-                final Channel channel = new Channel(message.getTopic(), event.getEventType());
-                _subscriptions.get(channel).stream()
-                    .filter(sub -> _isAccepted(sub, message))
-                    .forEach(sub -> sub.receive(event));
+                batch = _unmarshaller.split(new MessageFilter.Parameters(message));
             }
-            catch (final UnmarshalException|ClassCastException e)
+            catch (final UnmarshalException e)
             {
                 _logger.error("Error unmarshalling " + message, e);
+                if (_measured) _metrics.unmarshalFailed(message.getTopic(), e);
+                return;
             }
+            for (final MessageFilter.Parameters params : batch)
+                _route(params);
         }
 
-        private boolean _isAccepted(final Subscription<?> subscription, final AWSIotMessage message)
+        private void _route(final MessageFilter.Parameters params)
         {
-            return subscription._messageFilter.accept(new MessageFilter.Parameters(message));
+            final String topic = params.getMessage().getTopic();
+            try
+            {
+                final long start = _measured ? System.nanoTime() : 0;
+                final Event<?> event = _unmarshaller.unmarshall(params);
+                if (_measured) _metrics.unmarshalled(topic, event.getEventType(), System.nanoTime() - start);
+                // The local subscriptions already received this event from the publisher in this JVM that sent it.
+                if (event.getOrigin() != null && _isLocal(event)) return;
+                for (final RoutingTable.Route route : _routes.lookup(topic, event.getEventType()))
+                {
+                    if (_measured)
+                    {
+                        _routeMeasured(params, event, route);
+                        continue;
+                    }
+                    // When broker subscriptions overlap the client calls every matching topic, so each one only delivers to
+                    // the subscriptions it carries.
+                    route.filters().match(params, subscription -> {
+                        if (subscription._carrier == this) subscription.receive(event);
+                    });
+                }
+            }
+            catch (final UnmarshalException|ClassCastException e)
+            {
+                _logger.error("Error unmarshalling " + params.getMessage(), e);
+                if (_measured) _metrics.unmarshalFailed(topic, e);
+            }
+        }
+
+        private void _routeMeasured(final MessageFilter.Parameters params, final Event<?> event, final RoutingTable.Route route)
+        {
+            for (final Subscription<?> subscription : _filterMeasured(params, route))
+            {
+                if (subscription._carrier == this) subscription.receive(event);
+            }
         }
     }
 
     /** An unmarshaller that creates {@link Event events} using Jackson to decode the payload. */
     private static final EventUnmarshaller DEFAULT_UNMARSHALLER = new JsonUnmarshaller();
 
+    /** The number of events that can be waiting to be delivered to each subscription. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /** The client's callback thread waits for room in a subscription's queue. */
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.BLOCK;
+
+    /** Daemon threads, one per processor, shared by all services that do not provide their own executor. */
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("event-dispatch-%d").build());
+
     /** Logger */
     private static final Logger _logger = LogManager.getLogger(SubscriptionService.class);
 
+    // Broker subscriptions by topic filter.
     private final Map<String, EventTopic> _topics = new ConcurrentHashMap<>();
-    private final Multimap<Channel, Subscription<?>> _subscriptions = synchronizedListMultimap(ArrayListMultimap.create());
+    // For each publisher in this JVM by origin, the channels that it delivers locally and also sends to the broker, with the
+    // number of times each was added.
+    private final Map<String, Map<Channel, Integer>> _localChannels = new ConcurrentHashMap<>();
+    // Also guards changes to _topics and the topic carriers so a topic is only subscribed and unsubscribed once.
+    private final RoutingTable _routes = new RoutingTable();
 
-    private final AWSIotMqttClient _client;
+    private final ConnectionManager _connection;
     private final EventUnmarshaller _unmarshaller;
+    private final Executor _executor;
+    private final int _queueCapacity;
+    private final OverflowPolicy _overflowPolicy;
+    private final EventMetrics _metrics;
+    // Checked before reading the clock, so a service without metrics does no measurement.
+    private final boolean _measured;
 
     /**
      * Create an instance of {@code SubscriptionService} that uses the {@link #DEFAULT_UNMARSHALLER default unmarshaller} to
@@ -134,14 +266,76 @@ public final class SubscriptionService
      */
     public SubscriptionService(final AWSIotMqttClient client, final EventUnmarshaller unmarshaller)
     {
-        _client = client;
+        this(new ConnectionManager(client), unmarshaller);
+    }
+
+    /**
+     * Create an instance of {@code SubscriptionService} that uses a connection that may be shared with a
+     * {@link PublisherService}. Topics are subscribed once the connection is established, and subscribed again whenever the
+     * connection manager reconnects.
+     *
+     * @param connection the connection manager
+     * @param unmarshaller the unmarshaller to use to decode event payloads
+     */
+    public SubscriptionService(final ConnectionManager connection, final EventUnmarshaller unmarshaller)
+    {
+        this(connection, unmarshaller, DEFAULT_EXECUTOR, DEFAULT_QUEUE_CAPACITY, DEFAULT_OVERFLOW_POLICY);
+    }
+
+    /**
+     * Create an instance of {@code SubscriptionService} that delivers events to subscribers on {@code executor} instead of the
+     * client's callback thread. Messages are decoded, routed and filtered on the callback thread, then each accepted event is
+     * added to a bounded queue for the subscription. A subscription's queue is delivered by one task at a time, so each
+     * subscriber sees events in the order they were received even when the executor is a shared pool.
+     *
+     * @param connection the connection manager
+     * @param unmarshaller the unmarshaller to use to decode event payloads
+     * @param executor the default executor used to deliver events to subscribers
+     * @param queueCapacity the maximum number of events waiting to be delivered to each subscription
+     * @param overflowPolicy what to do when an event is received and a subscription's queue is full. {@code BLOCK} blocks the
+     * client's callback thread, {@code FAIL_FAST} drops the new event and {@code DROP_OLDEST} drops the oldest queued event.
+     */
+    public SubscriptionService(
+        final ConnectionManager connection, final EventUnmarshaller unmarshaller, final Executor executor,
+        final int queueCapacity, final OverflowPolicy overflowPolicy)
+    {
+        this(connection, unmarshaller, executor, queueCapacity, overflowPolicy, EventMetrics.NONE);
+    }
+
+    /**
+     * Create an instance of {@code SubscriptionService} that reports unmarshalling time and errors, filter time and dispatch
+     * queue depth to {@code metrics}. Otherwise the same as
+     * {@link #SubscriptionService(ConnectionManager, EventUnmarshaller, Executor, int, OverflowPolicy)}.
+     *
+     * @param connection the connection manager
+     * @param unmarshaller the unmarshaller to use to decode event payloads
+     * @param executor the default executor used to deliver events to subscribers
+     * @param queueCapacity the maximum number of events waiting to be delivered to each subscription
+     * @param overflowPolicy what to do when an event is received and a subscription's queue is full
+     * @param metrics receives measurements, or {@link EventMetrics#NONE}
+     */
+    public SubscriptionService(
+        final ConnectionManager connection, final EventUnmarshaller unmarshaller, final Executor executor,
+        final int queueCapacity, final OverflowPolicy overflowPolicy, final EventMetrics metrics)
+    {
+        if (queueCapacity < 1) throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+        _connection = connection;
         _unmarshaller = unmarshaller;
+        _executor = executor;
+        _queueCapacity = queueCapacity;
+        _overflowPolicy = overflowPolicy;
+        _metrics = metrics;
+        _measured = metrics.isEnabled();
+        _connection.addListener(state -> {
+            if (state == ConnectionManager.State.CONNECTED) _topics.values().forEach(this::_subscribeTopic);
+        });
+        _connection.start();
     }
 
     /**
      * Subscribe to all events of the specified type sent to a topic.
      *
-     * @param topic the topic
+     * @param topic the topic or MQTT topic filter
      * @param eventType the event type
      * @param subscriber the subscriber to notify
      * @param <T> the type of the {@link Event#getPayload event payload}
@@ -155,36 +349,98 @@ public final class SubscriptionService
     /**
      * Subscribe to events of the specified type sent to a topic and filter them by payload.
      *
-     * @param topic the topic
+     * The topic may be an MQTT topic filter, where {@code +} matches a single level and a trailing {@code #} matches any number
+     * of levels, e.g. {@code devices/+/telemetry}. If an existing broker subscription already covers the topic, for example a
+     * subscription to {@code devices/+/telemetry} when subscribing to {@code devices/42/telemetry}, it is reused instead of
+     * subscribing the broker to the new topic.
+     *
+     * @param topic the topic or topic filter
      * @param eventType the event type
      * @param messageFilter the filter to use to ignore messages
      * @param subscriber the subscriber to notify
      * @param <T> the type of the {@link Event#getPayload event payload}
      *
-     * @return a future that contains the subscription
+     * @return a future that contains the subscription, completed once the broker has acknowledged the topic subscription
+     *
+     * @throws IllegalArgumentException if {@code topic} is not a valid topic filter
      */
     public <T> CompletableFuture<Subscription<T>> subscribe(
         final String topic, final String eventType, final MessageFilter messageFilter,
         final Subscriber<T> subscriber)
     {
-        final CompletableFuture<Subscription<T>> result = new CompletableFuture<>();
+        return subscribe(topic, eventType, messageFilter, subscriber, _executor);
+    }
 
-        final Channel channel = new Channel(topic, eventType);
-        final Subscription<T> subscription = new Subscription<>(topic, eventType, messageFilter, subscriber);
-        try
-        {
-            if (!_topics.containsKey(topic)) _createTopic(topic);
+    /**
+     * Subscribe to events of the specified type sent to a topic and filter them by payload, telling the unmarshaller the type
+     * of their payload so it can be bound without looking up a class by name.
+     *
+     * @param topic the topic or topic filter
+     * @param eventType the event type
+     * @param payloadType the type of the event payload
+     * @param messageFilter the filter to use to ignore messages
+     * @param subscriber the subscriber to notify
+     * @param <T> the type of the {@link Event#getPayload event payload}
+     *
+     * @return a future that contains the subscription, completed once the broker has acknowledged the topic subscription
+     *
+     * @throws IllegalArgumentException if {@code topic} is not a valid topic filter, or if a different payload type is already
+     * registered for {@code eventType}
+     * @see EventUnmarshaller#registerPayloadType
+     */
+    public <T> CompletableFuture<Subscription<T>> subscribe(
+        final String topic, final String eventType, final Class<T> payloadType, final MessageFilter messageFilter,
+        final Subscriber<T> subscriber)
+    {
+        _unmarshaller.registerPayloadType(eventType, payloadType);
+        return subscribe(topic, eventType, messageFilter, subscriber, _executor);
+    }
 
-            _subscriptions.put(channel, subscription);
-            result.complete(subscription);
-        }
-        catch (final AWSIotException e)
+    /**
+     * Subscribe to events of the specified type sent to a topic, filter them by payload, and deliver them on a specific
+     * executor. This can be used to give a slow subscriber its own thread, e.g. {@link Executors#newSingleThreadExecutor()}, so
+     * it does not compete with other subscribers for the service's executor.
+     *
+     * @param topic the topic or topic filter
+     * @param eventType the event type
+     * @param messageFilter the filter to use to ignore messages
+     * @param subscriber the subscriber to notify
+     * @param executor the executor used to deliver events to the subscriber
+     * @param <T> the type of the {@link Event#getPayload event payload}
+     *
+     * @return a future that contains the subscription, completed once the broker has acknowledged the topic subscription
+     *
+     * @throws IllegalArgumentException if {@code topic} is not a valid topic filter
+     * @see #subscribe(String, String, MessageFilter, Subscriber)
+     */
+    public <T> CompletableFuture<Subscription<T>> subscribe(
+        final String topic, final String eventType, final MessageFilter messageFilter,
+        final Subscriber<T> subscriber, final Executor executor)
+    {
+        TopicFilter.validate(topic);
+        final Subscription<T> subscription = new Subscription<>(topic, eventType, messageFilter, subscriber,
+            new DispatchQueue(executor, _queueCapacity, _overflowPolicy), _measured ? _metrics : null);
+        final EventTopic eventTopic;
+        final boolean created;
+        synchronized (_routes)
         {
-            _logger.error("Error subscribing to " + topic, e);
-            result.completeExceptionally(e);
+            final EventTopic carrier = _findCarrier(topic);
+            created = carrier == null;
+            eventTopic = created ? new EventTopic(topic) : carrier;
+            if (created) _topics.put(topic, eventTopic);
+            eventTopic._carried++;
+            subscription._carrier = eventTopic;
+            _routes.add(subscription);
         }
+        // If the connection is down the topic is subscribed by the connection listener once it is back up.
+        if (created && _connection.isConnected()) _subscribeTopic(eventTopic);
 
-        return result;
+        return eventTopic._subscribed.handle((ignored, error) -> {
+            if (error == null) return subscription;
+            _logger.error("Error subscribing to " + topic, error);
+            _remove(subscription);
+            throw new CompletionException(error);
+        });
     }
 
     /**
@@ -194,33 +450,109 @@ public final class SubscriptionService
      */
     public void unsubscribe(final Subscription<?> subscription)
     {
-        final Channel channel = new Channel(subscription._topic, subscription._eventType);
-        _subscriptions.remove(channel, subscription);
-        if (!_subscriptions.containsKey(channel))
+        final EventTopic eventTopic = _remove(subscription);
+        if (eventTopic == null) return;
+        try
         {
-            try
-            {
-                _removeTopic(subscription._topic);
-            }
-            catch (AWSIotException e)
-            {
-                _logger.error("Error unsubscribing from " + subscription._topic, e);
-            }
+            _connection.getTransport().unsubscribe(eventTopic);
+        }
+        catch (AWSIotException e)
+        {
+            _logger.error("Error unsubscribing from " + eventTopic.getTopic(), e);
         }
     }
 
-    private void _createTopic(final String topic) throws AWSIotException
+    // Delivers an event published in this JVM to the matching subscriptions, without a round trip through the broker. The event
+    // is only marshalled if a filter reads the payload. Every route is filtered before any subscription receives the event, so
+    // if the event cannot be marshalled the LocalMessage.MarshalFailure is thrown before any of them do.
+    void deliverLocally(final Event<?> event, final EventMarshaller marshaller)
+    {
+        final RoutingTable.Route[] routes = _routes.lookup(event.getTopic(), event.getEventType());
+        if (routes.length == 0) return;
+        final MessageFilter.Parameters params = new MessageFilter.Parameters(new LocalMessage(event, marshaller, _unmarshaller));
+        final List<Subscription<?>> accepted = new ArrayList<>();
+        for (final RoutingTable.Route route : routes)
+        {
+            if (_measured) accepted.addAll(_filterMeasured(params, route));
+            else route.filters().match(params, accepted::add);
+        }
+        for (final Subscription<?> subscription : accepted)
+            subscription.receive(event);
+    }
+
+    // Messages from the broker for the channel that the publisher marked with its origin are ignored until the channel is
+    // removed as many times as it was added.
+    void addLocalChannel(final String origin, final Channel channel)
+    {
+        _localChannels.compute(origin, (ignored, channels) -> {
+            final Map<Channel, Integer> updated = channels != null ? channels : new ConcurrentHashMap<>();
+            updated.merge(channel, 1, Integer::sum);
+            return updated;
+        });
+    }
+
+    void removeLocalChannel(final String origin, final Channel channel)
+    {
+        _localChannels.computeIfPresent(origin, (ignored, channels) -> {
+            channels.computeIfPresent(channel, (unused, count) -> count > 1 ? count - 1 : null);
+            return channels.isEmpty() ? null : channels;
+        });
+    }
+
+    private boolean _isLocal(final Event<?> event)
+    {
+        final Map<Channel, Integer> channels = _localChannels.get(event.getOrigin());
+        return channels != null && channels.containsKey(new Channel(event));
+    }
+
+    // Filters are timed apart from delivery, which may block when a queue is full.
+    private List<Subscription<?>> _filterMeasured(final MessageFilter.Parameters params, final RoutingTable.Route route)
     {
-        // FIXME: this needs to be on a separate thread in the completed version
-        final EventTopic eventTopic = new EventTopic(topic);
-        _client.subscribe(eventTopic);
-        _topics.put(topic, eventTopic);
+        final List<Subscription<?>> accepted = new ArrayList<>();
+        final long start = System.nanoTime();
+        route.filters().match(params, accepted::add);
+        final long duration = System.nanoTime() - start;
+        final Subscription<?> first = route._subscriptions[0];
+        _metrics.filtered(first._topic, first._eventType, route._subscriptions.length, accepted.size(), duration);
+        return accepted;
     }
 
-    private void _removeTopic(final String topic) throws AWSIotException
+    // Find a broker subscription whose filter matches every topic that the filter provided matches, preferring an exact match.
+    private EventTopic _findCarrier(final String topic)
     {
-        // FIXME: this needs to be on a separate thread in the completed version
-        final EventTopic eventTopic = requireNonNull(_topics.remove(topic));
-        _client.unsubscribe(eventTopic);
+        final EventTopic exact = _topics.get(topic);
+        if (exact != null) return exact;
+        for (final EventTopic eventTopic : _topics.values())
+        {
+            if (TopicFilter.covers(eventTopic.getTopic(), topic)) return eventTopic;
+        }
+        return null;
+    }
+
+    // Returns the broker subscription that carried the subscription if nothing else uses it.
+    private EventTopic _remove(final Subscription<?> subscription)
+    {
+        synchronized (_routes)
+        {
+            if (!_routes.remove(subscription)) return null;
+            final EventTopic eventTopic = (EventTopic) subscription._carrier;
+            if (--eventTopic._carried > 0) return null;
+            _topics.remove(eventTopic.getTopic(), eventTopic);
+            return eventTopic;
+        }
+    }
+
+    private void _subscribeTopic(final EventTopic eventTopic)
+    {
+        try
+        {
+            // Non-blocking: the transport calls back on the topic when the broker responds.
+            _connection.getTransport().subscribe(eventTopic);
+        }
+        catch (final AWSIotException e)
+        {
+            _connection.checkConnection();
+            eventTopic._subscribed.completeExceptionally(e);
+        }
     }
 }
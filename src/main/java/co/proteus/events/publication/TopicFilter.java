@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+// MQTT topic filter rules: levels are separated by '/', '+' matches exactly one level and '#' matches any number of levels
+// (including none) and must be the last level. Wildcards must occupy a whole level.
+final class TopicFilter
+{
+    static final String SEPARATOR = "/";
+    static final String SINGLE_LEVEL = "+";
+    static final String MULTI_LEVEL = "#";
+
+    private TopicFilter()
+    {
+    }
+
+    static boolean isWildcard(final String filter)
+    {
+        return filter.indexOf('+') >= 0 || filter.indexOf('#') >= 0;
+    }
+
+    static String[] levels(final String filter)
+    {
+        return filter.split(SEPARATOR, -1);
+    }
+
+    static void validate(final String filter)
+    {
+        if (filter.isEmpty()) throw new IllegalArgumentException("Topic filter is empty");
+        final String[] levels = levels(filter);
+        for (int i = 0; i < levels.length; i++)
+        {
+            final String level = levels[i];
+            if (level.equals(MULTI_LEVEL) && i != levels.length - 1)
+                throw new IllegalArgumentException("'#' must be the last level of " + filter);
+            if (level.length() > 1 && (level.contains(SINGLE_LEVEL) || level.contains(MULTI_LEVEL)))
+                throw new IllegalArgumentException("Wildcards must occupy a whole level of " + filter);
+        }
+    }
+
+    // True if every topic that matches other also matches filter.
+    static boolean covers(final String filter, final String other)
+    {
+        final String[] outer = levels(filter);
+        final String[] inner = levels(other);
+        for (int i = 0; i < outer.length; i++)
+        {
+            if (outer[i].equals(MULTI_LEVEL)) return i > 0 || !inner[0].startsWith("$");
+            if (i >= inner.length || inner[i].equals(MULTI_LEVEL)) return false;
+            if (outer[i].equals(SINGLE_LEVEL))
+            {
+                if (i == 0 && inner[0].startsWith("$")) return false;
+                continue;
+            }
+            if (!outer[i].equals(inner[i])) return false;
+        }
+        return outer.length == inner.length;
+    }
+}
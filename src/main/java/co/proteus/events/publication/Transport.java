@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotConnectionStatus;
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotMqttClient;
+import com.amazonaws.services.iot.client.AWSIotTopic;
+
+/**
+ * The messaging layer beneath {@link PublisherService} and {@link SubscriptionService}, managed by a
+ * {@link ConnectionManager}. An {@link AWSIotMqttClient} is used through a transport that sends messages to AWS IoT;
+ * {@link InMemoryBroker#createTransport()} creates transports that exchange messages within the JVM.
+ *
+ * <p>Messages and subscriptions are the IoT client's {@link AWSIotMessage} and {@link AWSIotTopic}, which carry the callbacks
+ * for their outcome. Publishing and subscribing must not block waiting for the broker.</p>
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public interface Transport
+{
+    /**
+     * Connect to the broker, blocking until connected.
+     *
+     * @throws AWSIotException thrown if the connection fails
+     */
+    void connect() throws AWSIotException;
+
+    /**
+     * Disconnect from the broker.
+     *
+     * @throws AWSIotException thrown if disconnecting fails
+     */
+    void disconnect() throws AWSIotException;
+
+    /**
+     * Get the connection status.
+     *
+     * @return the status
+     */
+    AWSIotConnectionStatus getConnectionStatus();
+
+    /**
+     * Get a description of the broker for log messages.
+     *
+     * @return the endpoint
+     */
+    String getEndpoint();
+
+    /**
+     * Send a message. The transport calls {@link AWSIotMessage#onSuccess()}, {@link AWSIotMessage#onFailure()} or
+     * {@link AWSIotMessage#onTimeout()} on the message once the outcome is known.
+     *
+     * @param message the message
+     *
+     * @throws AWSIotException thrown if the message cannot be sent, for example because the transport is not connected
+     */
+    void publish(final AWSIotMessage message) throws AWSIotException;
+
+    /**
+     * Subscribe to a topic filter. The transport calls {@link AWSIotTopic#onSuccess()} or {@link AWSIotTopic#onFailure()} on
+     * the topic once the broker responds, and then {@link AWSIotTopic#onMessage} for each message whose topic matches.
+     *
+     * @param topic the topic filter and its callbacks
+     *
+     * @throws AWSIotException thrown if the subscription cannot be sent
+     */
+    void subscribe(final AWSIotTopic topic) throws AWSIotException;
+
+    /**
+     * Remove a subscription.
+     *
+     * @param topic the topic passed to {@link #subscribe}
+     *
+     * @throws AWSIotException thrown if the request cannot be sent
+     */
+    void unsubscribe(final AWSIotTopic topic) throws AWSIotException;
+}
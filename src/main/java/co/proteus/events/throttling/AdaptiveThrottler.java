@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.throttling;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import co.proteus.events.publication.PublishStatus;
+
+/**
+ * A throttler that limits events to a rate that it adjusts to how the broker is coping, using additive increase and
+ * multiplicative decrease (AIMD). Events are admitted by a token bucket that holds a tenth of a second of events at the
+ * current rate. The throttler is told the outcome of each event it sends, and at the end of each window:
+ * <ul>
+ * <li>If any event failed, for example because the broker rejected it or timed out, or was {@link PublishStatus#STORED stored}
+ * or {@link PublishStatus#DROPPED dropped} instead of being sent, or if more than a tenth of the events took longer than the
+ * latency target from being sent to being acknowledged, the rate is halved, down to the minimum rate. Time an event spends
+ * waiting for its batch or in the publish queue is not counted.</li>
+ * <li>Otherwise, if the rate held back any events, it is raised by a thirty-second of the difference between the minimum and
+ * maximum rates, up to the maximum rate.</li>
+ * </ul>
+ * Outcomes of events that were sent before the rate was last lowered are ignored, since they show the congestion that lowered
+ * it. The rate starts at the maximum. Register one throttler for each channel, so each channel adapts on its own.
+ *
+ * @param <T> the event payload type
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class AdaptiveThrottler<T> implements EventThrottler<T>
+{
+    /** How often the rate is adjusted. */
+    public static final Duration DEFAULT_WINDOW = Duration.ofSeconds(1);
+
+    private static final Logger _logger = LogManager.getLogger(AdaptiveThrottler.class);
+
+    private static final double DECREASE = 0.5;
+    private static final int INCREASE_STEPS = 32;
+    private static final double SLOW_FRACTION = 0.1;
+    private static final double BURST_SECONDS = 0.1;
+
+    // The bucket for a rate.
+    private static final class Limit
+    {
+        final double _rate;
+        final long _intervalNanos;
+        final long _toleranceNanos;
+
+        Limit(final double rate)
+        {
+            _rate = rate;
+            _intervalNanos = Math.max(1L, (long) (1e9 / rate));
+            _toleranceNanos = _intervalNanos * Math.max(1L, Math.round(rate * BURST_SECONDS));
+        }
+    }
+
+    private final LongSupplier _clock;
+    private final double _minRate;
+    private final double _maxRate;
+    private final double _increase;
+    private final long _latencyTargetNanos;
+    private final long _windowNanos;
+    // The time at which the bucket will be full again, in clock nanoseconds.
+    private final AtomicLong _fullAt;
+    private volatile Limit _limit;
+    private volatile long _windowEnd;
+    private volatile boolean _limited;
+    // Guarded by this.
+    private long _decreasedAt;
+    private int _completed;
+    private int _slow;
+    private int _failed;
+
+    /**
+     * Create an instance of {@code AdaptiveThrottler} that adjusts its rate every {@link #DEFAULT_WINDOW window}.
+     *
+     * @param minRate the lowest rate, in events per second
+     * @param maxRate the highest rate, in events per second, which is also the starting rate
+     * @param latencyTarget how long sending an event should take when the broker is keeping up
+     */
+    public AdaptiveThrottler(final double minRate, final double maxRate, final Duration latencyTarget)
+    {
+        this(minRate, maxRate, latencyTarget, DEFAULT_WINDOW, System::nanoTime);
+    }
+
+    AdaptiveThrottler(
+        final double minRate, final double maxRate, final Duration latencyTarget, final Duration window,
+        final LongSupplier clock)
+    {
+        if (!(minRate > 0)) throw new IllegalArgumentException("minRate must be positive: " + minRate);
+        if (!(maxRate >= minRate)) throw new IllegalArgumentException("maxRate must be at least minRate: " + maxRate);
+        if (maxRate > 1e9) throw new IllegalArgumentException("maxRate is too high: " + maxRate);
+        _minRate = minRate;
+        _maxRate = maxRate;
+        _increase = (maxRate - minRate) / INCREASE_STEPS;
+        _latencyTargetNanos = latencyTarget.toNanos();
+        _windowNanos = window.toNanos();
+        _clock = clock;
+        final long now = clock.getAsLong();
+        _fullAt = new AtomicLong(now);
+        _limit = new Limit(maxRate);
+        _windowEnd = now + _windowNanos;
+        _decreasedAt = now;
+    }
+
+    /**
+     * Get the current rate.
+     *
+     * @return the rate, in events per second
+     */
+    public double getRate()
+    {
+        return _limit._rate;
+    }
+
+    @Override
+    public boolean shouldSend(final Parameters<T> params)
+    {
+        final long now = _clock.getAsLong();
+        if (now - _windowEnd >= 0) _adjust(now);
+        final Limit limit = _limit;
+        while (true)
+        {
+            final long fullAt = _fullAt.get();
+            final long next = Math.max(fullAt - now, 0) + limit._intervalNanos;
+            if (next > limit._toleranceNanos)
+            {
+                if (!_limited) _limited = true;
+                return false;
+            }
+            if (_fullAt.compareAndSet(fullAt, now + next)) return true;
+        }
+    }
+
+    @Override
+    public boolean isAdaptive()
+    {
+        return true;
+    }
+
+    @Override
+    public void completed(final Parameters<T> params, final PublishStatus status, final Throwable error, final long latencyNanos)
+    {
+        final long now = _clock.getAsLong();
+        final boolean failed = error != null || status == PublishStatus.STORED || status == PublishStatus.DROPPED;
+        synchronized (this)
+        {
+            if (now - latencyNanos - _decreasedAt >= 0)
+            {
+                _completed++;
+                if (failed) _failed++;
+                else if (latencyNanos > _latencyTargetNanos) _slow++;
+            }
+        }
+        if (now - _windowEnd >= 0) _adjust(now);
+    }
+
+    private synchronized void _adjust(final long now)
+    {
+        // Another thread may have adjusted the rate since the window was checked.
+        if (now - _windowEnd < 0) return;
+        final double rate = _limit._rate;
+        double next = rate;
+        if (_failed > 0 || _slow > _completed * SLOW_FRACTION)
+        {
+            next = Math.max(_minRate, rate * DECREASE);
+            _decreasedAt = now;
+        }
+        else if (_limited)
+        {
+            next = Math.min(_maxRate, rate + _increase);
+        }
+        if (next != rate)
+        {
+            _limit = new Limit(next);
+            _logger.debug("Rate changed from " + rate + " to " + next + " after " + _completed + " events, " + _failed
+                          + " failed and " + _slow + " slow");
+        }
+        _completed = 0;
+        _slow = 0;
+        _failed = 0;
+        _limited = false;
+        _windowEnd = now + _windowNanos;
+    }
+}
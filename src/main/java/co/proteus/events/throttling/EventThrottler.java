@@ -12,6 +12,7 @@
 package co.proteus.events.throttling;
 
 import co.proteus.events.publication.Event;
+import co.proteus.events.publication.PublishStatus;
 import co.proteus.events.publication.PublisherService;
 
 /**
@@ -67,4 +68,29 @@ public interface EventThrottler<T>
      * @return true to send the event, false to drop it
      */
     boolean shouldSend(final Parameters<T> params);
+
+    /**
+     * Check if this throttler adapts to the outcome of the events it sends. If so, {@link PublisherService} times each event
+     * that it sends and reports the outcome to {@link #completed}; otherwise it does neither.
+     *
+     * @return true to be told the outcome of sent events. The default is false.
+     */
+    default boolean isAdaptive()
+    {
+        return false;
+    }
+
+    /**
+     * Called by an {@link #isAdaptive adaptive} throttler's {@link PublisherService} when an event that the throttler allowed,
+     * or that was deferred for coalescing and later sent, has been published or has failed. The default does nothing.
+     *
+     * @param params information about the event
+     * @param status the status of the published event, or null if it failed
+     * @param error the error the publish failed with, or null if it did not fail
+     * @param latencyNanos the time from sending the event to the outcome, in nanoseconds. Time spent waiting for a batch to
+     * fill or for room in the publish queue is not included, except when the publish failed before the event was sent.
+     */
+    default void completed(final Parameters<T> params, final PublishStatus status, final Throwable error, final long latencyNanos)
+    {
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.throttling;
+
+import java.time.Duration;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A throttler that limits events separately for each key derived from the event payload, such as a device ID, so that one
+ * noisy source cannot use up the limit for the others. Each key gets its own throttler from a factory, for example a
+ * {@link TokenBucketThrottler}.
+ * <p>
+ * Memory is bounded: keys that have not been seen for {@code idleTimeout} are evicted, and when more than {@code maxKeys} keys
+ * are tracked the least recently used keys are evicted as well. An evicted key starts again with a new throttler the next time
+ * it is seen.
+ *
+ * @param <T> the event payload type
+ * @param <K> the key type
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class PerKeyThrottler<T, K> implements EventThrottler<T>
+{
+    private static final class Entry<T>
+    {
+        final EventThrottler<T> _throttler;
+        volatile long _lastUsed;
+
+        Entry(final EventThrottler<T> throttler, final long now)
+        {
+            _throttler = throttler;
+            _lastUsed = now;
+        }
+    }
+
+    private static final Object NULL_KEY = new Object();
+
+    private final LongSupplier _clock;
+    private final Function<? super T, ? extends K> _keyExtractor;
+    private final Supplier<? extends EventThrottler<T>> _factory;
+    private final int _maxKeys;
+    private final long _idleNanos;
+    // Keyed by the payload key, or NULL_KEY since ConcurrentHashMap does not allow null keys.
+    private final Map<Object, Entry<T>> _entries = new ConcurrentHashMap<>();
+    private final AtomicLong _nextSweep;
+
+    /**
+     * Create an instance of {@code PerKeyThrottler}.
+     *
+     * @param keyExtractor derives the key from an event payload; events whose key is null share a throttler
+     * @param factory creates the throttler for a new key
+     * @param maxKeys the maximum number of keys tracked at once
+     * @param idleTimeout how long a key is kept after its last event
+     */
+    public PerKeyThrottler(
+        final Function<? super T, ? extends K> keyExtractor, final Supplier<? extends EventThrottler<T>> factory,
+        final int maxKeys, final Duration idleTimeout)
+    {
+        this(keyExtractor, factory, maxKeys, idleTimeout, System::nanoTime);
+    }
+
+    PerKeyThrottler(
+        final Function<? super T, ? extends K> keyExtractor, final Supplier<? extends EventThrottler<T>> factory,
+        final int maxKeys, final Duration idleTimeout, final LongSupplier clock)
+    {
+        if (maxKeys < 1) throw new IllegalArgumentException("maxKeys must be positive: " + maxKeys);
+        if (idleTimeout.isZero() || idleTimeout.isNegative())
+            throw new IllegalArgumentException("idleTimeout must be positive: " + idleTimeout);
+        _clock = clock;
+        _keyExtractor = keyExtractor;
+        _factory = factory;
+        _maxKeys = maxKeys;
+        _idleNanos = idleTimeout.toNanos();
+        _nextSweep = new AtomicLong(clock.getAsLong() + _idleNanos);
+    }
+
+    @Override
+    public boolean shouldSend(final Parameters<T> params)
+    {
+        final long now = _clock.getAsLong();
+        final K key = _keyExtractor.apply(params.getEvent().getPayload());
+        final Entry<T> entry = _entries.computeIfAbsent(key != null ? key : NULL_KEY, it -> new Entry<>(_factory.get(), now));
+        entry._lastUsed = now;
+
+        final long nextSweep = _nextSweep.get();
+        if (now - nextSweep >= 0 && _nextSweep.compareAndSet(nextSweep, now + _idleNanos)) _evictIdle(now);
+        if (_entries.size() > _maxKeys) _evictOldest();
+
+        return entry._throttler.shouldSend(params);
+    }
+
+    /**
+     * Get the number of keys currently tracked.
+     *
+     * @return the number of keys
+     */
+    public int getKeyCount()
+    {
+        return _entries.size();
+    }
+
+    private void _evictIdle(final long now)
+    {
+        _entries.values().removeIf(entry -> now - entry._lastUsed >= _idleNanos);
+    }
+
+    // Evicts down to a little below the limit so the scan is not repeated for every new key. The last used times are copied
+    // first because other threads keep updating them while the keys are sorted.
+    private void _evictOldest()
+    {
+        final List<SimpleImmutableEntry<Object, Long>> lastUsed = new ArrayList<>(_entries.size());
+        _entries.forEach((key, entry) -> lastUsed.add(new SimpleImmutableEntry<>(key, entry._lastUsed)));
+        final int excess = lastUsed.size() - (_maxKeys - _maxKeys / 16);
+        if (excess <= 0) return;
+        lastUsed.sort(Comparator.comparingLong(SimpleImmutableEntry::getValue));
+        for (int i = 0; i < excess; i++)
+            _entries.remove(lastUsed.get(i).getKey());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.throttling;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * A throttler that sends at most {@code limit} events in any window of time. The number of events in the sliding window is
+ * estimated from the counts of the current and previous fixed windows, weighting the previous count by how much of it still
+ * overlaps the sliding window. This needs constant memory no matter how many events are sent, and unlike a fixed window it
+ * does not allow twice the limit across a window boundary.
+ * <p>
+ * The counts are replaced with a compare-and-set, so deciding whether to send an event never blocks.
+ *
+ * @param <T> the event payload type
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class SlidingWindowThrottler<T> implements EventThrottler<T>
+{
+    private static final class Counts
+    {
+        final long _start;
+        final long _previous;
+        final long _current;
+
+        Counts(final long start, final long previous, final long current)
+        {
+            _start = start;
+            _previous = previous;
+            _current = current;
+        }
+
+        Counts advance(final long now, final long windowNanos)
+        {
+            final long elapsed = (now - _start) / windowNanos;
+            if (elapsed <= 0) return this;
+            final long start = _start + elapsed * windowNanos;
+            return new Counts(start, elapsed == 1 ? _current : 0, 0);
+        }
+    }
+
+    private final LongSupplier _clock;
+    private final long _limit;
+    private final long _windowNanos;
+    private final AtomicReference<Counts> _counts;
+
+    /**
+     * Create an instance of {@code SlidingWindowThrottler}.
+     *
+     * @param limit the maximum number of events sent in any window
+     * @param window the length of the window
+     */
+    public SlidingWindowThrottler(final long limit, final Duration window)
+    {
+        this(limit, window, System::nanoTime);
+    }
+
+    SlidingWindowThrottler(final long limit, final Duration window, final LongSupplier clock)
+    {
+        if (limit < 1) throw new IllegalArgumentException("limit must be positive: " + limit);
+        if (window.isZero() || window.isNegative()) throw new IllegalArgumentException("window must be positive: " + window);
+        _clock = clock;
+        _limit = limit;
+        _windowNanos = window.toNanos();
+        _counts = new AtomicReference<>(new Counts(clock.getAsLong(), 0, 0));
+    }
+
+    @Override
+    public boolean shouldSend(final Parameters<T> params)
+    {
+        while (true)
+        {
+            final long now = _clock.getAsLong();
+            final Counts counts = _counts.get();
+            final Counts current = counts.advance(now, _windowNanos);
+            final double overlap = 1.0 - (double) (now - current._start) / _windowNanos;
+            if (current._previous * overlap + current._current >= _limit)
+            {
+                // Keep the rolled over window so later calls do not have to recompute it; losing the race is harmless.
+                if (current != counts) _counts.compareAndSet(counts, current);
+                return false;
+            }
+            if (_counts.compareAndSet(counts, new Counts(current._start, current._previous, current._current + 1))) return true;
+        }
+    }
+}
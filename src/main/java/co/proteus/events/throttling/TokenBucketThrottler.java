@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.throttling;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A throttler that sends events as long as there are tokens in a bucket. Each event takes one token, and the bucket refills at a
+ * steady rate up to its capacity, so short bursts of up to {@code capacity} events are sent while the long term rate is limited
+ * to {@code tokens} events per {@code period}.
+ * <p>
+ * The bucket is tracked as the time at which it will next be full, so deciding whether to send an event is a single
+ * compare-and-set and never blocks.
+ *
+ * @param <T> the event payload type
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class TokenBucketThrottler<T> implements EventThrottler<T>
+{
+    private final LongSupplier _clock;
+    private final long _intervalNanos;
+    private final long _toleranceNanos;
+    // The time at which the bucket will be full again, in clock nanoseconds.
+    private final AtomicLong _fullAt;
+
+    /**
+     * Create an instance of {@code TokenBucketThrottler} that starts with a full bucket.
+     *
+     * @param capacity the maximum number of tokens in the bucket
+     * @param tokens the number of tokens added to the bucket every {@code period}
+     * @param period the refill period
+     */
+    public TokenBucketThrottler(final long capacity, final long tokens, final Duration period)
+    {
+        this(capacity, tokens, period, System::nanoTime);
+    }
+
+    TokenBucketThrottler(final long capacity, final long tokens, final Duration period, final LongSupplier clock)
+    {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        if (tokens < 1) throw new IllegalArgumentException("tokens must be positive: " + tokens);
+        _intervalNanos = period.toNanos() / tokens;
+        if (_intervalNanos < 1) throw new IllegalArgumentException("Refill rate is too high: " + tokens + " per " + period);
+        _toleranceNanos = Math.multiplyExact(_intervalNanos, capacity);
+        _clock = clock;
+        _fullAt = new AtomicLong(clock.getAsLong());
+    }
+
+    @Override
+    public boolean shouldSend(final Parameters<T> params)
+    {
+        while (true)
+        {
+            final long now = _clock.getAsLong();
+            final long fullAt = _fullAt.get();
+            final long next = Math.max(fullAt - now, 0) + _intervalNanos;
+            if (next > _toleranceNanos) return false;
+            if (_fullAt.compareAndSet(fullAt, now + next)) return true;
+        }
+    }
+}
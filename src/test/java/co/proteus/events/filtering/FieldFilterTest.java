@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.filtering;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import co.proteus.events.filtering.MessageFilter.Parameters;
+import co.proteus.events.marshalling.smile.SmileMarshaller;
+import co.proteus.events.publication.Event;
+
+import static co.proteus.events.TestGroups.UNIT;
+import static co.proteus.events.filtering.FieldFilter.fieldFilter;
+import static co.proteus.events.filtering.JmesPathFilter.jmesPathFilter;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link FieldFilter}.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class FieldFilterTest
+{
+    private static final String TOPIC = "sample/topic";
+
+    private static final String[] PAYLOADS = {
+        "{\"severity\":4,\"region\":\"eu\",\"location\":{\"floor\":2,\"zone\":\"b\"},\"active\":true}",
+        "{\"severity\":2.0,\"region\":\"us\",\"location\":{\"floor\":\"2\"},\"active\":false,\"note\":null}",
+        "{\"region\":\"eu\",\"location\":[1,2],\"severity\":3,\"tags\":{\"severity\":9}}",
+        "{\"severity\":-0.0,\"location\":{\"zone\":\"b\",\"floor\":2.0}}",
+        "\"eu\"",
+        "null",
+    };
+
+    private static Parameters _params(final String payload)
+    {
+        final String json = "{\"eventType\":\"sample-type\",\"payload\":" + payload + "}";
+        return new Parameters(new AWSIotMessage(TOPIC, QOS0, json.getBytes(UTF_8)));
+    }
+
+    @DataProvider
+    Object[][] createPredicates()
+    {
+        // Each predicate and the equivalent JMESPath expression.
+        return new Object[][]
+            {
+                {"severity >= 3 && region == \"eu\"", "payload.severity >= `3` && payload.region == 'eu'"},
+                {"severity > 3 || region == 'us'", "payload.severity > `3` || payload.region == 'us'"},
+                {"severity == 2", "payload.severity == `2`"},
+                {"severity != 4", "payload.severity != `4`"},
+                {"severity < 0 || severity == 0", "payload.severity < `0` || payload.severity == `0`"},
+                {"3 <= severity", "`3` <= payload.severity"},
+                {"location.floor == 2 && location.zone == 'b'", "payload.location.floor == `2` && payload.location.zone == 'b'"},
+                {"location.floor <= 2", "payload.location.floor <= `2`"},
+                {"active == true", "payload.active == `true`"},
+                {"!(active == false)", "!(payload.active == `false`)"},
+                {"note == null", "payload.note == `null`"},
+                {"location != null && severity > 1", "payload.location != `null` && payload.severity > `1`"},
+                {"missing.field == null", "payload.missing.field == `null`"},
+            };
+    }
+
+    @Test(groups = UNIT, dataProvider = "createPredicates")
+    public void filtersShouldMatchJmesPath(final String predicate, final String expression)
+    {
+        final FieldFilter filter = new FieldFilter(predicate);
+        final JmesPathFilter expected = jmesPathFilter(expression);
+        for (final String payload : PAYLOADS)
+        {
+            assertEquals(filter.accept(_params(payload)), expected.accept(_params(payload)), predicate + " on " + payload);
+            final Parameters parsed = _params(payload);
+            expected.accept(parsed);
+            assertEquals(filter.accept(parsed), expected.accept(parsed), predicate + " on parsed " + payload);
+        }
+    }
+
+    @Test(groups = UNIT)
+    public void readingShouldStopOnceTheResultIsKnown()
+    {
+        final String truncated = "{\"eventType\":\"sample-type\",\"payload\":{\"severity\":1,\"region\":\"eu\",\"details\":[";
+        final Parameters params = new Parameters(new AWSIotMessage(TOPIC, QOS0, truncated.getBytes(UTF_8)));
+        assertFalse(fieldFilter("severity >= 3 && region == 'eu'").accept(params));
+        assertTrue(fieldFilter("region == 'eu' || severity >= 3").accept(params));
+        assertFalse(fieldFilter("details == null").accept(params));
+        assertFalse(params.isJsonParsed());
+    }
+
+    @Test(groups = UNIT)
+    public void largeIntegersShouldBeComparedExactly()
+    {
+        // 2^53 + 1 and 2^64 + 1, which are not doubles.
+        final Parameters params = _params("{\"id\":9007199254740993,\"serial\":18446744073709551617,\"ratio\":0.5}");
+        assertTrue(fieldFilter("id == 9007199254740993").accept(params));
+        assertFalse(fieldFilter("id == 9007199254740992").accept(params));
+        assertTrue(fieldFilter("id > 9007199254740992 && id < 9007199254740994").accept(params));
+        assertTrue(fieldFilter("serial == 18446744073709551617").accept(params));
+        assertFalse(fieldFilter("serial == 18446744073709551616").accept(params));
+        assertTrue(fieldFilter("serial > 18446744073709551616 && serial > 9007199254740993").accept(params));
+        assertTrue(fieldFilter("id < 18446744073709551617 && ratio < 1 && ratio == 5e-1").accept(params));
+    }
+
+    @Test(groups = UNIT)
+    public void smilePayloadsShouldBeFiltered() throws Exception
+    {
+        final Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("severity", 5);
+        payload.put("region", "eu");
+        final AWSIotMessage message = new SmileMarshaller(QOS0).marshall(new Event<>(TOPIC, "sample-type", payload));
+        assertTrue(fieldFilter("severity >= 3 && region == 'eu'").accept(new Parameters(message)));
+        assertFalse(fieldFilter("severity >= 3 && region == 'us'").accept(new Parameters(message)));
+    }
+
+    @Test(groups = UNIT)
+    public void equalPredicatesShouldShareFilters()
+    {
+        assertSame(fieldFilter("severity >= 3"), fieldFilter("severity >= 3"));
+    }
+
+    @DataProvider
+    Object[][] createInvalidPredicates()
+    {
+        return new Object[][]
+            {
+                {""},
+                {"severity"},
+                {"severity >= "},
+                {"severity >= 'high'"},
+                {"severity == 3 &&"},
+                {"(severity == 3"},
+                {"region == 'eu"},
+                {"3 == 4"},
+                {"severity == 3 region == 'eu'"},
+            };
+    }
+
+    @Test(groups = UNIT, dataProvider = "createInvalidPredicates", expectedExceptions = IllegalArgumentException.class)
+    public void invalidPredicatesShouldBeRejected(final String predicate)
+    {
+        fieldFilter(predicate);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.filtering;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import co.proteus.events.filtering.MessageFilter.Parameters;
+
+import static co.proteus.events.TestGroups.UNIT;
+import static co.proteus.events.filtering.JmesPathFilter.jmesPathFilter;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests for {@link FilterIndex}.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class FilterIndexTest
+{
+    private static final String TOPIC = "sample/topic";
+
+    private static final List<MessageFilter> FILTERS = asList(
+        jmesPathFilter("payload.deviceId == 'device-7'"),
+        jmesPathFilter("'device-7' == payload.deviceId"),
+        jmesPathFilter("payload.deviceId == 'device-8'"),
+        jmesPathFilter("payload.count == `1`"),
+        jmesPathFilter("payload.count == `true`"),
+        jmesPathFilter("payload.missing == `null`"),
+        jmesPathFilter("payload.nested.level == `2`"),
+        jmesPathFilter("payload.deviceId == 'device-7' && payload.temperature > `20`"),
+        jmesPathFilter("payload.temperature > `20` && payload.nested.level == `2`"),
+        jmesPathFilter("payload.temperature > `20`"),
+        jmesPathFilter("payload.tags[0] == 'hvac'"),
+        jmesPathFilter("payload.nested == `{\"level\": 2}`"),
+        jmesPathFilter("payload.deviceId"),
+        jmesPathFilter("payload.count && payload.deviceId == 'device-7'"),
+        jmesPathFilter("payload.nested && payload.deviceId == 'device-7'"),
+        jmesPathFilter("payload.deviceId == 'device-7' && (payload.count > `0` || !payload.missing)"),
+        params -> params.getMessage().getStringPayload().contains("floor-2"));
+
+    private static Parameters _params(final String payload)
+    {
+        final String json = "{\"eventType\":\"sample-type\",\"payload\":" + payload + "}";
+        return new Parameters(new AWSIotMessage(TOPIC, QOS0, json.getBytes(UTF_8)));
+    }
+
+    private static <S> List<S> _match(final FilterIndex<S> index, final Parameters params)
+    {
+        final List<S> matched = new ArrayList<>();
+        index.match(params, matched::add);
+        return matched;
+    }
+
+    @DataProvider
+    Object[][] createPayloads()
+    {
+        return new Object[][]
+            {
+                {"{\"deviceId\":\"device-7\",\"temperature\":21.5,\"count\":1.0,\"nested\":{\"level\":2},"
+                 + "\"tags\":[\"hvac\",\"floor-2\"]}"},
+                {"{\"deviceId\":\"device-7\",\"temperature\":19,\"count\":true,\"missing\":null}"},
+                {"{\"deviceId\":\"device-8\",\"temperature\":25,\"count\":-0.0,\"nested\":{\"level\":\"2\"}}"},
+                {"{\"deviceId\":7,\"nested\":[2],\"missing\":false,\"tags\":\"hvac\"}"},
+                {"{\"deviceId\":\"device-7\",\"count\":0,\"nested\":{}}"},
+                {"{\"deviceId\":\"device-9\",\"count\":0,\"nested\":{}}"},
+                {"\"device-7\""},
+                {"null"},
+            };
+    }
+
+    @Test(groups = UNIT, dataProvider = "createPayloads")
+    public void indexShouldAcceptWhatEachFilterAccepts(final String payload)
+    {
+        final List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < FILTERS.size(); i++)
+        {
+            if (FILTERS.get(i).accept(_params(payload))) expected.add(i);
+        }
+
+        final List<Integer> subscribers = new ArrayList<>();
+        for (int i = 0; i < FILTERS.size(); i++)
+            subscribers.add(i);
+        final FilterIndex<Integer> index = new FilterIndex<>(subscribers, FILTERS::get);
+        assertEquals(_match(index, _params(payload)), expected);
+    }
+
+    @Test(groups = UNIT)
+    public void subscribersShouldBeReportedInOrder()
+    {
+        final FilterIndex<String> index = new FilterIndex<>(asList("a", "b", "c", "d"), subscriber ->
+            subscriber.equals("b") ? params -> true : jmesPathFilter("payload.deviceId == 'device-7'"));
+        assertEquals(_match(index, _params("{\"deviceId\":\"device-7\"}")), asList("a", "b", "c", "d"));
+        assertEquals(_match(index, _params("{\"deviceId\":\"device-8\"}")), singletonList("b"));
+    }
+
+    @Test(groups = UNIT)
+    public void conjunctionsShouldTestOperandsAsJmesPathDoes()
+    {
+        // && treats 0 as true, so the comparison decides. It treats {} as false and returns it, and a filter accepts {}, so the
+        // device does not matter.
+        final FilterIndex<String> index = new FilterIndex<>(asList("count", "nested"), subscriber -> jmesPathFilter(
+            "payload." + subscriber + " && payload.deviceId == 'device-7'"));
+        assertEquals(_match(index, _params("{\"deviceId\":\"device-7\",\"count\":0}")), singletonList("count"));
+        assertEquals(_match(index, _params("{\"deviceId\":\"device-9\",\"count\":0,\"nested\":{}}")), singletonList("nested"));
+    }
+
+    @Test(groups = UNIT)
+    public void invalidMessagesShouldOnlyReachOtherFilters()
+    {
+        final FilterIndex<String> index = new FilterIndex<>(asList("a", "b"), subscriber ->
+            subscriber.equals("a") ? jmesPathFilter("payload.deviceId == 'device-7'") : params -> true);
+        assertEquals(_match(index, new Parameters(new AWSIotMessage(TOPIC, QOS0, "{".getBytes(UTF_8)))), singletonList("b"));
+    }
+}
@@ -12,21 +12,29 @@
 package co.proteus.events.filtering;
 
 import io.burt.jmespath.Expression;
+import io.burt.jmespath.parser.ParseException;
 
 import com.amazonaws.services.iot.client.AWSIotMessage;
 import com.amazonaws.services.iot.client.AWSIotQos;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
 import co.proteus.events.filtering.MessageFilter.Parameters;
 
 import static co.proteus.events.TestGroups.UNIT;
 import static co.proteus.events.filtering.JmesPathFilter.jmesPathCompile;
+import static co.proteus.events.filtering.JmesPathFilter.jmesPathFilter;
 import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 /**
@@ -121,4 +129,46 @@ public final class JmesPathTest
     {
         assertFalse(_filter.accept(new Parameters(new AWSIotMessage(TOPIC, QOS, payload.getBytes(UTF_8)))));
     }
+
+    @DataProvider
+    Object[][] numbers()
+    {
+        final JsonNodeFactory nodes = JsonNodeFactory.withExactBigDecimals(true);
+        return new Object[][]
+            {
+                {nodes.numberNode(0), false},
+                {nodes.numberNode(-3), true},
+                {nodes.numberNode((short) 0), false},
+                {nodes.numberNode(Long.MIN_VALUE), true},
+                {nodes.numberNode(-0.0f), false},
+                {nodes.numberNode(-0.0), false},
+                {nodes.numberNode(Double.MIN_VALUE), true},
+                {nodes.numberNode(BigInteger.ZERO), false},
+                {nodes.numberNode(BigInteger.ONE.shiftLeft(100)), true},
+                {nodes.numberNode(new BigDecimal("0E-400")), false},
+                {nodes.numberNode(new BigDecimal("1E-400")), true},
+            };
+    }
+
+    @Test(groups = UNIT, dataProvider = "numbers")
+    public void numbersShouldBeTruthyUnlessZero(final JsonNode number, final boolean expected)
+    {
+        assertEquals(JmesPathFilter.deriveTruthiness(number), expected, number.getClass().getSimpleName() + ' ' + number);
+    }
+
+    @Test(groups = UNIT)
+    public void equalExpressionsShouldShareFilters()
+    {
+        final String expression = "payload.greeting == 'hello'";
+        assertSame(jmesPathFilter(expression), jmesPathFilter(new String(expression)));
+        assertSame(jmesPathCompile(expression), jmesPathCompile(expression));
+        assertTrue(jmesPathFilter(expression).accept(
+            new Parameters(new AWSIotMessage(TOPIC, QOS, JSON_OBJECT_TRUE.getBytes(UTF_8)))));
+    }
+
+    @Test(groups = UNIT, expectedExceptions = ParseException.class)
+    public void invalidExpressionsShouldBeRejected()
+    {
+        jmesPathFilter("payload.[");
+    }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import co.proteus.events.filtering.JmesPathFilter;
+import co.proteus.events.filtering.MessageFilter.Parameters;
+import co.proteus.events.marshalling.compression.CompressingMarshaller;
+import co.proteus.events.marshalling.compression.DecompressingUnmarshaller;
+import co.proteus.events.marshalling.compression.DeflateCompression;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.marshalling.json.JsonUnmarshaller;
+import co.proteus.events.publication.Event;
+
+import static co.proteus.events.TestGroups.UNIT;
+import static co.proteus.events.filtering.JmesPathFilter.jmesPathCompile;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link CompressingMarshaller} and {@link DecompressingUnmarshaller}.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class CompressionTest
+{
+    private static final String TOPIC = "test/topic";
+    private static final String TYPE = "test-type";
+    private static final int THRESHOLD = 256;
+
+    private final EventMarshaller _json = new JsonMarshaller(QOS0);
+    private final EventMarshaller _marshaller = new CompressingMarshaller(_json, new DeflateCompression(), THRESHOLD,
+        new BufferPool(4, 64 * 1024));
+    private final EventUnmarshaller _unmarshaller = new DecompressingUnmarshaller(new JsonUnmarshaller());
+
+    private static String _repetitive(final int length)
+    {
+        final StringBuilder text = new StringBuilder(length);
+        while (text.length() < length)
+            text.append("temperature reading ");
+        return text.substring(0, length);
+    }
+
+    private static String _random(final int length)
+    {
+        final Random random = new Random(42);
+        final StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            text.append((char) ('!' + random.nextInt(94)));
+        return text.toString();
+    }
+
+    @Test(groups = UNIT)
+    public void smallPayloadsShouldNotBeCompressed() throws Exception
+    {
+        final Event<String> event = new Event<>(TOPIC, TYPE, "hello");
+        final AWSIotMessage message = _marshaller.marshall(event);
+        assertEquals(message.getPayload(), _json.marshall(event).getPayload());
+        assertEquals(_unmarshaller.unmarshall(message).getPayload(), "hello");
+    }
+
+    @Test(groups = UNIT)
+    public void largePayloadsShouldBeCompressed() throws Exception
+    {
+        final Event<String> event = new Event<>(TOPIC, TYPE, _repetitive(10_000));
+        final AWSIotMessage message = _marshaller.marshall(event);
+        assertEquals(message.getPayload()[0], (byte) 0xFE);
+        assertTrue(message.getPayload().length < _json.marshall(event).getPayload().length / 4);
+        assertEquals(message.getTopic(), TOPIC);
+
+        final Event<?> actual = _unmarshaller.unmarshall(message);
+        assertEquals(actual.getEventType(), TYPE);
+        assertEquals(actual.getPayload(), event.getPayload());
+        assertEquals(_unmarshaller.unmarshall(new Parameters(message)).getPayload(), event.getPayload());
+    }
+
+    @Test(groups = UNIT)
+    public void incompressiblePayloadsShouldBeSentAsTheyAre() throws Exception
+    {
+        final Event<String> event = new Event<>(TOPIC, TYPE, _random(64));
+        final EventMarshaller marshaller = new CompressingMarshaller(_json, new DeflateCompression(), 0,
+            new BufferPool(1, 1024));
+        final AWSIotMessage message = marshaller.marshall(event);
+        assertEquals(message.getPayload(), _json.marshall(event).getPayload());
+    }
+
+    @Test(groups = UNIT)
+    public void uncompressedMessagesShouldPassThrough() throws Exception
+    {
+        final AWSIotMessage message = _json.marshall(new Event<>(TOPIC, TYPE, _repetitive(1000)));
+        final Parameters params = new Parameters(message);
+        assertSame(_unmarshaller.split(params).get(0).getMessage(), message);
+        assertEquals(_unmarshaller.unmarshall(message).getPayload(), _repetitive(1000));
+    }
+
+    @Test(groups = UNIT, expectedExceptions = UnmarshalException.class)
+    public void unknownAlgorithmsShouldBeRejected() throws Exception
+    {
+        final byte[] payload = _marshaller.marshall(new Event<>(TOPIC, TYPE, _repetitive(1000))).getPayload();
+        payload[1] = 99;
+        _unmarshaller.unmarshall(new AWSIotMessage(TOPIC, QOS0, payload));
+    }
+
+    @Test(groups = UNIT, expectedExceptions = UnmarshalException.class)
+    public void oversizedPayloadsShouldBeRejected() throws Exception
+    {
+        final AWSIotMessage message = _marshaller.marshall(new Event<>(TOPIC, TYPE, _repetitive(100_000)));
+        new DecompressingUnmarshaller(new JsonUnmarshaller(), 10_000, new DeflateCompression()).unmarshall(message);
+    }
+
+    @Test(groups = UNIT)
+    public void compressedBatchesShouldBeSplitAndFiltered() throws Exception
+    {
+        final List<Event<?>> events = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            events.add(new Event<>(TOPIC, TYPE, i % 2 == 0 ? _repetitive(100) : "skip"));
+        final AWSIotMessage message = _marshaller.marshallBatch(TOPIC, events);
+        assertEquals(message.getPayload()[0], (byte) 0xFE);
+
+        final JmesPathFilter filter = new JmesPathFilter(jmesPathCompile("payload != 'skip'"));
+        final List<Parameters> split = _unmarshaller.split(new Parameters(message));
+        assertEquals(split.size(), 20);
+        int accepted = 0;
+        for (final Parameters params : split)
+        {
+            if (filter.accept(params))
+            {
+                accepted++;
+                assertEquals(_unmarshaller.unmarshall(params).getPayload(), _repetitive(100));
+            }
+        }
+        assertEquals(accepted, 10);
+        assertFalse(filter.accept(split.get(1)));
+    }
+
+    @Test(groups = UNIT)
+    public void buffersShouldBeReused()
+    {
+        final BufferPool pool = new BufferPool(2, 16 * 1024);
+        final byte[] buffer = pool.acquire(100);
+        pool.release(buffer);
+        assertSame(pool.acquire(100), buffer);
+
+        final byte[] large = pool.acquire(32 * 1024);
+        pool.release(large);
+        assertFalse(pool.acquire(100) == large);
+    }
+}
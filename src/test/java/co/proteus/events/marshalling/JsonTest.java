@@ -20,17 +20,22 @@ import com.fasterxml.jackson.annotation.JsonSubTypes.Type;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonTypeInfo.As;
 import com.fasterxml.jackson.annotation.JsonTypeInfo.Id;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.Sets;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
+import co.proteus.events.filtering.MessageFilter.Parameters;
+import co.proteus.events.marshalling.json.EventTypeRegistry;
 import co.proteus.events.marshalling.json.JsonMarshaller;
 import co.proteus.events.marshalling.json.JsonUnmarshaller;
 import co.proteus.events.publication.Event;
@@ -41,6 +46,9 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 /**
  * Tests for {@link JsonMarshaller} and {@link JsonUnmarshaller}, with examples of various payload types that might be useful.
@@ -339,4 +347,155 @@ public final class JsonTest
         assertEquals(actual.getTopic(), expected.getTopic());
         assertEquals(actual.getPayload(), expected.getPayload());
     }
+
+    @Test(groups = UNIT, dataProvider = "createData")
+    public void eventsShouldUnmarshalFromParsedJson(final Event<?> expected, final AWSIotMessage message) throws Exception
+    {
+        final Parameters params = new Parameters(message);
+        final Event<?> actual = _unmarshaller.unmarshall(params);
+        assertEquals(actual.getTopic(), expected.getTopic());
+        assertEquals(actual.getPayload(), expected.getPayload());
+        assertSame(params.getJson(), params.getJson(), "payload should only be parsed once");
+    }
+
+    @Test(groups = UNIT, dataProvider = "createData")
+    public void lazyEventsShouldBindTheSamePayloads(final Event<?> expected, final AWSIotMessage message) throws Exception
+    {
+        final EventUnmarshaller unmarshaller = new JsonUnmarshaller(new EventTypeRegistry(), true);
+        for (final Event<?> actual : asList(unmarshaller.unmarshall(message), unmarshaller.unmarshall(new Parameters(message))))
+        {
+            assertEquals(actual.getTopic(), expected.getTopic());
+            assertEquals(actual.getEventType(), expected.getEventType());
+            assertEquals(actual.getPayload(), expected.getPayload());
+            assertSame(actual.getPayload(), actual.getPayload(), "payload should only be bound once");
+        }
+    }
+
+    @Test(groups = UNIT, expectedExceptions = UncheckedIOException.class)
+    public void lazyPayloadsShouldOnlyBeBoundWhenUsed() throws Exception
+    {
+        final EventTypeRegistry registry = new EventTypeRegistry();
+        registry.register("person", Person.class);
+        final AWSIotMessage message = new AWSIotMessage(TOPIC, QOS,
+            "{\"eventType\":\"person\",\"payload\":[1,2]}".getBytes(UTF_8));
+
+        final Event<Person> event = new JsonUnmarshaller(registry, true).unmarshall(new Parameters(message));
+        assertEquals(event.getEventType(), "person");
+        event.getPayload();
+    }
+
+    @Test(groups = UNIT)
+    public void batchesShouldSplitIntoIndividualEvents() throws Exception
+    {
+        final List<Event<?>> events = asList(EVENT_STRING, EVENT_PERSON, EVENT_PETS);
+        final AWSIotMessage message = _marshaller.marshallBatch(TOPIC, events);
+
+        final List<Parameters> split = _unmarshaller.split(new Parameters(message));
+        assertEquals(split.size(), events.size());
+        for (int i = 0; i < events.size(); i++)
+        {
+            final Event<?> actual = _unmarshaller.unmarshall(split.get(i));
+            assertEquals(actual.getTopic(), TOPIC);
+            assertEquals(actual.getEventType(), events.get(i).getEventType());
+            assertEquals(actual.getPayload(), events.get(i).getPayload());
+        }
+    }
+
+    @Test(groups = UNIT)
+    public void singleEventsShouldNotBeSplit() throws Exception
+    {
+        final Parameters params = new Parameters(MESSAGE_STRING);
+        assertEquals(_unmarshaller.split(params), singletonList(params));
+        assertFalse(params.isJsonParsed());
+    }
+
+    @Test(groups = UNIT)
+    public void splittingShouldNotReadThePayloadOfSingleEvents() throws Exception
+    {
+        // The payload is not valid JSON, so reading past the event type would fail.
+        final Parameters params = new Parameters(new AWSIotMessage(TOPIC, QOS0,
+            "{\"eventType\":\"string\",\"payload\":{broken".getBytes(UTF_8)));
+        assertEquals(_unmarshaller.split(params), singletonList(params));
+        assertFalse(params.isJsonParsed());
+    }
+
+    @Test(groups = UNIT)
+    public void payloadsLargerThanPooledBuffersShouldMarshal() throws Exception
+    {
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < 100_000)
+            text.append("abcdefghij");
+        final Event<String> event = new Event<>(TOPIC, TYPE, text.toString());
+        final EventMarshaller marshaller = new JsonMarshaller(QOS);
+
+        for (int i = 0; i < 2; i++)
+        {
+            final AWSIotMessage message = marshaller.marshall(event);
+            assertEquals(message.getStringPayload(), "{\"eventType\":\"" + TYPE + "\",\"payload\":\"" + text + "\"}");
+            assertEquals(_unmarshaller.unmarshall(message).getPayload(), text.toString());
+            assertEquals(marshaller.marshall(EVENT_STRING).getStringPayload(), MESSAGE_STRING.getStringPayload());
+        }
+    }
+
+    @Test(groups = UNIT)
+    public void registeredPayloadsShouldNotCarryClassNames() throws Exception
+    {
+        final EventTypeRegistry registry = new EventTypeRegistry();
+        registry.register("person", Person.class);
+        registry.register("names", new TypeReference<List<String>>() { });
+        final EventMarshaller marshaller = new JsonMarshaller(QOS, registry);
+        final EventUnmarshaller unmarshaller = new JsonUnmarshaller(registry);
+
+        final Event<Person> person = new Event<>(TOPIC, "person", EVENT_PERSON.getPayload());
+        final AWSIotMessage message = marshaller.marshall(person);
+        assertEquals(message.getStringPayload(),
+            "{\"eventType\":\"person\",\"payload\":{\"firstName\":\"John\",\"lastName\":\"Doe\",\"birthday\":0}}");
+        assertEquals(unmarshaller.unmarshall(message).getPayload(), person.getPayload());
+
+        final Event<List<String>> names = new Event<>(TOPIC, "names", asList("abc", "def"));
+        assertEquals(unmarshaller.unmarshall(marshaller.marshall(names)).getPayload(), names.getPayload());
+    }
+
+    @Test(groups = UNIT)
+    public void payloadsWithClassNamesShouldUnmarshalAfterRegistration() throws Exception
+    {
+        final EventTypeRegistry registry = new EventTypeRegistry();
+        registry.register(TYPE, Person.class);
+
+        final Event<?> actual = new JsonUnmarshaller(registry).unmarshall(MESSAGE_PERSON);
+        assertEquals(actual.getPayload(), EVENT_PERSON.getPayload());
+    }
+
+    @Test(groups = UNIT)
+    public void originsShouldBeKeptByEveryUnmarshaller() throws Exception
+    {
+        final EventTypeRegistry registry = new EventTypeRegistry();
+        registry.register("person", Person.class);
+        final Event<Person> person = new Event<Person>(TOPIC, "person", EVENT_PERSON.getPayload()).withOrigin("publisher-1");
+        final AWSIotMessage message = _marshaller.marshall(person);
+        assertTrue(message.getStringPayload().startsWith("{\"eventType\":\"person\",\"origin\":\"publisher-1\",\"payload\":"));
+
+        final List<EventUnmarshaller> unmarshallers = asList(new JsonUnmarshaller(), new JsonUnmarshaller(registry),
+            new JsonUnmarshaller(registry, true));
+        for (final EventUnmarshaller unmarshaller : unmarshallers)
+        {
+            final Parameters parsed = new Parameters(message);
+            parsed.getJson();
+            for (final Event<?> event : asList(unmarshaller.unmarshall(message), unmarshaller.unmarshall(new Parameters(message)),
+                unmarshaller.unmarshall(parsed)))
+            {
+                assertEquals(event.getOrigin(), "publisher-1");
+                assertEquals(event.getPayload(), person.getPayload());
+            }
+        }
+        assertEquals(_unmarshaller.unmarshall(MESSAGE_STRING).getOrigin(), null);
+    }
+
+    @Test(groups = UNIT, expectedExceptions = IllegalArgumentException.class)
+    public void conflictingRegistrationsShouldBeRejected()
+    {
+        final EventTypeRegistry registry = new EventTypeRegistry();
+        registry.register("person", Person.class);
+        registry.register("person", String.class);
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.marshalling;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import co.proteus.events.filtering.JmesPathFilter;
+import co.proteus.events.filtering.MessageFilter.Parameters;
+import co.proteus.events.marshalling.json.EventTypeRegistry;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.marshalling.smile.SmileMarshaller;
+import co.proteus.events.marshalling.smile.SmileUnmarshaller;
+import co.proteus.events.publication.Event;
+
+import static co.proteus.events.TestGroups.UNIT;
+import static co.proteus.events.filtering.JmesPathFilter.jmesPathCompile;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link SmileMarshaller} and {@link SmileUnmarshaller}.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class SmileTest
+{
+    private static final String TOPIC = "test/topic";
+    private static final String TYPE = "test-type";
+
+    private static Map<String, Object> _reading()
+    {
+        final Map<String, Object> reading = new LinkedHashMap<>();
+        reading.put("deviceId", "device-7");
+        reading.put("temperature", 21.5);
+        reading.put("tags", asList("hvac", "floor-2"));
+        return reading;
+    }
+
+    @DataProvider
+    Object[][] createPayloads()
+    {
+        return new Object[][]
+            {
+                {null},
+                {"hello"},
+                {32767L},
+                {new Date(0)},
+                {_reading()},
+            };
+    }
+
+    @Test(groups = UNIT, dataProvider = "createPayloads")
+    public void eventsShouldRoundTrip(final Object payload) throws Exception
+    {
+        final Event<Object> event = new Event<>(TOPIC, TYPE, payload);
+        final AWSIotMessage message = new SmileMarshaller(QOS0).marshall(event);
+        assertTrue(SmileUnmarshaller.isSmile(message.getPayload()));
+
+        final Event<?> actual = new SmileUnmarshaller().unmarshall(message);
+        assertEquals(actual.getTopic(), TOPIC);
+        assertEquals(actual.getEventType(), TYPE);
+        assertEquals(actual.getPayload(), payload);
+    }
+
+    @Test(groups = UNIT)
+    public void registeredPayloadsShouldBeSmallerThanJson() throws Exception
+    {
+        final EventTypeRegistry registry = new EventTypeRegistry();
+        registry.register(TYPE, Map.class);
+        final Event<Map<String, Object>> event = new Event<>(TOPIC, TYPE, _reading());
+
+        final AWSIotMessage smile = new SmileMarshaller(QOS0, registry).marshall(event);
+        final AWSIotMessage json = new JsonMarshaller(QOS0, registry).marshall(event);
+        assertTrue(smile.getPayload().length < json.getPayload().length,
+            smile.getPayload().length + " bytes is not smaller than " + json.getPayload().length);
+        assertEquals(new SmileUnmarshaller(registry).unmarshall(smile).getPayload(), event.getPayload());
+    }
+
+    @Test(groups = UNIT)
+    public void jsonMessagesShouldStillBeUnmarshalled() throws Exception
+    {
+        final AWSIotMessage message = new JsonMarshaller(QOS0).marshall(new Event<>(TOPIC, TYPE, "hello"));
+        assertFalse(SmileUnmarshaller.isSmile(message.getPayload()));
+        assertEquals(new SmileUnmarshaller().unmarshall(message).getPayload(), "hello");
+        assertEquals(new SmileUnmarshaller().unmarshall(new Parameters(message)).getPayload(), "hello");
+    }
+
+    @Test(groups = UNIT)
+    public void filtersAndBatchesShouldWorkOnSmileMessages() throws Exception
+    {
+        final EventMarshaller marshaller = new SmileMarshaller(QOS0);
+        final EventUnmarshaller unmarshaller = new SmileUnmarshaller();
+        final JmesPathFilter filter = new JmesPathFilter(jmesPathCompile("payload.temperature > `20`"));
+
+        final AWSIotMessage message = marshaller.marshallBatch(TOPIC, asList(
+            new Event<>(TOPIC, TYPE, _reading()), new Event<>(TOPIC, TYPE, "hello")));
+        final List<Parameters> split = unmarshaller.split(new Parameters(message));
+
+        assertEquals(split.size(), 2);
+        assertTrue(filter.accept(split.get(0)));
+        assertFalse(filter.accept(split.get(1)));
+        assertEquals(unmarshaller.unmarshall(split.get(0)).getPayload(), _reading());
+        assertEquals(unmarshaller.unmarshall(split.get(1)).getPayload(), "hello");
+    }
+}
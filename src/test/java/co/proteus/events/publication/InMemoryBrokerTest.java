@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotTopic;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.marshalling.json.JsonUnmarshaller;
+
+import static co.proteus.events.TestGroups.UNIT;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link InMemoryBroker} and its {@link RingBuffer ring buffers}.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class InMemoryBrokerTest
+{
+    private static final String TOPIC = "devices/42/telemetry";
+    private static final String TYPE = "sample-type";
+
+    private static AWSIotMessage _message(final String topic, final String payload)
+    {
+        return new AWSIotMessage(topic, QOS0, payload.getBytes(UTF_8));
+    }
+
+    @Test(groups = UNIT)
+    public void servicesShouldExchangeEvents() throws Exception
+    {
+        final InMemoryBroker broker = new InMemoryBroker();
+        final ConnectionManager publisherConnection = new ConnectionManager(broker.createTransport());
+        final ConnectionManager subscriberConnection = new ConnectionManager(broker.createTransport());
+        try
+        {
+            final SubscriptionService subscriptions = new SubscriptionService(subscriberConnection, new JsonUnmarshaller());
+            final CountDownLatch received = new CountDownLatch(3);
+            final List<String> payloads = new CopyOnWriteArrayList<>();
+            subscriptions.<String>subscribe("devices/+/telemetry", TYPE, it -> true, event -> {
+                payloads.add(event.getPayload());
+                received.countDown();
+            }).get(5, SECONDS);
+
+            final PublisherService publisher = new PublisherService(publisherConnection, new JsonMarshaller(QOS0));
+            publisherConnection.whenConnected().get(5, SECONDS);
+            for (int i = 0; i < 3; i++)
+                assertEquals(publisher.publish(new Event<>(TOPIC, TYPE, "event-" + i)).get(5, SECONDS).getStatus(),
+                    PublishStatus.PUBLISHED);
+            publisher.publish(new Event<>("devices/42/status", TYPE, "ignored")).get(5, SECONDS);
+
+            assertTrue(received.await(5, SECONDS));
+            assertEquals(payloads.size(), 3);
+            for (int i = 0; i < 3; i++)
+                assertEquals(payloads.get(i), "event-" + i);
+        }
+        finally
+        {
+            publisherConnection.close();
+            subscriberConnection.close();
+        }
+    }
+
+    @Test(groups = UNIT)
+    public void fullInboxesShouldDropMessages() throws Exception
+    {
+        final InMemoryBroker broker = new InMemoryBroker("test", 1);
+        final Transport transport = broker.createTransport();
+        transport.connect();
+        final CountDownLatch delivering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        transport.subscribe(new AWSIotTopic(TOPIC, QOS0)
+        {
+            @Override
+            public void onMessage(final AWSIotMessage message)
+            {
+                delivering.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (final InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        transport.publish(_message(TOPIC, "delivering"));
+        assertTrue(delivering.await(5, SECONDS));
+        for (int i = 0; i < 3; i++)
+            transport.publish(_message(TOPIC, "queued"));
+        release.countDown();
+        transport.disconnect();
+
+        assertEquals(broker.getDroppedCount(), 2);
+    }
+
+    @Test(groups = UNIT, expectedExceptions = AWSIotException.class)
+    public void disconnectedTransportsShouldNotPublish() throws Exception
+    {
+        new InMemoryBroker().createTransport().publish(_message(TOPIC, "hello"));
+    }
+
+    @Test(groups = UNIT)
+    public void ringBuffersShouldKeepTheOrderOfEachProducer() throws Exception
+    {
+        final int producers = 4;
+        final int count = 100_000;
+        final RingBuffer<long[]> buffer = new RingBuffer<>(1000);
+        assertEquals(buffer.capacity(), 1024);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try
+        {
+            final List<Future<?>> done = new ArrayList<>();
+            for (int p = 0; p < producers; p++)
+            {
+                final long producer = p;
+                done.add(executor.submit(() -> {
+                    for (long i = 0; i < count; i++)
+                    {
+                        final long[] element = {producer, i};
+                        while (!buffer.offer(element))
+                            Thread.yield();
+                    }
+                }));
+            }
+
+            final long[] next = new long[producers];
+            for (int received = 0; received < producers * count; )
+            {
+                final long[] element = buffer.poll();
+                if (element == null) continue;
+                assertEquals(element[1], next[(int) element[0]]++);
+                received++;
+            }
+            for (final Future<?> future : done)
+                future.get(5, SECONDS);
+            assertEquals(buffer.size(), 0);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
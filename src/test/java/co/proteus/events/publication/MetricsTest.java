@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.marshalling.json.JsonUnmarshaller;
+import co.proteus.events.metrics.EventMetrics;
+
+import static co.proteus.events.TestGroups.UNIT;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for the {@link EventMetrics} reported by {@link PublisherService} and {@link SubscriptionService}.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class MetricsTest
+{
+    private static final String TOPIC = "sample/topic";
+    private static final String TYPE = "sample-type";
+
+    // Records each call as a string, with durations left out.
+    private static final class RecordingMetrics implements EventMetrics
+    {
+        final List<String> _calls = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void published(final String topic, final String eventType, final PublishStatus status, final long latency)
+        {
+            assertTrue(latency >= 0);
+            _calls.add("published " + eventType + ' ' + status);
+        }
+
+        @Override
+        public void publishFailed(final String topic, final String eventType, final Throwable error, final long latency)
+        {
+            _calls.add("publishFailed " + eventType);
+        }
+
+        @Override
+        public void throttled(final String topic, final String eventType)
+        {
+            _calls.add("throttled " + eventType);
+        }
+
+        @Override
+        public void marshalled(final String topic, final int events, final long duration)
+        {
+            _calls.add("marshalled " + events);
+        }
+
+        @Override
+        public void unmarshalled(final String topic, final String eventType, final long duration)
+        {
+            _calls.add("unmarshalled " + eventType);
+        }
+
+        @Override
+        public void unmarshalFailed(final String topic, final Throwable error)
+        {
+            _calls.add("unmarshalFailed " + topic);
+        }
+
+        @Override
+        public void filtered(
+            final String topicFilter, final String eventType, final int subscriptions, final int accepted, final long duration)
+        {
+            _calls.add("filtered " + topicFilter + ' ' + subscriptions + ' ' + accepted);
+        }
+
+        @Override
+        public void dispatched(final String topicFilter, final String eventType, final int queueDepth)
+        {
+            _calls.add("dispatched " + queueDepth);
+        }
+
+        @Override
+        public void dispatchDropped(final String topicFilter, final String eventType, final int count)
+        {
+            _calls.add("dispatchDropped " + count);
+        }
+    }
+
+    private StubMqttClient _client;
+    private ScheduledExecutorService _scheduler;
+    private ConnectionManager _connection;
+    private RecordingMetrics _metrics;
+
+    @BeforeMethod(groups = UNIT)
+    public void setup() throws Exception
+    {
+        _client = new StubMqttClient();
+        _scheduler = newSingleThreadScheduledExecutor();
+        _connection = new ConnectionManager(_client, _scheduler, Duration.ofMillis(1), Duration.ofMillis(10),
+            Duration.ofMillis(10));
+        _metrics = new RecordingMetrics();
+    }
+
+    @AfterMethod(groups = UNIT)
+    public void teardown()
+    {
+        _connection.close();
+        _scheduler.shutdownNow();
+    }
+
+    @Test(groups = UNIT)
+    public void publishingShouldBeMeasured() throws Exception
+    {
+        final PublisherService service = new PublisherService(_connection, new JsonMarshaller(QOS0), Runnable::run, 4,
+            OverflowPolicy.BLOCK, _metrics);
+        _connection.whenConnected().get(5, SECONDS);
+        final AtomicBoolean send = new AtomicBoolean();
+        service.registerThrottler(TOPIC, TYPE, it -> send.getAndSet(!send.get()));
+
+        service.publish(new Event<>(TOPIC, TYPE, "throttled")).get(5, SECONDS);
+        service.publish(new Event<>(TOPIC, TYPE, "sent")).get(5, SECONDS);
+        service.publishBatch(asList(new Event<>(TOPIC, "a", 1), new Event<>(TOPIC, "b", 2))).get(5, SECONDS);
+
+        assertEquals(_metrics._calls, asList(
+            "throttled " + TYPE, "marshalled 1", "published " + TYPE + " PUBLISHED",
+            "marshalled 2", "published a PUBLISHED", "published b PUBLISHED"));
+    }
+
+    @Test(groups = UNIT)
+    public void receivingShouldBeMeasured() throws Exception
+    {
+        final SubscriptionService service = new SubscriptionService(_connection, new JsonUnmarshaller(), Runnable::run, 4,
+            OverflowPolicy.BLOCK, _metrics);
+        _connection.whenConnected().get(5, SECONDS);
+        final List<Event<String>> received = new CopyOnWriteArrayList<>();
+        service.<String>subscribe(TOPIC, TYPE, it -> true, received::add).get(5, SECONDS);
+        service.<String>subscribe(TOPIC, TYPE, it -> false, received::add).get(5, SECONDS);
+
+        _client.deliver(new JsonMarshaller(QOS0).marshall(new Event<>(TOPIC, TYPE, "hello")));
+        _client.deliver(new AWSIotMessage(TOPIC, QOS0, "{".getBytes(UTF_8)));
+
+        assertEquals(received.size(), 1);
+        assertEquals(_metrics._calls, asList(
+            "unmarshalled " + TYPE, "filtered " + TOPIC + " 2 1", "dispatched 0", "unmarshalFailed " + TOPIC));
+    }
+}
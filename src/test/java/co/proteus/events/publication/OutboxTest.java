@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Stream;
+
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.metrics.EventMetrics;
+
+import static co.proteus.events.TestGroups.UNIT;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for the {@link Outbox} and for {@link PublisherService} storing events in it.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class OutboxTest
+{
+    private static final String TOPIC = "sample/topic";
+    private static final String TYPE = "sample-type";
+
+    private Path _directory;
+
+    @BeforeMethod(groups = UNIT)
+    public void setup() throws IOException
+    {
+        _directory = Files.createTempDirectory("outbox");
+    }
+
+    @AfterMethod(groups = UNIT)
+    public void teardown() throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(_directory))
+        {
+            for (final Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+
+    private static AWSIotMessage _message(final String payload)
+    {
+        return new AWSIotMessage(TOPIC, QOS1, payload.getBytes(UTF_8));
+    }
+
+    private static String _take(final Outbox outbox)
+    {
+        final Outbox.Stored stored = outbox.peek();
+        outbox.remove(stored);
+        return stored._message.getStringPayload();
+    }
+
+    private List<Path> _segments() throws IOException
+    {
+        final List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(_directory))
+        {
+            files.forEach(segments::add);
+        }
+        return segments;
+    }
+
+    @Test(groups = UNIT)
+    public void unsentMessagesShouldBeRecovered() throws Exception
+    {
+        try (Outbox outbox = new Outbox(_directory, 4096, 4096))
+        {
+            for (int i = 0; i < 3; i++)
+                outbox.append(_message("message-" + i));
+            assertEquals(_take(outbox), "message-0");
+        }
+
+        try (Outbox outbox = new Outbox(_directory, 4096, 4096))
+        {
+            assertEquals(outbox.size(), 2);
+            final AWSIotMessage message = outbox.peek()._message;
+            assertEquals(message.getTopic(), TOPIC);
+            assertEquals(message.getQos(), QOS1);
+            assertEquals(_take(outbox), "message-1");
+            assertEquals(_take(outbox), "message-2");
+            assertTrue(outbox.isEmpty());
+            assertNull(outbox.peek());
+        }
+    }
+
+    @Test(groups = UNIT)
+    public void sentSegmentsShouldBeDeleted() throws Exception
+    {
+        try (Outbox outbox = new Outbox(_directory, 128, 1024))
+        {
+            for (int i = 0; i < 10; i++)
+                outbox.append(_message("message-" + i));
+            assertTrue(_segments().size() > 1);
+
+            for (int i = 0; i < 10; i++)
+                assertEquals(_take(outbox), "message-" + i);
+            assertNull(outbox.peek());
+            assertEquals(_segments().size(), 1);
+        }
+    }
+
+    @Test(groups = UNIT)
+    public void fullOutboxesShouldDropTheOldestMessages() throws Exception
+    {
+        try (Outbox outbox = new Outbox(_directory, 128, 256))
+        {
+            for (int i = 0; i < 20; i++)
+                outbox.append(_message("message-" + i));
+
+            assertTrue(outbox.getDroppedCount() > 0);
+            assertEquals(outbox.size() + outbox.getDroppedCount(), 20);
+            assertEquals(_segments().size(), 2);
+            final int first = 20 - outbox.size();
+            for (int i = first; i < 20; i++)
+                assertEquals(_take(outbox), "message-" + i);
+        }
+    }
+
+    @Test(groups = UNIT)
+    public void messagesDroppedWhileBeingSentShouldNotMarkOthersAsSent() throws Exception
+    {
+        try (Outbox outbox = new Outbox(_directory, 128, 256))
+        {
+            outbox.append(_message("message-0"));
+            final Outbox.Stored sending = outbox.peek();
+            // Fill the outbox until the segment holding the message being sent is dropped.
+            int appended = 1;
+            while (outbox.getDroppedCount() == 0)
+                outbox.append(_message("message-" + appended++));
+            final int size = outbox.size();
+
+            outbox.remove(sending);
+
+            assertEquals(outbox.size(), size);
+            for (int i = appended - size; i < appended; i++)
+                assertEquals(_take(outbox), "message-" + i);
+            assertTrue(outbox.isEmpty());
+        }
+    }
+
+    @Test(groups = UNIT, expectedExceptions = IOException.class)
+    public void messagesLargerThanASegmentShouldBeRejected() throws Exception
+    {
+        try (Outbox outbox = new Outbox(_directory, 64, 64))
+        {
+            outbox.append(_message(new String(new char[64]).replace('\0', 'x')));
+        }
+    }
+
+    @Test(groups = UNIT)
+    public void partlyWrittenMessagesShouldBeIgnored() throws Exception
+    {
+        try (Outbox outbox = new Outbox(_directory, 4096, 4096))
+        {
+            outbox.append(_message("complete"));
+            outbox.append(_message("torn"));
+        }
+        // Damage the last byte of the second message, as if the process stopped while writing it.
+        final Path segment = _segments().get(0);
+        final int end = 2 * 8 + 2 * (3 + TOPIC.length()) + "complete".length() + "torn".length();
+        try (FileChannel channel = FileChannel.open(segment, WRITE))
+        {
+            channel.write(ByteBuffer.wrap(new byte[]{'x'}), end - 1);
+        }
+
+        try (Outbox outbox = new Outbox(_directory, 4096, 4096))
+        {
+            assertEquals(outbox.size(), 1);
+            outbox.append(_message("after"));
+            assertEquals(_take(outbox), "complete");
+            assertEquals(_take(outbox), "after");
+            assertNull(outbox.peek());
+        }
+    }
+
+    @Test(groups = UNIT)
+    public void eventsShouldBeStoredWhileDisconnectedAndSentInOrder() throws Exception
+    {
+        final StubMqttClient client = new StubMqttClient();
+        client.failConnects(Integer.MAX_VALUE);
+        final ScheduledExecutorService scheduler = newSingleThreadScheduledExecutor();
+        final ConnectionManager connection = new ConnectionManager(client, scheduler, Duration.ofMillis(1),
+            Duration.ofMillis(10), Duration.ofMillis(10));
+        try (Outbox outbox = new Outbox(_directory, 4096, 4096))
+        {
+            final PublisherService service = new PublisherService(connection, new JsonMarshaller(QOS0), Runnable::run, 4,
+                OverflowPolicy.FAIL_FAST, EventMetrics.NONE, outbox);
+            for (int i = 0; i < 8; i++)
+                assertEquals(service.publish(new Event<>(TOPIC, TYPE, "event-" + i)).get(5, SECONDS).getStatus(),
+                    PublishStatus.STORED);
+            assertEquals(outbox.size(), 8);
+            assertTrue(client.getPublished().isEmpty());
+
+            client.failConnects(0);
+            connection.whenConnected().get(5, SECONDS);
+            final long deadline = System.nanoTime() + SECONDS.toNanos(5);
+            while (client.getPublished().size() < 8 && System.nanoTime() < deadline)
+                Thread.sleep(1);
+
+            assertEquals(client.getPublished().size(), 8);
+            for (int i = 0; i < 8; i++)
+                assertTrue(client.getPublished().get(i).getStringPayload().contains("event-" + i));
+            assertTrue(outbox.isEmpty());
+        }
+        finally
+        {
+            connection.close();
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test(groups = UNIT)
+    public void closedOutboxesShouldNotHoldUpPublishing() throws Exception
+    {
+        final StubMqttClient client = new StubMqttClient();
+        client.failConnects(Integer.MAX_VALUE);
+        final ScheduledExecutorService scheduler = newSingleThreadScheduledExecutor();
+        final ConnectionManager connection = new ConnectionManager(client, scheduler, Duration.ofMillis(1),
+            Duration.ofMillis(10), Duration.ofMillis(10));
+        final Outbox outbox = new Outbox(_directory, 4096, 4096);
+        try
+        {
+            // The common pool's threads are daemons, so a drain that never finishes cannot keep the tests from exiting.
+            final PublisherService service = new PublisherService(connection, new JsonMarshaller(QOS0), ForkJoinPool.commonPool(),
+                4, OverflowPolicy.FAIL_FAST, EventMetrics.NONE, outbox);
+            assertEquals(service.publish(new Event<>(TOPIC, TYPE, "stored")).get(5, SECONDS).getStatus(), PublishStatus.STORED);
+            outbox.close();
+            assertTrue(outbox.isEmpty());
+            assertEquals(outbox.size(), 0);
+
+            client.failConnects(0);
+            connection.whenConnected().get(5, SECONDS);
+            assertEquals(service.publish(new Event<>(TOPIC, TYPE, "sent")).get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+        }
+        finally
+        {
+            outbox.close();
+            connection.close();
+            scheduler.shutdownNow();
+        }
+
+        try (Outbox reopened = new Outbox(_directory, 4096, 4096))
+        {
+            assertTrue(_take(reopened).contains("stored"));
+        }
+    }
+}
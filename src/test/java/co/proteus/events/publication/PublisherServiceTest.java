@@ -0,0 +1,548 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import co.proteus.events.marshalling.BufferPool;
+import co.proteus.events.marshalling.EventMarshaller;
+import co.proteus.events.marshalling.MarshalException;
+import co.proteus.events.marshalling.compression.CompressingMarshaller;
+import co.proteus.events.marshalling.compression.DecompressingUnmarshaller;
+import co.proteus.events.marshalling.compression.DeflateCompression;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.marshalling.json.JsonUnmarshaller;
+import co.proteus.events.throttling.EventThrottler;
+
+import static co.proteus.events.TestGroups.UNIT;
+import static co.proteus.events.filtering.JmesPathFilter.jmesPathFilter;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS1;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests for the {@link PublisherService} publish queue.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class PublisherServiceTest
+{
+    private static final String TOPIC = "sample/topic";
+    private static final String TYPE = "sample-type";
+
+    private StubMqttClient _client;
+    private ScheduledExecutorService _scheduler;
+    private ConnectionManager _connection;
+    private List<Runnable> _tasks;
+
+    @BeforeMethod(groups = UNIT)
+    public void setup()
+    {
+        _client = new StubMqttClient();
+        _scheduler = newSingleThreadScheduledExecutor();
+        _connection = new ConnectionManager(_client, _scheduler, Duration.ofMillis(1),
+            Duration.ofMillis(10), Duration.ofMillis(10));
+        _tasks = new ArrayList<>();
+    }
+
+    @AfterMethod(groups = UNIT)
+    public void teardown()
+    {
+        _connection.close();
+        _scheduler.shutdownNow();
+    }
+
+    private PublisherService _createService(final Executor executor, final int capacity, final OverflowPolicy overflowPolicy)
+        throws Exception
+    {
+        final PublisherService service = new PublisherService(_connection, new JsonMarshaller(QOS0), executor, capacity,
+            overflowPolicy);
+        _connection.whenConnected().get(5, SECONDS);
+        return service;
+    }
+
+    @Test(groups = UNIT)
+    public void futureShouldCompleteWhenBrokerAcknowledges() throws Exception
+    {
+        _client.holdAcks(true);
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+
+        final CompletableFuture<PublishResult> result = service.publish(new Event<>(TOPIC, TYPE, "hello"));
+        assertEquals(_client.getPublished().size(), 1);
+        assertFalse(result.isDone());
+
+        _client.ackNext();
+        assertEquals(result.get().getStatus(), PublishStatus.PUBLISHED);
+    }
+
+    @Test(groups = UNIT)
+    public void eventsShouldBeSentInOrder() throws Exception
+    {
+        final PublisherService service = _createService(_tasks::add, 8, OverflowPolicy.BLOCK);
+        for (int i = 0; i < 5; i++)
+            service.publish(new Event<>(TOPIC, TYPE, "event-" + i));
+
+        assertEquals(_tasks.size(), 1, "only one drain task should be scheduled");
+        _tasks.get(0).run();
+
+        assertEquals(_client.getPublished().size(), 5);
+        for (int i = 0; i < 5; i++)
+            assertTrue(_client.getPublished().get(i).getStringPayload().contains("event-" + i));
+    }
+
+    @Test(groups = UNIT)
+    public void eventsShouldBeHeldUntilConnected() throws Exception
+    {
+        _client.failConnects(3);
+        final PublisherService service = new PublisherService(_connection, new JsonMarshaller(QOS0), Runnable::run, 4,
+            OverflowPolicy.BLOCK);
+        final CompletableFuture<PublishResult> result = service.publish(new Event<>(TOPIC, TYPE, "hello"));
+
+        assertEquals(result.get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+        assertEquals(_connection.getState(), ConnectionManager.State.CONNECTED);
+        assertEquals(_client.getPublished().size(), 1);
+    }
+
+    @Test(groups = UNIT)
+    public void failFastShouldRejectWhenFull() throws Exception
+    {
+        final PublisherService service = _createService(_tasks::add, 1, OverflowPolicy.FAIL_FAST);
+        final CompletableFuture<PublishResult> first = service.publish(new Event<>(TOPIC, TYPE, "first"));
+        final CompletableFuture<PublishResult> second = service.publish(new Event<>(TOPIC, TYPE, "second"));
+
+        try
+        {
+            second.get();
+            fail("Expected the second event to be rejected");
+        }
+        catch (final ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        _tasks.get(0).run();
+        assertEquals(first.get().getStatus(), PublishStatus.PUBLISHED);
+    }
+
+    @Test(groups = UNIT)
+    public void dropOldestShouldDiscardQueuedEvent() throws Exception
+    {
+        final PublisherService service = _createService(_tasks::add, 1, OverflowPolicy.DROP_OLDEST);
+        final CompletableFuture<PublishResult> first = service.publish(new Event<>(TOPIC, TYPE, "first"));
+        final CompletableFuture<PublishResult> second = service.publish(new Event<>(TOPIC, TYPE, "second"));
+
+        assertEquals(first.get().getStatus(), PublishStatus.DROPPED);
+        assertEquals(service.getQueueDepth(), 1);
+
+        _tasks.get(0).run();
+        assertEquals(second.get().getStatus(), PublishStatus.PUBLISHED);
+        assertEquals(_client.getPublished().size(), 1);
+        assertTrue(_client.getPublished().get(0).getStringPayload().contains("second"));
+    }
+
+    @Test(groups = UNIT)
+    public void batchesShouldBePackedByTopic() throws Exception
+    {
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+        service.registerThrottler(TOPIC, "throttled-type", parameters -> false);
+
+        final List<PublishResult> results = service.publishBatch(asList(
+            new Event<>(TOPIC, TYPE, "first"),
+            new Event<>("other/topic", TYPE, "other"),
+            new Event<>(TOPIC, "throttled-type", "throttled"),
+            new Event<>(TOPIC, TYPE, "second"))).get(5, SECONDS);
+
+        assertEquals(results.size(), 4);
+        assertEquals(results.get(2).getStatus(), PublishStatus.THROTTLED);
+        assertEquals(_client.getPublished().size(), 2);
+        final String batch = _client.getPublished().get(0).getStringPayload();
+        assertTrue(batch.indexOf("first") < batch.indexOf("second"));
+        assertFalse(batch.contains("throttled"));
+    }
+
+    @Test(groups = UNIT)
+    public void blockedBatchesShouldNotDelayOtherServices() throws Exception
+    {
+        // The drain tasks of this service are held, so whichever of its batches expires second waits for room in the queue.
+        final Queue<Runnable> held = new ConcurrentLinkedQueue<>();
+        final PublisherService blocked = _createService(held::add, 1, OverflowPolicy.BLOCK);
+        blocked.enableBatching(Duration.ofMillis(1), 8);
+        final CompletableFuture<PublishResult> queued = blocked.publish(new Event<>(TOPIC, TYPE, "queued"));
+        final CompletableFuture<PublishResult> waiting = blocked.publish(new Event<>("other/topic", TYPE, "waiting"));
+        while (blocked.getQueueDepth() == 0)
+            Thread.yield();
+
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+        service.enableBatching(Duration.ofMillis(1), 8);
+        assertEquals(service.publish(new Event<>(TOPIC, TYPE, "sent")).get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+        assertFalse(queued.isDone() || waiting.isDone());
+
+        while (!queued.isDone() || !waiting.isDone())
+        {
+            final Runnable task = held.poll();
+            if (task != null) task.run();
+            else Thread.yield();
+        }
+        assertEquals(queued.get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+        assertEquals(waiting.get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+    }
+
+    @Test(groups = UNIT)
+    public void batchingShouldSendWhenFullOrAfterLinger() throws Exception
+    {
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+        service.enableBatching(Duration.ofMillis(50), 3);
+
+        final List<CompletableFuture<PublishResult>> full = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            full.add(service.publish(new Event<>(TOPIC, TYPE, "event-" + i)));
+        assertEquals(_client.getPublished().size(), 1, "a full batch should be sent right away");
+        for (final CompletableFuture<PublishResult> result : full)
+            assertEquals(result.get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+
+        final CompletableFuture<PublishResult> lingering = service.publish(new Event<>(TOPIC, TYPE, "event-3"));
+        assertEquals(_client.getPublished().size(), 1);
+        assertEquals(lingering.get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+        assertEquals(_client.getPublished().size(), 2);
+    }
+
+    @Test(groups = UNIT)
+    public void throttledEventsShouldBeCoalescedByKey() throws Exception
+    {
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+        service.registerThrottler(TOPIC, TYPE, parameters -> false);
+        service.<String>enableCoalescing(TOPIC, TYPE, Duration.ofMillis(20), payload -> payload.substring(0, 1));
+
+        final CompletableFuture<PublishResult> a1 = service.publish(new Event<>(TOPIC, TYPE, "a-1"));
+        final CompletableFuture<PublishResult> b1 = service.publish(new Event<>(TOPIC, TYPE, "b-1"));
+        final CompletableFuture<PublishResult> a2 = service.publish(new Event<>(TOPIC, TYPE, "a-2"));
+
+        assertEquals(a1.get(5, SECONDS).getStatus(), PublishStatus.SUPERSEDED);
+        assertEquals(a2.get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+        assertEquals(b1.get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+        assertEquals(_client.getPublished().size(), 2);
+        assertFalse(_client.getPublished().stream().anyMatch(message -> message.getStringPayload().contains("a-1")));
+    }
+
+    @Test(groups = UNIT)
+    public void sentEventsShouldSupersedeCoalescedEvents() throws Exception
+    {
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+        final AtomicBoolean allow = new AtomicBoolean();
+        service.registerThrottler(TOPIC, TYPE, parameters -> allow.get());
+        service.enableCoalescing(TOPIC, TYPE, Duration.ofHours(1));
+
+        final CompletableFuture<PublishResult> stale = service.publish(new Event<>(TOPIC, TYPE, "stale"));
+        allow.set(true);
+        final CompletableFuture<PublishResult> fresh = service.publish(new Event<>(TOPIC, TYPE, "fresh"));
+
+        assertEquals(stale.get(5, SECONDS).getStatus(), PublishStatus.SUPERSEDED);
+        assertEquals(fresh.get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+        service.disableCoalescing(TOPIC, TYPE);
+        assertEquals(_client.getPublished().size(), 1);
+    }
+
+    @Test(groups = UNIT)
+    public void localEventsShouldSkipTheBroker() throws Exception
+    {
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+        final SubscriptionService subscriptions = new SubscriptionService(_connection, new JsonUnmarshaller(), Runnable::run,
+            4, OverflowPolicy.BLOCK);
+        final List<Event<String>> received = new CopyOnWriteArrayList<>();
+        subscriptions.<String>subscribe(TOPIC, TYPE, jmesPathFilter("payload != 'ignored'"), received::add).get(5, SECONDS);
+        service.enableLocalDelivery(TOPIC, TYPE, subscriptions, false);
+
+        final Event<String> event = new Event<>(TOPIC, TYPE, "hello");
+        assertEquals(service.publish(event).get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+        service.publish(new Event<>(TOPIC, TYPE, "ignored")).get(5, SECONDS);
+
+        assertEquals(received.size(), 1);
+        assertSame(received.get(0), event);
+        assertTrue(_client.getPublished().isEmpty());
+
+        service.disableLocalDelivery(TOPIC, TYPE);
+        service.publish(new Event<>(TOPIC, TYPE, "remote")).get(5, SECONDS);
+        assertEquals(_client.getPublished().size(), 1);
+    }
+
+    @Test(groups = UNIT)
+    public void compressedLocalEventsShouldBeDecompressedForFilters() throws Exception
+    {
+        final PublisherService service = new PublisherService(_connection, new CompressingMarshaller(new JsonMarshaller(QOS0),
+            new DeflateCompression(), 64, new BufferPool(1, 4096)), Runnable::run, 4, OverflowPolicy.BLOCK);
+        final SubscriptionService subscriptions = new SubscriptionService(_connection,
+            new DecompressingUnmarshaller(new JsonUnmarshaller()), Runnable::run, 4, OverflowPolicy.BLOCK);
+        final List<Event<String>> received = new CopyOnWriteArrayList<>();
+        subscriptions.<String>subscribe(TOPIC, TYPE, jmesPathFilter("payload != 'ignored'"), received::add).get(5, SECONDS);
+        service.enableLocalDelivery(TOPIC, TYPE, subscriptions, false);
+
+        final Event<String> event = new Event<>(TOPIC, TYPE, new String(new char[3000]).replace('\0', 'x'));
+        assertEquals(service.publish(event).get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+
+        assertEquals(received.size(), 1);
+        assertSame(received.get(0), event);
+    }
+
+    @Test(groups = UNIT)
+    public void localEventsThatCannotBeMarshalledShouldNotBeDelivered() throws Exception
+    {
+        final EventMarshaller failing = new EventMarshaller()
+        {
+            @Override
+            public <T> AWSIotMessage marshall(final Event<T> event) throws MarshalException
+            {
+                throw new MarshalException("Cannot marshall " + event);
+            }
+        };
+        final PublisherService service = new PublisherService(_connection, failing, Runnable::run, 4, OverflowPolicy.BLOCK);
+        final SubscriptionService subscriptions = new SubscriptionService(_connection, new JsonUnmarshaller(), Runnable::run,
+            4, OverflowPolicy.BLOCK);
+        final List<Event<String>> received = new CopyOnWriteArrayList<>();
+        // The exact route is filtered first and does not read the payload; the wildcard route does.
+        subscriptions.<String>subscribe(TOPIC, TYPE, it -> true, received::add).get(5, SECONDS);
+        subscriptions.<String>subscribe("sample/+", TYPE, jmesPathFilter("payload != 'ignored'"), received::add)
+            .get(5, SECONDS);
+        service.enableLocalDelivery(TOPIC, TYPE, subscriptions, true);
+
+        final CompletableFuture<PublishResult> result = service.publish(new Event<>(TOPIC, TYPE, "hello"));
+
+        try
+        {
+            result.get(5, SECONDS);
+            fail("Expected the publish to fail");
+        }
+        catch (final ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof MarshalException);
+        }
+        assertTrue(received.isEmpty());
+        assertTrue(_client.getPublished().isEmpty());
+    }
+
+    @Test(groups = UNIT)
+    public void localEventsSentToTheBrokerShouldNotBeReceivedTwice() throws Exception
+    {
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+        final SubscriptionService subscriptions = new SubscriptionService(_connection, new JsonUnmarshaller(), Runnable::run,
+            4, OverflowPolicy.BLOCK);
+        final List<Event<String>> received = new CopyOnWriteArrayList<>();
+        subscriptions.<String>subscribe(TOPIC, TYPE, it -> true, received::add).get(5, SECONDS);
+        service.enableLocalDelivery(TOPIC, TYPE, subscriptions, true);
+
+        assertEquals(service.publish(new Event<>(TOPIC, TYPE, "hello")).get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+        assertEquals(_client.getPublished().size(), 1);
+        _client.deliver(_client.getPublished().get(0));
+        assertEquals(received.size(), 1);
+
+        service.disableLocalDelivery(TOPIC, TYPE);
+        _client.deliver(_client.getPublished().get(0));
+        assertEquals(received.size(), 2);
+    }
+
+    @Test(groups = UNIT)
+    public void otherPublishersShouldStillBeReceivedOnLocalChannels() throws Exception
+    {
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+        final SubscriptionService subscriptions = new SubscriptionService(_connection, new JsonUnmarshaller(), Runnable::run,
+            4, OverflowPolicy.BLOCK);
+        final List<Event<String>> received = new CopyOnWriteArrayList<>();
+        subscriptions.<String>subscribe(TOPIC, TYPE, it -> true, received::add).get(5, SECONDS);
+        service.enableLocalDelivery(TOPIC, TYPE, subscriptions, true);
+
+        service.publish(new Event<>(TOPIC, TYPE, "local")).get(5, SECONDS);
+        final JsonMarshaller remote = new JsonMarshaller(QOS0);
+        _client.deliver(remote.marshall(new Event<>(TOPIC, TYPE, "unmarked")));
+        _client.deliver(remote.marshall(new Event<>(TOPIC, TYPE, "marked").withOrigin("other-process")));
+        _client.deliver(_client.getPublished().get(0));
+
+        assertEquals(received.size(), 3);
+        assertEquals(received.get(0).getPayload(), "local");
+        assertEquals(received.get(1).getPayload(), "unmarked");
+        assertEquals(received.get(2).getPayload(), "marked");
+        assertEquals(received.get(2).getOrigin(), "other-process");
+    }
+
+    @Test(groups = UNIT)
+    public void higherPriorityEventsShouldBeSentFirst() throws Exception
+    {
+        final PublisherService service = _createService(_tasks::add, 8, OverflowPolicy.BLOCK);
+        service.registerPriority(TOPIC, "alarm", PublishPriority.HIGH);
+        service.registerPriority(TOPIC, "bulk", PublishPriority.LOW);
+        service.publish(new Event<>(TOPIC, "bulk", "bulk-0"));
+        service.publish(new Event<>(TOPIC, TYPE, "normal-0"));
+        service.publish(new Event<>(TOPIC, "bulk", "bulk-1"));
+        service.publish(new Event<>(TOPIC, "alarm", "alarm-0"));
+        assertEquals(service.getQueueDepth(), 4);
+
+        _tasks.get(0).run();
+
+        final List<String> sent = new ArrayList<>();
+        _client.getPublished().forEach(message -> sent.add(message.getStringPayload()));
+        assertEquals(sent.size(), 4);
+        assertTrue(sent.get(0).contains("alarm-0"));
+        assertTrue(sent.get(1).contains("normal-0"));
+        assertTrue(sent.get(2).contains("bulk-0"));
+        assertTrue(sent.get(3).contains("bulk-1"));
+    }
+
+    @Test(groups = UNIT)
+    public void lowerPriorityEventsShouldNotBeStarved() throws Exception
+    {
+        final PublisherService service = _createService(_tasks::add, 64, OverflowPolicy.BLOCK);
+        service.registerPriority(TOPIC, "alarm", PublishPriority.HIGH);
+        service.publish(new Event<>(TOPIC, TYPE, "normal"));
+        for (int i = 0; i < 40; i++)
+            service.publish(new Event<>(TOPIC, "alarm", "alarm-" + i));
+
+        _tasks.get(0).run();
+
+        assertEquals(_client.getPublished().size(), 41);
+        assertTrue(_client.getPublished().get(PublishPipeline.LANE_BUDGET).getStringPayload().contains("normal"));
+    }
+
+    @Test(groups = UNIT)
+    public void registeredQosShouldReplaceTheMarshallers() throws Exception
+    {
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+        service.registerQos(TOPIC, "alarm", QOS1);
+        service.publish(new Event<>(TOPIC, "alarm", "alarm")).get(5, SECONDS);
+        service.publish(new Event<>(TOPIC, TYPE, "telemetry")).get(5, SECONDS);
+
+        assertEquals(_client.getPublished().get(0).getQos(), QOS1);
+        assertEquals(_client.getPublished().get(1).getQos(), QOS0);
+    }
+
+    @Test(groups = UNIT)
+    public void adaptiveThrottlersShouldBeToldTheOutcomeOfSentEvents() throws Exception
+    {
+        _client.holdAcks(true);
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+        final List<String> outcomes = new CopyOnWriteArrayList<>();
+        service.registerThrottler(TOPIC, TYPE, new EventThrottler<String>()
+        {
+            @Override
+            public boolean shouldSend(final Parameters<String> params)
+            {
+                return !params.getEvent().getPayload().equals("throttled");
+            }
+
+            @Override
+            public boolean isAdaptive()
+            {
+                return true;
+            }
+
+            @Override
+            public void completed(
+                final Parameters<String> params, final PublishStatus status, final Throwable error, final long latencyNanos)
+            {
+                assertTrue(latencyNanos >= 0);
+                outcomes.add(params.getEvent().getPayload() + ':' + (error != null ? "failed" : status));
+            }
+        });
+
+        service.publish(new Event<>(TOPIC, TYPE, "sent"));
+        service.publish(new Event<>(TOPIC, TYPE, "throttled"));
+        final CompletableFuture<PublishResult> failed = service.publish(new Event<>(TOPIC, TYPE, "rejected"));
+        _client.ackNext();
+        _client.getPublished().get(1).onFailure();
+
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(outcomes, asList("sent:PUBLISHED", "rejected:failed"));
+    }
+
+    @Test(groups = UNIT)
+    public void adaptiveLatencyShouldNotIncludeBatchingLinger() throws Exception
+    {
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+        service.enableBatching(Duration.ofMillis(200), 8);
+        final CompletableFuture<Long> latency = new CompletableFuture<>();
+        service.registerThrottler(TOPIC, TYPE, new AdaptiveStub(true, (status, latencyNanos) -> latency.complete(latencyNanos)));
+
+        service.publish(new Event<>(TOPIC, TYPE, "lingering"));
+
+        assertTrue(latency.get(5, SECONDS) < MILLISECONDS.toNanos(100), "the linger should not count as latency");
+    }
+
+    @Test(groups = UNIT)
+    public void adaptiveThrottlersShouldBeToldTheOutcomeOfCoalescedEvents() throws Exception
+    {
+        final PublisherService service = _createService(Runnable::run, 4, OverflowPolicy.BLOCK);
+        final CompletableFuture<PublishStatus> outcome = new CompletableFuture<>();
+        service.registerThrottler(TOPIC, TYPE, new AdaptiveStub(false, (status, latencyNanos) -> outcome.complete(status)));
+        service.enableCoalescing(TOPIC, TYPE, Duration.ofHours(1));
+
+        final CompletableFuture<PublishResult> deferred = service.publish(new Event<>(TOPIC, TYPE, "deferred"));
+        assertFalse(outcome.isDone());
+        service.disableCoalescing(TOPIC, TYPE);
+
+        assertEquals(deferred.get(5, SECONDS).getStatus(), PublishStatus.PUBLISHED);
+        assertEquals(outcome.get(5, SECONDS), PublishStatus.PUBLISHED);
+    }
+
+    // An adaptive throttler that allows or throttles every event and passes each outcome to a listener.
+    private static final class AdaptiveStub implements EventThrottler<String>
+    {
+        private final boolean _allow;
+        private final BiConsumer<PublishStatus, Long> _listener;
+
+        AdaptiveStub(final boolean allow, final BiConsumer<PublishStatus, Long> listener)
+        {
+            _allow = allow;
+            _listener = listener;
+        }
+
+        @Override
+        public boolean shouldSend(final Parameters<String> params)
+        {
+            return _allow;
+        }
+
+        @Override
+        public boolean isAdaptive()
+        {
+            return true;
+        }
+
+        @Override
+        public void completed(
+            final Parameters<String> params, final PublishStatus status, final Throwable error, final long latencyNanos)
+        {
+            _listener.accept(status, latencyNanos);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import com.amazonaws.services.iot.client.AWSIotConnectionStatus;
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotMqttClient;
+import com.amazonaws.services.iot.client.AWSIotTopic;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link AWSIotMqttClient} that never opens a connection. Published messages are recorded and, unless {@link #holdAcks} is set,
+ * acknowledged immediately. Messages can be delivered to subscribed topics with {@link #deliver}.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public class StubMqttClient extends AWSIotMqttClient
+{
+    private final List<AWSIotMessage> _published = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<AWSIotMessage> _unacknowledged = new LinkedBlockingQueue<>();
+    private final Map<String, AWSIotTopic> _topics = new ConcurrentHashMap<>();
+    private final AtomicInteger _connectFailures = new AtomicInteger();
+    private volatile boolean _holdAcks;
+    private volatile boolean _recordPublished = true;
+    private volatile AWSIotConnectionStatus _status = AWSIotConnectionStatus.DISCONNECTED;
+
+    /**
+     * Create an instance of {@code StubMqttClient}.
+     */
+    public StubMqttClient()
+    {
+        super("stub.iot.us-east-1.amazonaws.com", "stub", "access-key", "secret-key");
+    }
+
+    /**
+     * Keep published messages unacknowledged until {@link #ackNext} is called.
+     *
+     * @param holdAcks true to hold acknowledgements
+     */
+    public void holdAcks(final boolean holdAcks)
+    {
+        _holdAcks = holdAcks;
+    }
+
+    /**
+     * Record published messages so they can be checked with {@link #getPublished}. Recording is on by default; turning it off
+     * keeps memory flat when publishing many messages, such as in benchmarks.
+     *
+     * @param recordPublished true to record published messages
+     */
+    public void recordPublished(final boolean recordPublished)
+    {
+        _recordPublished = recordPublished;
+    }
+
+    /**
+     * Make the next calls to {@link #connect} fail.
+     *
+     * @param count the number of calls that should fail
+     */
+    public void failConnects(final int count)
+    {
+        _connectFailures.set(count);
+    }
+
+    /**
+     * Acknowledge the oldest unacknowledged message.
+     *
+     * @throws InterruptedException if interrupted while waiting for a message
+     */
+    public void ackNext() throws InterruptedException
+    {
+        _unacknowledged.take().onSuccess();
+    }
+
+    /**
+     * Get the messages that have been published.
+     *
+     * @return the messages
+     */
+    public List<AWSIotMessage> getPublished()
+    {
+        return _published;
+    }
+
+    /**
+     * Get the topic filters that are subscribed.
+     *
+     * @return the topic filters
+     */
+    public Set<String> getSubscribedTopics()
+    {
+        return _topics.keySet();
+    }
+
+    /**
+     * Deliver a message to the subscribed topic filters that match it.
+     *
+     * @param message the message
+     */
+    public void deliver(final AWSIotMessage message)
+    {
+        _topics.forEach((filter, topic) -> {
+            if (topicFilterMatch(filter, message.getTopic())) topic.onMessage(message);
+        });
+    }
+
+    /**
+     * Set the connection status reported by the client.
+     *
+     * @param status the status
+     */
+    public void setConnectionStatus(final AWSIotConnectionStatus status)
+    {
+        _status = status;
+    }
+
+    @Override
+    public void connect() throws AWSIotException
+    {
+        if (_connectFailures.getAndDecrement() > 0) throw new AWSIotException("Simulated connection failure");
+        _status = AWSIotConnectionStatus.CONNECTED;
+    }
+
+    @Override
+    public void disconnect() throws AWSIotException
+    {
+        _status = AWSIotConnectionStatus.DISCONNECTED;
+    }
+
+    @Override
+    public AWSIotConnectionStatus getConnectionStatus()
+    {
+        return _status;
+    }
+
+    @Override
+    public void publish(final AWSIotMessage message) throws AWSIotException
+    {
+        if (_recordPublished) _published.add(message);
+    }
+
+    @Override
+    public void publish(final AWSIotMessage message, final long timeout) throws AWSIotException
+    {
+        if (_recordPublished) _published.add(message);
+        if (_holdAcks) _unacknowledged.add(message);
+        else message.onSuccess();
+    }
+
+    @Override
+    public void subscribe(final AWSIotTopic topic) throws AWSIotException
+    {
+        _topics.put(topic.getTopic(), topic);
+    }
+
+    @Override
+    public void subscribe(final AWSIotTopic topic, final long timeout) throws AWSIotException
+    {
+        subscribe(topic);
+        topic.onSuccess();
+    }
+
+    @Override
+    public void unsubscribe(final AWSIotTopic topic) throws AWSIotException
+    {
+        _topics.remove(topic.getTopic());
+    }
+
+    @Override
+    public void unsubscribe(final AWSIotTopic topic, final long timeout) throws AWSIotException
+    {
+        unsubscribe(topic);
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.publication;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import co.proteus.events.filtering.JmesPathFilter;
+import co.proteus.events.filtering.MessageFilter;
+import co.proteus.events.marshalling.EventMarshaller;
+import co.proteus.events.marshalling.json.EventTypeRegistry;
+import co.proteus.events.marshalling.json.JsonMarshaller;
+import co.proteus.events.marshalling.json.JsonUnmarshaller;
+import co.proteus.events.publication.SubscriptionService.Subscription;
+
+import static co.proteus.events.TestGroups.UNIT;
+import static co.proteus.events.filtering.FieldFilter.fieldFilter;
+import static co.proteus.events.filtering.JmesPathFilter.jmesPathCompile;
+import static com.amazonaws.services.iot.client.AWSIotQos.QOS0;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for routing received messages to {@link SubscriptionService} subscriptions.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class SubscriptionServiceTest
+{
+    private static final String TOPIC = "sample/topic";
+    private static final String TYPE = "sample-type";
+    private static final String OTHER_TYPE = "other-type";
+
+    private final EventMarshaller _marshaller = new JsonMarshaller(QOS0);
+
+    private StubMqttClient _client;
+    private ScheduledExecutorService _scheduler;
+    private ConnectionManager _connection;
+    private SubscriptionService _service;
+
+    @BeforeMethod(groups = UNIT)
+    public void setup() throws Exception
+    {
+        _client = new StubMqttClient();
+        _scheduler = newSingleThreadScheduledExecutor();
+        _connection = new ConnectionManager(_client, _scheduler, Duration.ofMillis(1), Duration.ofMillis(10),
+            Duration.ofMillis(10));
+        // Deliver on the calling thread so the tests can check what was received right after delivering a message.
+        _service = new SubscriptionService(_connection, new JsonUnmarshaller(), Runnable::run, 16, OverflowPolicy.BLOCK);
+        _connection.whenConnected().get(5, SECONDS);
+    }
+
+    @AfterMethod(groups = UNIT)
+    public void teardown()
+    {
+        _connection.close();
+        _scheduler.shutdownNow();
+    }
+
+    @Test(groups = UNIT)
+    public void eventsShouldBeRoutedByEventType() throws Exception
+    {
+        final List<Event<String>> received = new CopyOnWriteArrayList<>();
+        final List<Event<String>> other = new CopyOnWriteArrayList<>();
+        _service.<String>subscribe(TOPIC, TYPE, it -> true, received::add).get(5, SECONDS);
+        _service.<String>subscribe(TOPIC, OTHER_TYPE, it -> true, other::add).get(5, SECONDS);
+
+        _client.deliver(_marshaller.marshall(new Event<>(TOPIC, TYPE, "hello")));
+
+        assertEquals(received.size(), 1);
+        assertEquals(received.get(0).getPayload(), "hello");
+        assertTrue(other.isEmpty());
+    }
+
+    @Test(groups = UNIT)
+    public void filtersShouldBeAppliedPerSubscription() throws Exception
+    {
+        final List<Event<String>> accepted = new CopyOnWriteArrayList<>();
+        final List<Event<String>> rejected = new CopyOnWriteArrayList<>();
+        _service.<String>subscribe(TOPIC, TYPE, it -> true, accepted::add).get(5, SECONDS);
+        _service.<String>subscribe(TOPIC, TYPE, it -> false, rejected::add).get(5, SECONDS);
+
+        _client.deliver(_marshaller.marshall(new Event<>(TOPIC, TYPE, "hello")));
+
+        assertEquals(accepted.size(), 1);
+        assertTrue(rejected.isEmpty());
+    }
+
+    @Test(groups = UNIT)
+    public void topicShouldStaySubscribedUntilLastSubscriptionIsRemoved() throws Exception
+    {
+        final List<Event<String>> received = new CopyOnWriteArrayList<>();
+        final Subscription<String> first = _service.<String>subscribe(TOPIC, TYPE, it -> true, received::add)
+            .get(5, SECONDS);
+        final Subscription<String> second = _service.<String>subscribe(TOPIC, OTHER_TYPE, it -> true, received::add)
+            .get(5, SECONDS);
+
+        _service.unsubscribe(first);
+        _client.deliver(_marshaller.marshall(new Event<>(TOPIC, OTHER_TYPE, "still here")));
+        assertEquals(received.size(), 1);
+
+        _service.unsubscribe(second);
+        _client.deliver(_marshaller.marshall(new Event<>(TOPIC, OTHER_TYPE, "gone")));
+        assertEquals(received.size(), 1);
+        assertFalse(received.get(0).getPayload().equals("gone"));
+    }
+
+    @DataProvider
+    Object[][] topicFilters()
+    {
+        return new Object[][]
+            {
+                {"devices/+/telemetry", "devices/42/telemetry", true},
+                {"devices/+/telemetry", "devices/42/status", false},
+                {"devices/+/telemetry", "devices/42/telemetry/extra", false},
+                {"devices/#", "devices/42", true},
+                {"devices/#", "devices/42/telemetry", true},
+                {"devices/#", "other/42", false},
+                {"+/+/telemetry", "devices/42/telemetry", true},
+                {"#", "$aws/things/thing", false},
+                {"+/things/thing", "$aws/things/thing", false},
+            };
+    }
+
+    @Test(groups = UNIT, dataProvider = "topicFilters")
+    public void wildcardSubscriptionsShouldMatchTopics(final String filter, final String topic, final boolean expected)
+        throws Exception
+    {
+        final List<Event<String>> received = new CopyOnWriteArrayList<>();
+        _service.<String>subscribe(filter, TYPE, it -> true, received::add).get(5, SECONDS);
+
+        _client.deliver(_marshaller.marshall(new Event<>(topic, TYPE, "hello")));
+
+        assertEquals(received.size(), expected ? 1 : 0);
+        if (expected) assertEquals(received.get(0).getTopic(), topic);
+    }
+
+    @Test(groups = UNIT)
+    public void coveredTopicsShouldReuseBrokerSubscription() throws Exception
+    {
+        final List<Event<String>> wildcard = new CopyOnWriteArrayList<>();
+        final List<Event<String>> device = new CopyOnWriteArrayList<>();
+        final Subscription<String> wildcardSubscription = _service.<String>subscribe(
+            "devices/+/telemetry", TYPE, it -> true, wildcard::add).get(5, SECONDS);
+        _service.<String>subscribe("devices/42/telemetry", TYPE, it -> true, device::add).get(5, SECONDS);
+        assertEquals(_client.getSubscribedTopics(), singleton("devices/+/telemetry"));
+
+        _client.deliver(_marshaller.marshall(new Event<>("devices/42/telemetry", TYPE, "hello")));
+        _client.deliver(_marshaller.marshall(new Event<>("devices/7/telemetry", TYPE, "hello")));
+        assertEquals(wildcard.size(), 2);
+        assertEquals(device.size(), 1);
+
+        // The broker subscription is kept while the device subscription still needs it.
+        _service.unsubscribe(wildcardSubscription);
+        assertEquals(_client.getSubscribedTopics(), singleton("devices/+/telemetry"));
+        _client.deliver(_marshaller.marshall(new Event<>("devices/42/telemetry", TYPE, "hello")));
+        assertEquals(device.size(), 2);
+    }
+
+    @Test(groups = UNIT, expectedExceptions = IllegalArgumentException.class)
+    public void invalidTopicFiltersShouldBeRejected()
+    {
+        _service.<String>subscribe("devices/#/telemetry", TYPE, it -> true, event -> { });
+    }
+
+    @Test(groups = UNIT)
+    public void slowSubscribersShouldNotDelayOtherSubscribers() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Event<String>> slow = new CopyOnWriteArrayList<>();
+        final List<Event<String>> fast = new CopyOnWriteArrayList<>();
+        final CountDownLatch fastReceived = new CountDownLatch(3);
+        final ExecutorService slowExecutor = Executors.newSingleThreadExecutor();
+        try
+        {
+            _service.<String>subscribe(TOPIC, TYPE, it -> true, event -> {
+                _await(release);
+                slow.add(event);
+            }, slowExecutor).get(5, SECONDS);
+            _service.<String>subscribe(TOPIC, TYPE, it -> true, event -> {
+                fast.add(event);
+                fastReceived.countDown();
+            }).get(5, SECONDS);
+
+            for (int i = 0; i < 3; i++)
+                _client.deliver(_marshaller.marshall(new Event<>(TOPIC, TYPE, "event-" + i)));
+
+            assertTrue(fastReceived.await(5, SECONDS));
+            assertTrue(slow.isEmpty());
+
+            release.countDown();
+            slowExecutor.shutdown();
+            assertTrue(slowExecutor.awaitTermination(5, SECONDS));
+            assertEquals(slow.size(), 3);
+            for (int i = 0; i < 3; i++)
+                assertEquals(slow.get(i).getPayload(), "event-" + i);
+        }
+        finally
+        {
+            release.countDown();
+            slowExecutor.shutdownNow();
+        }
+    }
+
+    @Test(groups = UNIT)
+    public void fullQueuesShouldDropOldestEvents() throws Exception
+    {
+        final List<Runnable> tasks = new ArrayList<>();
+        final SubscriptionService service = new SubscriptionService(_connection, new JsonUnmarshaller(), tasks::add, 2,
+            OverflowPolicy.DROP_OLDEST);
+        final List<Event<String>> received = new ArrayList<>();
+        final Subscription<String> subscription = service.<String>subscribe("other/topic", TYPE, it -> true, received::add)
+            .get(5, SECONDS);
+
+        for (int i = 0; i < 5; i++)
+            _client.deliver(_marshaller.marshall(new Event<>("other/topic", TYPE, "event-" + i)));
+        assertEquals(subscription.getQueueDepth(), 2);
+        assertEquals(subscription.getDroppedCount(), 3);
+
+        tasks.get(0).run();
+        assertEquals(received.size(), 2);
+        assertEquals(received.get(0).getPayload(), "event-3");
+        assertEquals(received.get(1).getPayload(), "event-4");
+    }
+
+    @Test(groups = UNIT)
+    public void batchesShouldBeDeliveredAsIndividualEvents() throws Exception
+    {
+        final List<Event<String>> received = new CopyOnWriteArrayList<>();
+        final List<Event<String>> other = new CopyOnWriteArrayList<>();
+        final JmesPathFilter filter = new JmesPathFilter(jmesPathCompile("payload != 'skip'"));
+        _service.<String>subscribe(TOPIC, TYPE, filter, received::add).get(5, SECONDS);
+        _service.<String>subscribe(TOPIC, OTHER_TYPE, it -> true, other::add).get(5, SECONDS);
+
+        _client.deliver(_marshaller.marshallBatch(TOPIC, asList(
+            new Event<>(TOPIC, TYPE, "first"),
+            new Event<>(TOPIC, OTHER_TYPE, "other"),
+            new Event<>(TOPIC, TYPE, "skip"),
+            new Event<>(TOPIC, TYPE, "second"))));
+
+        assertEquals(received.size(), 2);
+        assertEquals(received.get(0).getPayload(), "first");
+        assertEquals(received.get(1).getPayload(), "second");
+        assertEquals(other.size(), 1);
+    }
+
+    @Test(groups = UNIT)
+    public void singleEventsShouldBeFilteredWithoutParsingTheMessage() throws Exception
+    {
+        final EventTypeRegistry registry = new EventTypeRegistry();
+        registry.register(TYPE, Map.class);
+        final SubscriptionService service = new SubscriptionService(_connection, new JsonUnmarshaller(registry, true),
+            Runnable::run, 16, OverflowPolicy.BLOCK);
+        final List<Event<Map<String, Object>>> received = new CopyOnWriteArrayList<>();
+        final List<MessageFilter.Parameters> filtered = new CopyOnWriteArrayList<>();
+        final MessageFilter filter = fieldFilter("severity >= 3");
+        service.<Map<String, Object>>subscribe(TOPIC, TYPE, params -> {
+            filtered.add(params);
+            return filter.accept(params);
+        }, received::add).get(5, SECONDS);
+
+        _client.deliver(_marshaller.marshall(new Event<>(TOPIC, TYPE, singletonMap("severity", 4))));
+        _client.deliver(_marshaller.marshall(new Event<>(TOPIC, TYPE, singletonMap("severity", 1))));
+
+        assertEquals(received.size(), 1);
+        assertEquals(received.get(0).getPayload().get("severity"), 4);
+        assertEquals(filtered.size(), 2);
+        for (final MessageFilter.Parameters params : filtered)
+            assertFalse(params.isJsonParsed());
+    }
+
+    private static void _await(final CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
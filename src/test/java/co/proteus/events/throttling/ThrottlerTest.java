@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) Interactive Information R & D (I2RD) LLC.
+ * All Rights Reserved.
+ *
+ * This software is confidential and proprietary information of
+ * I2RD LLC ("Confidential Information"). You shall not disclose
+ * such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered
+ * into with I2RD.
+ */
+
+package co.proteus.events.throttling;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.proteus.events.publication.Event;
+import co.proteus.events.publication.PublishStatus;
+
+import static co.proteus.events.TestGroups.UNIT;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for the rate limiting {@link EventThrottler throttlers}, using a fake clock.
+ *
+ * @author Justin Piper (jpiper@proteus.co)
+ */
+public final class ThrottlerTest
+{
+    private static final String TOPIC = "sample/topic";
+    private static final String TYPE = "sample-type";
+
+    private final AtomicLong _now = new AtomicLong();
+
+    @BeforeMethod(groups = UNIT)
+    public void setup()
+    {
+        // Start away from zero so the throttlers do not depend on the clock's origin.
+        _now.set(-1_000_000_000L);
+    }
+
+    private static EventThrottler.Parameters<String> _params(final String payload)
+    {
+        return new EventThrottler.Parameters<>(new Event<>(TOPIC, TYPE, payload));
+    }
+
+    private void _advance(final Duration duration)
+    {
+        _now.addAndGet(duration.toNanos());
+    }
+
+    private static int _countSent(final EventThrottler<String> throttler, final String payload, final int attempts)
+    {
+        int sent = 0;
+        for (int i = 0; i < attempts; i++)
+            if (throttler.shouldSend(_params(payload))) sent++;
+        return sent;
+    }
+
+    @Test(groups = UNIT)
+    public void tokenBucketShouldAllowBurstsUpToCapacity()
+    {
+        final EventThrottler<String> throttler = new TokenBucketThrottler<>(5, 10, Duration.ofSeconds(1), _now::get);
+        assertEquals(_countSent(throttler, "event", 10), 5);
+
+        _advance(Duration.ofMillis(100));
+        assertEquals(_countSent(throttler, "event", 10), 1);
+
+        _advance(Duration.ofSeconds(10));
+        assertEquals(_countSent(throttler, "event", 10), 5, "the bucket should not fill past its capacity");
+    }
+
+    @Test(groups = UNIT)
+    public void slidingWindowShouldLimitEventsAcrossWindowBoundaries()
+    {
+        final EventThrottler<String> throttler = new SlidingWindowThrottler<>(10, Duration.ofSeconds(1), _now::get);
+        _advance(Duration.ofMillis(900));
+        assertEquals(_countSent(throttler, "event", 20), 10);
+
+        // Three quarters of the previous window still overlaps, so only a quarter of the limit is available.
+        _advance(Duration.ofMillis(350));
+        assertEquals(_countSent(throttler, "event", 20), 3);
+
+        _advance(Duration.ofSeconds(5));
+        assertEquals(_countSent(throttler, "event", 20), 10);
+    }
+
+    @Test(groups = UNIT)
+    public void perKeyThrottlerShouldLimitKeysIndependently()
+    {
+        final EventThrottler<String> throttler = new PerKeyThrottler<String, String>(
+            payload -> payload, () -> new TokenBucketThrottler<>(2, 1, Duration.ofSeconds(1), _now::get), 100,
+            Duration.ofMinutes(1), _now::get);
+
+        assertEquals(_countSent(throttler, "device-1", 5), 2);
+        assertEquals(_countSent(throttler, "device-2", 5), 2);
+        assertFalse(throttler.shouldSend(_params("device-1")));
+    }
+
+    @Test(groups = UNIT)
+    public void perKeyThrottlerShouldEvictKeys()
+    {
+        final PerKeyThrottler<String, String> throttler = new PerKeyThrottler<>(
+            payload -> payload, () -> new TokenBucketThrottler<>(1, 1, Duration.ofHours(1), _now::get), 32,
+            Duration.ofSeconds(10), _now::get);
+
+        for (int i = 0; i < 100; i++)
+        {
+            _advance(Duration.ofMillis(1));
+            throttler.shouldSend(_params("device-" + i));
+        }
+        assertTrue(throttler.getKeyCount() <= 32, "too many keys: " + throttler.getKeyCount());
+        assertTrue(throttler.shouldSend(_params("device-0")), "the oldest keys should have been evicted");
+
+        _advance(Duration.ofSeconds(11));
+        throttler.shouldSend(_params("device-new"));
+        assertEquals(throttler.getKeyCount(), 1, "idle keys should have been evicted");
+    }
+
+    @Test(groups = UNIT)
+    public void adaptiveThrottlerShouldHalveItsRateWhenEventsFail()
+    {
+        final AdaptiveThrottler<String> throttler = new AdaptiveThrottler<>(10, 100, Duration.ofMillis(100),
+            Duration.ofSeconds(1), _now::get);
+        assertEquals(throttler.getRate(), 100.0);
+        assertEquals(_countSent(throttler, "event", 100), 10, "the bucket should hold a tenth of a second of events");
+
+        _advance(Duration.ofMillis(500));
+        throttler.completed(_params("event"), null, new RuntimeException("Throttled by the broker"), 1_000_000);
+        _advance(Duration.ofMillis(500));
+        throttler.shouldSend(_params("event"));
+        assertEquals(throttler.getRate(), 50.0);
+
+        for (int i = 0; i < 3; i++)
+        {
+            _advance(Duration.ofMillis(500));
+            throttler.completed(_params("event"), PublishStatus.STORED, null, 1_000_000);
+            _advance(Duration.ofMillis(500));
+            throttler.shouldSend(_params("event"));
+        }
+        assertEquals(throttler.getRate(), 10.0, "the rate should not fall below the minimum");
+    }
+
+    @Test(groups = UNIT)
+    public void adaptiveThrottlerShouldTreatSlowEventsAsCongestion()
+    {
+        final AdaptiveThrottler<String> throttler = new AdaptiveThrottler<>(10, 100, Duration.ofMillis(100),
+            Duration.ofSeconds(1), _now::get);
+        _advance(Duration.ofMillis(500));
+        for (int i = 0; i < 10; i++)
+            throttler.completed(_params("event"), PublishStatus.PUBLISHED, null, Duration.ofMillis(i == 0 ? 200 : 10).toNanos());
+        _advance(Duration.ofMillis(500));
+        throttler.shouldSend(_params("event"));
+        assertEquals(throttler.getRate(), 100.0, "one slow event in ten should be tolerated");
+
+        _advance(Duration.ofMillis(500));
+        for (int i = 0; i < 10; i++)
+            throttler.completed(_params("event"), PublishStatus.PUBLISHED, null, Duration.ofMillis(i < 2 ? 200 : 10).toNanos());
+        _advance(Duration.ofMillis(500));
+        throttler.shouldSend(_params("event"));
+        assertEquals(throttler.getRate(), 50.0);
+    }
+
+    @Test(groups = UNIT)
+    public void adaptiveThrottlerShouldIgnoreEventsSentBeforeItsRateWasLowered()
+    {
+        final AdaptiveThrottler<String> throttler = new AdaptiveThrottler<>(10, 100, Duration.ofMillis(100),
+            Duration.ofSeconds(1), _now::get);
+        _advance(Duration.ofMillis(500));
+        throttler.completed(_params("event"), null, new RuntimeException("Timed out"), 1_000_000);
+        _advance(Duration.ofMillis(500));
+        throttler.shouldSend(_params("event"));
+        assertEquals(throttler.getRate(), 50.0);
+
+        // Sent before the rate was lowered.
+        _advance(Duration.ofMillis(500));
+        throttler.completed(_params("event"), null, new RuntimeException("Timed out"), Duration.ofSeconds(1).toNanos());
+        _advance(Duration.ofMillis(500));
+        throttler.shouldSend(_params("event"));
+        assertEquals(throttler.getRate(), 50.0);
+    }
+
+    @Test(groups = UNIT)
+    public void adaptiveThrottlerShouldRaiseItsRateOnlyWhenItHoldsEventsBack()
+    {
+        final AdaptiveThrottler<String> throttler = new AdaptiveThrottler<>(4, 36, Duration.ofMillis(100),
+            Duration.ofSeconds(1), _now::get);
+        _advance(Duration.ofMillis(500));
+        throttler.completed(_params("event"), PublishStatus.DROPPED, null, 1_000_000);
+        _advance(Duration.ofMillis(500));
+        throttler.shouldSend(_params("event"));
+        assertEquals(throttler.getRate(), 18.0);
+
+        _advance(Duration.ofSeconds(1));
+        throttler.shouldSend(_params("event"));
+        assertEquals(throttler.getRate(), 18.0, "the rate should not rise while it is not limiting");
+
+        assertTrue(_countSent(throttler, "event", 100) < 100);
+        _advance(Duration.ofSeconds(1));
+        throttler.shouldSend(_params("event"));
+        assertEquals(throttler.getRate(), 19.0);
+    }
+}